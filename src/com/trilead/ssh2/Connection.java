@@ -1257,7 +1257,7 @@ public class Connection
 		PacketIgnore pi = new PacketIgnore();
 		pi.setData(data);
 
-		tm.sendMessage(pi.getPayload());
+		tm.sendMessage(pi);
 	}
 
 	/**
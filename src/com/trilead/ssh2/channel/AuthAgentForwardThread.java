@@ -80,7 +80,7 @@ public class AuthAgentForwardThread extends Thread implements IChannelWorkerThre
 	InputStream is;
 	Channel c;
 
-	byte[] buffer = new byte[Channel.CHANNEL_BUFFER_SIZE];
+	byte[] buffer = new byte[Channel.CHANNEL_INITIAL_BUFFER_SIZE];
 
 	public AuthAgentForwardThread(Channel c, AuthAgentCallback authAgent)
 	{
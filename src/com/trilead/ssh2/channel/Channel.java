@@ -1,6 +1,9 @@
 
 package com.trilead.ssh2.channel;
 
+import com.trilead.ssh2.packets.PacketChannelWindowAdjust;
+import com.trilead.ssh2.transport.TransportConnection;
+
 /**
  * Channel.
  * 
@@ -40,7 +43,11 @@ public class Channel
 	static final int STATE_OPEN = 2;
 	static final int STATE_CLOSED = 4;
 
-	static final int CHANNEL_BUFFER_SIZE = 30000;
+	/* The most data buffered for each stream, also the window we offer */
+	static final int CHANNEL_BUFFER_SIZE = 512 * 1024;
+
+	/* The stream buffers start this small and grow when the data needs it */
+	static final int CHANNEL_INITIAL_BUFFER_SIZE = 30000;
 
 	/*
 	 * To achieve correctness, the following rules have to be respected when
@@ -96,7 +103,7 @@ public class Channel
 	 * May only be used while holding the channelSendLock
 	 */
 
-	final byte[] msgWindowAdjust = new byte[9];
+	final PacketChannelWindowAdjust msgWindowAdjust = new PacketChannelWindowAdjust(0, 0);
 
 	// If you access (read or write) any of the following fields, then you have
 	// to synchronize on the channel.
@@ -117,8 +124,8 @@ public class Channel
 	int localMaxPacketSize = -1;
 	int remoteMaxPacketSize = -1;
 
-	final byte[] stdoutBuffer = new byte[CHANNEL_BUFFER_SIZE];
-	final byte[] stderrBuffer = new byte[CHANNEL_BUFFER_SIZE];
+	byte[] stdoutBuffer = new byte[CHANNEL_INITIAL_BUFFER_SIZE];
+	byte[] stderrBuffer = new byte[CHANNEL_INITIAL_BUFFER_SIZE];
 
 	int stdoutReadpos = 0;
 	int stdoutWritepos = 0;
@@ -148,13 +155,32 @@ public class Channel
 		this.cm = cm;
 
 		this.localWindow = CHANNEL_BUFFER_SIZE;
-		this.localMaxPacketSize = 35000 - 1024; // leave enough slack
+		this.localMaxPacketSize = TransportConnection.MAX_PACKET_LENGTH - 1024; // leave enough slack
 
 		this.stdinStream = new ChannelOutputStream(this);
 		this.stdoutStream = new ChannelInputStream(this, false);
 		this.stderrStream = new ChannelInputStream(this, true);
 	}
 
+	/**
+	 * Make room in a stream buffer for data coming in. The window keeps the
+	 * data within CHANNEL_BUFFER_SIZE.
+	 * 
+	 * @param buffer the stream buffer
+	 * @param used bytes at the start of the buffer to keep
+	 * @param needed bytes the buffer has to hold
+	 * @return the buffer, or a bigger copy of it
+	 */
+	static byte[] reserve(byte[] buffer, int used, int needed)
+	{
+		if (needed <= buffer.length)
+			return buffer;
+
+		byte[] bigger = new byte[Math.max(needed, Math.min(CHANNEL_BUFFER_SIZE, 2 * buffer.length))];
+		System.arraycopy(buffer, 0, bigger, 0, used);
+		return bigger;
+	}
+
 	/* Methods to allow access from classes outside of this package */
 
 	public ChannelInputStream getStderrStream()
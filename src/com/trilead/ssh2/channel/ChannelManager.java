@@ -9,9 +9,11 @@ import com.trilead.ssh2.AuthAgentCallback;
 import com.trilead.ssh2.ChannelCondition;
 import com.trilead.ssh2.log.Logger;
 import com.trilead.ssh2.packets.PacketChannelAuthAgentReq;
+import com.trilead.ssh2.packets.PacketChannelData;
 import com.trilead.ssh2.packets.PacketChannelOpenConfirmation;
 import com.trilead.ssh2.packets.PacketChannelOpenFailure;
 import com.trilead.ssh2.packets.PacketChannelTrileadPing;
+import com.trilead.ssh2.packets.PacketChannelWindowAdjust;
 import com.trilead.ssh2.packets.PacketGlobalCancelForwardRequest;
 import com.trilead.ssh2.packets.PacketGlobalForwardRequest;
 import com.trilead.ssh2.packets.PacketGlobalTrileadPing;
@@ -374,7 +376,7 @@ public class ChannelManager implements MessageHandler
 		while (len > 0)
 		{
 			int thislen = 0;
-			byte[] msg;
+			PacketChannelData msg;
 
 			synchronized (c)
 			{
@@ -416,19 +418,8 @@ public class ChannelManager implements MessageHandler
 
 				c.remoteWindow -= thislen;
 
-				msg = new byte[1 + 8 + thislen];
-
-				msg[0] = Packets.SSH_MSG_CHANNEL_DATA;
-				msg[1] = (byte) (c.remoteID >> 24);
-				msg[2] = (byte) (c.remoteID >> 16);
-				msg[3] = (byte) (c.remoteID >> 8);
-				msg[4] = (byte) (c.remoteID);
-				msg[5] = (byte) (thislen >> 24);
-				msg[6] = (byte) (thislen >> 16);
-				msg[7] = (byte) (thislen >> 8);
-				msg[8] = (byte) (thislen);
-
-				System.arraycopy(buffer, pos, msg, 9, thislen);
+				/* The data is copied straight into the packet when it is sent */
+				msg = new PacketChannelData(c.remoteID, buffer, pos, thislen);
 			}
 
 			synchronized (c.channelSendLock)
@@ -911,6 +902,7 @@ public class ChannelManager implements MessageHandler
 
 			c.localWindow -= len;
 
+			c.stderrBuffer = Channel.reserve(c.stderrBuffer, c.stderrWritepos, c.stderrWritepos + len);
 			System.arraycopy(msg, 13, c.stderrBuffer, c.stderrWritepos, len);
 			c.stderrWritepos += len;
 
@@ -1060,13 +1052,18 @@ public class ChannelManager implements MessageHandler
 				System.arraycopy(c.stdoutBuffer, c.stdoutReadpos, target, off, copylen);
 				c.stdoutReadpos += copylen;
 
-				if (c.stdoutReadpos != c.stdoutWritepos)
-
-					System.arraycopy(c.stdoutBuffer, c.stdoutReadpos, c.stdoutBuffer, 0, c.stdoutWritepos
-							- c.stdoutReadpos);
-
-				c.stdoutWritepos -= c.stdoutReadpos;
-				c.stdoutReadpos = 0;
+				if (c.stdoutReadpos == c.stdoutWritepos)
+				{
+					c.stdoutReadpos = 0;
+					c.stdoutWritepos = 0;
+				}
+				else if (c.stdoutReadpos > Channel.CHANNEL_BUFFER_SIZE / 2)
+				{
+					/* move the rest to the front only now and then, so not every read copies it */
+					System.arraycopy(c.stdoutBuffer, c.stdoutReadpos, c.stdoutBuffer, 0, c.stdoutWritepos - c.stdoutReadpos);
+					c.stdoutWritepos -= c.stdoutReadpos;
+					c.stdoutReadpos = 0;
+				}
 			}
 			else
 			{
@@ -1074,18 +1071,24 @@ public class ChannelManager implements MessageHandler
 				System.arraycopy(c.stderrBuffer, c.stderrReadpos, target, off, copylen);
 				c.stderrReadpos += copylen;
 
-				if (c.stderrReadpos != c.stderrWritepos)
-
-					System.arraycopy(c.stderrBuffer, c.stderrReadpos, c.stderrBuffer, 0, c.stderrWritepos
-							- c.stderrReadpos);
-
-				c.stderrWritepos -= c.stderrReadpos;
-				c.stderrReadpos = 0;
+				if (c.stderrReadpos == c.stderrWritepos)
+				{
+					c.stderrReadpos = 0;
+					c.stderrWritepos = 0;
+				}
+				else if (c.stderrReadpos > Channel.CHANNEL_BUFFER_SIZE / 2)
+				{
+					/* move the rest to the front only now and then, so not every read copies it */
+					System.arraycopy(c.stderrBuffer, c.stderrReadpos, c.stderrBuffer, 0, c.stderrWritepos - c.stderrReadpos);
+					c.stderrWritepos -= c.stderrReadpos;
+					c.stderrReadpos = 0;
+				}
 			}
 
 			if (c.state != Channel.STATE_OPEN)
 				return copylen;
 
+			/* data already read before the write position is only free again once the rest is moved */
 			if (c.localWindow < ((Channel.CHANNEL_BUFFER_SIZE + 1) / 2))
 			{
 				int minFreeSpace = Math.min(Channel.CHANNEL_BUFFER_SIZE - c.stdoutWritepos, Channel.CHANNEL_BUFFER_SIZE
@@ -1112,17 +1115,10 @@ public class ChannelManager implements MessageHandler
 
 			synchronized (c.channelSendLock)
 			{
-				byte[] msg = c.msgWindowAdjust;
-
-				msg[0] = Packets.SSH_MSG_CHANNEL_WINDOW_ADJUST;
-				msg[1] = (byte) (remoteID >> 24);
-				msg[2] = (byte) (remoteID >> 16);
-				msg[3] = (byte) (remoteID >> 8);
-				msg[4] = (byte) (remoteID);
-				msg[5] = (byte) (increment >> 24);
-				msg[6] = (byte) (increment >> 16);
-				msg[7] = (byte) (increment >> 8);
-				msg[8] = (byte) (increment);
+				PacketChannelWindowAdjust msg = c.msgWindowAdjust;
+
+				msg.recipientChannelID = remoteID;
+				msg.windowChange = increment;
 
 				if (c.closeMessageSent == false)
 					tm.sendMessage(msg);
@@ -1165,6 +1161,7 @@ public class ChannelManager implements MessageHandler
 
 			c.localWindow -= len;
 
+			c.stdoutBuffer = Channel.reserve(c.stdoutBuffer, c.stdoutWritepos, c.stdoutWritepos + len);
 			System.arraycopy(msg, 9, c.stdoutBuffer, c.stdoutWritepos, len);
 			c.stdoutWritepos += len;
 
@@ -19,7 +19,7 @@ public class StreamForwarder extends Thread
 {
 	final OutputStream os;
 	final InputStream is;
-	final byte[] buffer = new byte[Channel.CHANNEL_BUFFER_SIZE];
+	final byte[] buffer = new byte[Channel.CHANNEL_INITIAL_BUFFER_SIZE];
 	final Channel c;
 	final StreamForwarder sibling;
 	final Socket s;
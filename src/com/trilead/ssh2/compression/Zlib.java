@@ -58,7 +58,7 @@ public class Zlib implements ICompressor {
 	public int compress(byte[] buf, int start, int len, byte[] output) {
 		deflate.next_in = buf;
 		deflate.next_in_index = start;
-		deflate.avail_in = len - start;
+		deflate.avail_in = len;
 
 		if ((buf.length + 1024) > deflate_tmpbuf.length) {
 			deflate_tmpbuf = new byte[buf.length + 1024];
@@ -0,0 +1,56 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+
+/**
+ * A cipher that encrypts and authenticates whole packets in one go, so the
+ * packets need no separate MAC. A packet is handed over in one array: the
+ * four bytes of the packet length, the rest of the packet, and room for the
+ * tag after it.
+ */
+public interface AeadCipher
+{
+	/**
+	 * @return the multiple the packets are padded to, not counting the
+	 *         packet length
+	 */
+	public int getBlockSize();
+
+	/**
+	 * @return number of bytes of the tag that follows each packet
+	 */
+	public int getTagSize();
+
+	/**
+	 * Get the length of a received packet from its first four bytes, which
+	 * are not necessarily encrypted.
+	 *
+	 * @param seq sequence number of the packet
+	 * @param src the first four bytes of the packet, left as they are
+	 * @param off where they start
+	 * @return the packet length, not counting the four bytes or the tag
+	 */
+	public int getPacketLength(int seq, byte[] src, int off);
+
+	/**
+	 * Encrypt a packet in place and put the tag after it.
+	 *
+	 * @param seq sequence number of the packet
+	 * @param buf holds the packet, with room for the tag
+	 * @param off where the packet length starts
+	 * @param len size of the packet including the packet length
+	 */
+	public void seal(int seq, byte[] buf, int off, int len) throws IOException;
+
+	/**
+	 * Check the tag following a received packet and decrypt the packet in
+	 * place. The packet length is left as it was received.
+	 *
+	 * @param seq sequence number of the packet
+	 * @param buf holds the packet and the tag
+	 * @param off where the packet length starts
+	 * @param len size of the packet including the packet length
+	 * @throws IOException if the tag does not match
+	 */
+	public void open(int seq, byte[] buf, int off, int len) throws IOException;
+}
@@ -16,13 +16,20 @@ public class BlockCipherFactory
 		String type;
 		int blocksize;
 		int keysize;
+		int ivsize;
 		String cipherClass;
 
 		public CipherEntry(String type, int blockSize, int keySize, String cipherClass)
+		{
+			this(type, blockSize, keySize, blockSize, cipherClass);
+		}
+
+		public CipherEntry(String type, int blockSize, int keySize, int ivSize, String cipherClass)
 		{
 			this.type = type;
 			this.blocksize = blockSize;
 			this.keysize = keySize;
+			this.ivsize = ivSize;
 			this.cipherClass = cipherClass;
 		}
 	}
@@ -33,6 +40,17 @@ public class BlockCipherFactory
 	{
 		/* Higher Priority First */
 
+		ciphers.addElement(new CipherEntry("chacha20-poly1305@openssh.com", 8, ChaCha20Poly1305.KEY_SIZE, 0,
+				"com.trilead.ssh2.crypto.cipher.ChaCha20Poly1305"));
+
+		if (GCMCipher.isAvailable())
+		{
+			ciphers.addElement(new CipherEntry("aes256-gcm@openssh.com", 16, 32, GCMCipher.IV_SIZE,
+					"com.trilead.ssh2.crypto.cipher.GCMCipher"));
+			ciphers.addElement(new CipherEntry("aes128-gcm@openssh.com", 16, 16, GCMCipher.IV_SIZE,
+					"com.trilead.ssh2.crypto.cipher.GCMCipher"));
+		}
+
 		ciphers.addElement(new CipherEntry("aes256-ctr", 16, 32, "com.trilead.ssh2.crypto.cipher.AES"));
 		ciphers.addElement(new CipherEntry("aes192-ctr", 16, 24, "com.trilead.ssh2.crypto.cipher.AES"));
 		ciphers.addElement(new CipherEntry("aes128-ctr", 16, 16, "com.trilead.ssh2.crypto.cipher.AES"));
@@ -64,7 +82,54 @@ public class BlockCipherFactory
 			getEntry(cipherCandidates[i]);
 	}
 
-	public static BlockCipher createCipher(String type, boolean encrypt, byte[] key, byte[] iv)
+	/**
+	 * @return whether the cipher encrypts and authenticates the packets
+	 *         itself, and has to be created with {@link #createAeadCipher}
+	 */
+	public static boolean isAead(String type)
+	{
+		return type.endsWith("-gcm@openssh.com") || type.equals("chacha20-poly1305@openssh.com");
+	}
+
+	public static AeadCipher createAeadCipher(String type, boolean encrypt, byte[] key, byte[] iv)
+	{
+		getEntry(type);
+
+		if (type.endsWith("-gcm@openssh.com"))
+			return new GCMCipher(encrypt, key, iv);
+		if (type.equals("chacha20-poly1305@openssh.com"))
+			return new ChaCha20Poly1305(key);
+
+		throw new IllegalArgumentException("Cannot instantiate " + type);
+	}
+
+	/**
+	 * Create a cipher for the transport. AES goes to the JCE provider if it
+	 * has the mode, the pure Java classes are used otherwise.
+	 */
+	public static BulkCipher createCipher(String type, boolean encrypt, byte[] key, byte[] iv)
+	{
+		if (type.startsWith("aes"))
+		{
+			String transformation = type.endsWith("-ctr") ? "AES/CTR/NoPadding" : "AES/CBC/NoPadding";
+
+			try
+			{
+				return new JceCipher(transformation, encrypt, key, iv);
+			}
+			catch (IllegalArgumentException e)
+			{
+				/* No provider, or it does not allow the key size */
+			}
+		}
+
+		return createJavaCipher(type, encrypt, key, iv);
+	}
+
+	/**
+	 * Create a cipher for the transport out of the pure Java classes only.
+	 */
+	public static BulkCipher createJavaCipher(String type, boolean encrypt, byte[] key, byte[] iv)
 	{
 		try
 		{
@@ -112,4 +177,10 @@ public class BlockCipherFactory
 		CipherEntry ce = getEntry(type);
 		return ce.keysize;
 	}
+
+	public static int getIvSize(String type)
+	{
+		CipherEntry ce = getEntry(type);
+		return ce.ivsize;
+	}
 }
@@ -0,0 +1,21 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+
+/**
+ * A cipher in some mode that transforms any number of whole blocks in one
+ * call, keeping its state (the counter or the chaining vector) from one
+ * call to the next.
+ */
+public interface BulkCipher
+{
+	public int getBlockSize();
+
+	/**
+	 * Encrypt or decrypt blocks. The source and destination may be the same
+	 * array, also at the same offset.
+	 *
+	 * @param len number of bytes, a multiple of the block size
+	 */
+	public void update(byte[] src, int srcoff, int len, byte[] dst, int dstoff) throws IOException;
+}
@@ -6,7 +6,7 @@ package com.trilead.ssh2.crypto.cipher;
  * @author Christian Plattner, plattner@trilead.com
  * @version $Id: CBCMode.java,v 1.1 2007/10/15 12:49:55 cplattne Exp $
  */
-public class CBCMode implements BlockCipher
+public class CBCMode implements BlockCipher, BulkCipher
 {
 	BlockCipher tc;
 	int blockSize;
@@ -75,4 +75,10 @@ public class CBCMode implements BlockCipher
 		else
 			decryptBlock(src, srcoff, dst, dstoff);
 	}
+
+	public void update(byte[] src, int srcoff, int len, byte[] dst, int dstoff)
+	{
+		for (int i = 0; i < len; i += blockSize)
+			transformBlock(src, srcoff + i, dst, dstoff + i);
+	}
 }
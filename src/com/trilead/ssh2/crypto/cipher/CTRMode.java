@@ -7,7 +7,7 @@ package com.trilead.ssh2.crypto.cipher;
  * @author Christian Plattner, plattner@trilead.com
  * @version $Id: CTRMode.java,v 1.1 2007/10/15 12:49:55 cplattne Exp $
  */
-public class CTRMode implements BlockCipher
+public class CTRMode implements BlockCipher, BulkCipher
 {
 	byte[] X;
 	byte[] Xenc;
@@ -59,4 +59,10 @@ public class CTRMode implements BlockCipher
 
 		}
 	}
+
+	public void update(byte[] src, int srcoff, int len, byte[] dst, int dstoff)
+	{
+		for (int i = 0; i < len; i += blockSize)
+			transformBlock(src, srcoff + i, dst, dstoff + i);
+	}
 }
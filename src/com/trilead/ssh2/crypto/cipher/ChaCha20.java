@@ -0,0 +1,189 @@
+package com.trilead.ssh2.crypto.cipher;
+
+/**
+ * The ChaCha20 stream cipher with a 256 bit key, in the original variant
+ * with a 64 bit block counter and a 64 bit nonce, which is the one
+ * chacha20-poly1305@openssh.com uses. The counter and nonce together are
+ * the last four words of the state, so the variant of RFC 7539 with a 32
+ * bit counter and 96 bit nonce is the same cipher with the first nonce
+ * word as the upper half of the counter.
+ */
+public final class ChaCha20
+{
+	private static final int SIGMA0 = 0x61707865;
+	private static final int SIGMA1 = 0x3320646e;
+	private static final int SIGMA2 = 0x79622d32;
+	private static final int SIGMA3 = 0x6b206574;
+
+	private final int[] state = new int[16];
+
+	private final byte[] keyStream = new byte[64];
+
+	/**
+	 * @param key holds the 32 byte key
+	 * @param off where the key starts
+	 */
+	public ChaCha20(byte[] key, int off)
+	{
+		state[0] = SIGMA0;
+		state[1] = SIGMA1;
+		state[2] = SIGMA2;
+		state[3] = SIGMA3;
+		for (int i = 0; i < 8; i++)
+			state[4 + i] = littleEndian(key, off + 4 * i);
+	}
+
+	/**
+	 * @param nonce holds the 8 byte nonce
+	 * @param off where the nonce starts
+	 */
+	public void setNonce(byte[] nonce, int off)
+	{
+		state[14] = littleEndian(nonce, off);
+		state[15] = littleEndian(nonce, off + 4);
+	}
+
+	/**
+	 * Set the 8 byte nonce from a number, in big endian byte order like
+	 * the SSH sequence number.
+	 */
+	public void setNonce(long nonce)
+	{
+		state[14] = Integer.reverseBytes((int) (nonce >>> 32));
+		state[15] = Integer.reverseBytes((int) nonce);
+	}
+
+	/**
+	 * @param counter number of the next block of key stream
+	 */
+	public void setCounter(long counter)
+	{
+		state[12] = (int) counter;
+		state[13] = (int) (counter >>> 32);
+	}
+
+	/**
+	 * XOR the key stream with the source, starting at the block the counter
+	 * is at. The counter goes up by one for each block; a part of a block
+	 * left over at the end is not used for the next call.
+	 */
+	public void crypt(byte[] src, int srcoff, byte[] dst, int dstoff, int len)
+	{
+		while (len > 0)
+		{
+			nextBlock();
+
+			int n = (len < 64) ? len : 64;
+			for (int i = 0; i < n; i++)
+				dst[dstoff + i] = (byte) (src[srcoff + i] ^ keyStream[i]);
+
+			srcoff += n;
+			dstoff += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Put the key stream itself into the destination, the same as
+	 * encrypting zeros.
+	 */
+	public void keyStream(byte[] dst, int dstoff, int len)
+	{
+		while (len > 0)
+		{
+			nextBlock();
+
+			int n = (len < 64) ? len : 64;
+			System.arraycopy(keyStream, 0, dst, dstoff, n);
+
+			dstoff += n;
+			len -= n;
+		}
+	}
+
+	private void nextBlock()
+	{
+		int x0 = state[0], x1 = state[1], x2 = state[2], x3 = state[3];
+		int x4 = state[4], x5 = state[5], x6 = state[6], x7 = state[7];
+		int x8 = state[8], x9 = state[9], x10 = state[10], x11 = state[11];
+		int x12 = state[12], x13 = state[13], x14 = state[14], x15 = state[15];
+
+		for (int i = 0; i < 10; i++)
+		{
+			/* column rounds */
+			x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16);
+			x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+			x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8);
+			x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+
+			x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16);
+			x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+			x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8);
+			x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+
+			x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16);
+			x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+			x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8);
+			x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+
+			x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16);
+			x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+			x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8);
+			x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+
+			/* diagonal rounds */
+			x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16);
+			x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+			x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8);
+			x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+
+			x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16);
+			x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+			x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8);
+			x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+
+			x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16);
+			x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+			x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8);
+			x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+
+			x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16);
+			x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+			x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8);
+			x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+		}
+
+		putLittleEndian(x0 + state[0], keyStream, 0);
+		putLittleEndian(x1 + state[1], keyStream, 4);
+		putLittleEndian(x2 + state[2], keyStream, 8);
+		putLittleEndian(x3 + state[3], keyStream, 12);
+		putLittleEndian(x4 + state[4], keyStream, 16);
+		putLittleEndian(x5 + state[5], keyStream, 20);
+		putLittleEndian(x6 + state[6], keyStream, 24);
+		putLittleEndian(x7 + state[7], keyStream, 28);
+		putLittleEndian(x8 + state[8], keyStream, 32);
+		putLittleEndian(x9 + state[9], keyStream, 36);
+		putLittleEndian(x10 + state[10], keyStream, 40);
+		putLittleEndian(x11 + state[11], keyStream, 44);
+		putLittleEndian(x12 + state[12], keyStream, 48);
+		putLittleEndian(x13 + state[13], keyStream, 52);
+		putLittleEndian(x14 + state[14], keyStream, 56);
+		putLittleEndian(x15 + state[15], keyStream, 60);
+
+		if (++state[12] == 0)
+			state[13]++;
+	}
+
+	static int littleEndian(byte[] b, int off)
+	{
+		return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | (b[off + 3] << 24);
+	}
+
+	static void putLittleEndian(int v, byte[] b, int off)
+	{
+		b[off] = (byte) v;
+		b[off + 1] = (byte) (v >> 8);
+		b[off + 2] = (byte) (v >> 16);
+		b[off + 3] = (byte) (v >> 24);
+	}
+}
@@ -0,0 +1,103 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+
+import com.trilead.ssh2.crypto.digest.Poly1305;
+
+/**
+ * chacha20-poly1305@openssh.com, as described in PROTOCOL.chacha20poly1305
+ * of OpenSSH. The 64 byte key is split in two: the first half, K_2,
+ * encrypts the packet and gives the Poly1305 key, the second half, K_1,
+ * encrypts only the packet length. Both use the sequence number as the
+ * nonce. The Poly1305 key is the first block of key stream of K_2, the
+ * packet is encrypted starting with the second block. The tag covers the
+ * encrypted packet length and the encrypted packet.
+ */
+public class ChaCha20Poly1305 implements AeadCipher
+{
+	public static final int KEY_SIZE = 64;
+
+	private final ChaCha20 mainCipher;
+
+	private final ChaCha20 headerCipher;
+
+	private final Poly1305 poly1305 = new Poly1305();
+
+	private final byte[] polyKey = new byte[Poly1305.KEY_SIZE];
+
+	private final byte[] length = new byte[4];
+
+	private final byte[] tag = new byte[Poly1305.TAG_SIZE];
+
+	public ChaCha20Poly1305(byte[] key) throws IllegalArgumentException
+	{
+		if (key.length < KEY_SIZE)
+			throw new IllegalArgumentException("Key must be " + KEY_SIZE + " bytes long! (currently " + key.length + ")");
+
+		mainCipher = new ChaCha20(key, 0);
+		headerCipher = new ChaCha20(key, 32);
+	}
+
+	public int getBlockSize()
+	{
+		return 8;
+	}
+
+	public int getTagSize()
+	{
+		return Poly1305.TAG_SIZE;
+	}
+
+	public int getPacketLength(int seq, byte[] src, int off)
+	{
+		headerCipher.setNonce(seq & 0xffffffffL);
+		headerCipher.setCounter(0);
+		headerCipher.crypt(src, off, length, 0, 4);
+
+		return ((length[0] & 0xff) << 24) | ((length[1] & 0xff) << 16) | ((length[2] & 0xff) << 8)
+				| (length[3] & 0xff);
+	}
+
+	public void seal(int seq, byte[] buf, int off, int len) throws IOException
+	{
+		headerCipher.setNonce(seq & 0xffffffffL);
+		headerCipher.setCounter(0);
+		headerCipher.crypt(buf, off, buf, off, 4);
+
+		start(seq);
+		mainCipher.crypt(buf, off + 4, buf, off + 4, len - 4);
+
+		poly1305.update(buf, off, len);
+		poly1305.doFinal(buf, off + len);
+	}
+
+	public void open(int seq, byte[] buf, int off, int len) throws IOException
+	{
+		start(seq);
+
+		poly1305.update(buf, off, len);
+		poly1305.doFinal(tag, 0);
+
+		/* compare all of it, so the time taken does not tell where it differs */
+		int diff = 0;
+		for (int i = 0; i < tag.length; i++)
+			diff |= tag[i] ^ buf[off + len + i];
+
+		if (diff != 0)
+			throw new IOException("Remote sent corrupt MAC.");
+
+		mainCipher.crypt(buf, off + 4, buf, off + 4, len - 4);
+	}
+
+	/**
+	 * Set up the main cipher for a packet and take the Poly1305 key from its
+	 * first block.
+	 */
+	private void start(int seq)
+	{
+		mainCipher.setNonce(seq & 0xffffffffL);
+		mainCipher.setCounter(0);
+		mainCipher.keyStream(polyKey, 0, polyKey.length);
+		poly1305.init(polyKey, 0);
+	}
+}
@@ -0,0 +1,171 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES in Galois/Counter Mode, as used by aes128-gcm@openssh.com and
+ * aes256-gcm@openssh.com (RFC 5647), done by the JCE provider. The packet
+ * length is not encrypted but authenticated along with the packet. The
+ * nonce is a fixed field of four bytes and a counter of eight bytes, which
+ * goes up by one for each packet.
+ * <p>
+ * Cipher.updateAAD() and GCMParameterSpec are looked up at run time, they
+ * only exist since Java 7 and Android 4.4. Without them the mode is not
+ * available.
+ */
+public class GCMCipher implements AeadCipher
+{
+	public static final int IV_SIZE = 12;
+
+	public static final int TAG_SIZE = 16;
+
+	private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+	private static final Method updateAAD;
+
+	private static final Constructor<?> parameterSpec;
+
+	static
+	{
+		Method m;
+		Constructor<?> c;
+
+		try
+		{
+			m = Cipher.class.getMethod("updateAAD", byte[].class, int.class, int.class);
+			c = Class.forName("javax.crypto.spec.GCMParameterSpec").getConstructor(int.class, byte[].class);
+			Cipher.getInstance(TRANSFORMATION);
+		}
+		catch (Exception e)
+		{
+			m = null;
+			c = null;
+		}
+
+		updateAAD = m;
+		parameterSpec = c;
+	}
+
+	/**
+	 * @return whether the platform can do AES/GCM with additional data
+	 */
+	public static boolean isAvailable()
+	{
+		return updateAAD != null;
+	}
+
+	private final Cipher cipher;
+
+	private final SecretKeySpec key;
+
+	private final int mode;
+
+	private final byte[] iv = new byte[IV_SIZE];
+
+	public GCMCipher(boolean encrypt, byte[] key, byte[] iv) throws IllegalArgumentException
+	{
+		if (isAvailable() == false)
+			throw new IllegalArgumentException(TRANSFORMATION + " is not available");
+
+		if (iv.length < IV_SIZE)
+			throw new IllegalArgumentException("IV must be " + IV_SIZE + " bytes long! (currently " + iv.length + ")");
+
+		System.arraycopy(iv, 0, this.iv, 0, IV_SIZE);
+		this.key = new SecretKeySpec(key, "AES");
+		this.mode = encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+
+		try
+		{
+			cipher = Cipher.getInstance(TRANSFORMATION);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new IllegalArgumentException(TRANSFORMATION + " is not available");
+		}
+	}
+
+	public int getBlockSize()
+	{
+		return 16;
+	}
+
+	public int getTagSize()
+	{
+		return TAG_SIZE;
+	}
+
+	public int getPacketLength(int seq, byte[] src, int off)
+	{
+		return ((src[off] & 0xff) << 24) | ((src[off + 1] & 0xff) << 16) | ((src[off + 2] & 0xff) << 8)
+				| (src[off + 3] & 0xff);
+	}
+
+	public void seal(int seq, byte[] buf, int off, int len) throws IOException
+	{
+		start(buf, off);
+
+		try
+		{
+			cipher.doFinal(buf, off + 4, len - 4, buf, off + 4);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw (IOException) new IOException("Error while encrypting packet.").initCause(e);
+		}
+
+		nextIv();
+	}
+
+	public void open(int seq, byte[] buf, int off, int len) throws IOException
+	{
+		start(buf, off);
+
+		try
+		{
+			cipher.doFinal(buf, off + 4, len - 4 + TAG_SIZE, buf, off + 4);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw (IOException) new IOException("Remote sent corrupt MAC.").initCause(e);
+		}
+
+		nextIv();
+	}
+
+	/**
+	 * Set up the cipher for the next packet, with the packet length as the
+	 * additional data.
+	 */
+	private void start(byte[] buf, int off) throws IOException
+	{
+		try
+		{
+			cipher.init(mode, key, (AlgorithmParameterSpec) parameterSpec.newInstance(TAG_SIZE * 8, iv));
+			updateAAD.invoke(cipher, buf, off, 4);
+		}
+		catch (Exception e)
+		{
+			throw (IOException) new IOException("Error while starting " + TRANSFORMATION + ".").initCause(e);
+		}
+	}
+
+	/**
+	 * Count up the invocation counter, the last eight bytes of the nonce.
+	 */
+	private void nextIv()
+	{
+		for (int i = IV_SIZE - 1; i >= 4; i--)
+		{
+			iv[i]++;
+			if (iv[i] != 0)
+				break;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A block cipher mode done by the JCE provider, like AES/CTR/NoPadding.
+ * Providers often have native or hardware implementations, and take a
+ * whole packet in one call instead of one block at a time.
+ */
+public class JceCipher implements BulkCipher
+{
+	private final Cipher cipher;
+
+	private final int blockSize;
+
+	/**
+	 * @param transformation for example "AES/CBC/NoPadding"
+	 * @throws IllegalArgumentException if no provider can do the
+	 *             transformation with this key
+	 */
+	public JceCipher(String transformation, boolean encrypt, byte[] key, byte[] iv) throws IllegalArgumentException
+	{
+		String algorithm = transformation.substring(0, transformation.indexOf('/'));
+
+		try
+		{
+			cipher = Cipher.getInstance(transformation);
+			cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, new SecretKeySpec(key, algorithm),
+					new IvParameterSpec(iv));
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new IllegalArgumentException(transformation + " is not available");
+		}
+
+		blockSize = cipher.getBlockSize();
+	}
+
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	public void update(byte[] src, int srcoff, int len, byte[] dst, int dstoff) throws IOException
+	{
+		int n;
+
+		try
+		{
+			n = cipher.update(src, srcoff, len, dst, dstoff);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw (IOException) new IOException("Error in " + cipher.getAlgorithm() + ".").initCause(e);
+		}
+
+		/* Whole blocks without padding must never be held back */
+		if (n != len)
+			throw new IOException(cipher.getAlgorithm() + " returned " + n + " of " + len + " bytes.");
+	}
+}
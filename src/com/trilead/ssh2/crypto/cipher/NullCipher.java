@@ -6,7 +6,7 @@ package com.trilead.ssh2.crypto.cipher;
  * @author Christian Plattner, plattner@trilead.com
  * @version $Id: NullCipher.java,v 1.1 2007/10/15 12:49:55 cplattne Exp $
  */
-public class NullCipher implements BlockCipher
+public class NullCipher implements BlockCipher, BulkCipher
 {
 	private int blockSize = 8;
 	
@@ -32,4 +32,10 @@ public class NullCipher implements BlockCipher
 	{
 		System.arraycopy(src, srcoff, dst, dstoff, blockSize);
 	}
+
+	public void update(byte[] src, int srcoff, int len, byte[] dst, int dstoff)
+	{
+		if (src != dst || srcoff != dstoff)
+			System.arraycopy(src, srcoff, dst, dstoff, len);
+	}
 }
@@ -0,0 +1,210 @@
+package com.trilead.ssh2.crypto.digest;
+
+/**
+ * The Poly1305 one-time authenticator with a 32 byte key and a 16 byte tag.
+ * The arithmetic modulo 2^130-5 is done on five limbs of 26 bits, so that
+ * the products fit in a long.
+ */
+public final class Poly1305
+{
+	public static final int KEY_SIZE = 32;
+
+	public static final int TAG_SIZE = 16;
+
+	private static final int MASK = 0x3ffffff;
+
+	private int r0, r1, r2, r3, r4;
+	private int s1, s2, s3, s4;
+	private int h0, h1, h2, h3, h4;
+	private int pad0, pad1, pad2, pad3;
+
+	private final byte[] block = new byte[16];
+	private int blockLength;
+
+	/**
+	 * Start a new tag. A key must never be used for more than one message.
+	 *
+	 * @param key holds the 32 byte key
+	 * @param off where the key starts
+	 */
+	public void init(byte[] key, int off)
+	{
+		int t0 = littleEndian(key, off);
+		int t1 = littleEndian(key, off + 4);
+		int t2 = littleEndian(key, off + 8);
+		int t3 = littleEndian(key, off + 12);
+
+		/* r with the bits cleared the specification asks for */
+		r0 = t0 & 0x3ffffff;
+		r1 = ((t0 >>> 26) | (t1 << 6)) & 0x3ffff03;
+		r2 = ((t1 >>> 20) | (t2 << 12)) & 0x3ffc0ff;
+		r3 = ((t2 >>> 14) | (t3 << 18)) & 0x3f03fff;
+		r4 = (t3 >>> 8) & 0x00fffff;
+
+		s1 = r1 * 5;
+		s2 = r2 * 5;
+		s3 = r3 * 5;
+		s4 = r4 * 5;
+
+		h0 = h1 = h2 = h3 = h4 = 0;
+
+		pad0 = littleEndian(key, off + 16);
+		pad1 = littleEndian(key, off + 20);
+		pad2 = littleEndian(key, off + 24);
+		pad3 = littleEndian(key, off + 28);
+
+		blockLength = 0;
+	}
+
+	public void update(byte[] src, int off, int len)
+	{
+		if (blockLength > 0)
+		{
+			int n = Math.min(len, 16 - blockLength);
+			System.arraycopy(src, off, block, blockLength, n);
+			blockLength += n;
+			off += n;
+			len -= n;
+
+			if (blockLength < 16)
+				return;
+
+			processBlock(block, 0, 1 << 24);
+			blockLength = 0;
+		}
+
+		while (len >= 16)
+		{
+			processBlock(src, off, 1 << 24);
+			off += 16;
+			len -= 16;
+		}
+
+		if (len > 0)
+		{
+			System.arraycopy(src, off, block, 0, len);
+			blockLength = len;
+		}
+	}
+
+	/**
+	 * Put the tag into the destination. The authenticator has to be
+	 * initialized again before the next message.
+	 */
+	public void doFinal(byte[] dst, int off)
+	{
+		if (blockLength > 0)
+		{
+			/* the last block is padded with a one bit instead of the 2^128 */
+			block[blockLength] = 1;
+			for (int i = blockLength + 1; i < 16; i++)
+				block[i] = 0;
+			processBlock(block, 0, 0);
+			blockLength = 0;
+		}
+
+		/* carry all the way through */
+		int c = h1 >>> 26;
+		h1 &= MASK;
+		h2 += c;
+		c = h2 >>> 26;
+		h2 &= MASK;
+		h3 += c;
+		c = h3 >>> 26;
+		h3 &= MASK;
+		h4 += c;
+		c = h4 >>> 26;
+		h4 &= MASK;
+		h0 += c * 5;
+		c = h0 >>> 26;
+		h0 &= MASK;
+		h1 += c;
+
+		/* g = h + 5 - 2^130, used instead of h when it is not negative */
+		int g0 = h0 + 5;
+		c = g0 >>> 26;
+		g0 &= MASK;
+		int g1 = h1 + c;
+		c = g1 >>> 26;
+		g1 &= MASK;
+		int g2 = h2 + c;
+		c = g2 >>> 26;
+		g2 &= MASK;
+		int g3 = h3 + c;
+		c = g3 >>> 26;
+		g3 &= MASK;
+		int g4 = h4 + c - (1 << 26);
+
+		int select = (g4 >>> 31) - 1;
+		h0 = (h0 & ~select) | (g0 & select);
+		h1 = (h1 & ~select) | (g1 & select);
+		h2 = (h2 & ~select) | (g2 & select);
+		h3 = (h3 & ~select) | (g3 & select);
+		h4 = (h4 & ~select) | (g4 & select);
+
+		/* the tag is h + pad, modulo 2^128 */
+		long f = ((h0 | (h1 << 26)) & 0xffffffffL) + (pad0 & 0xffffffffL);
+		putLittleEndian((int) f, dst, off);
+		f = (((h1 >>> 6) | (h2 << 20)) & 0xffffffffL) + (pad1 & 0xffffffffL) + (f >>> 32);
+		putLittleEndian((int) f, dst, off + 4);
+		f = (((h2 >>> 12) | (h3 << 14)) & 0xffffffffL) + (pad2 & 0xffffffffL) + (f >>> 32);
+		putLittleEndian((int) f, dst, off + 8);
+		f = (((h3 >>> 18) | (h4 << 8)) & 0xffffffffL) + (pad3 & 0xffffffffL) + (f >>> 32);
+		putLittleEndian((int) f, dst, off + 12);
+	}
+
+	/**
+	 * h = (h + block) * r, modulo 2^130-5 but only partly reduced.
+	 */
+	private void processBlock(byte[] src, int off, int hibit)
+	{
+		int t0 = littleEndian(src, off);
+		int t1 = littleEndian(src, off + 4);
+		int t2 = littleEndian(src, off + 8);
+		int t3 = littleEndian(src, off + 12);
+
+		h0 += t0 & MASK;
+		h1 += ((t0 >>> 26) | (t1 << 6)) & MASK;
+		h2 += ((t1 >>> 20) | (t2 << 12)) & MASK;
+		h3 += ((t2 >>> 14) | (t3 << 18)) & MASK;
+		h4 += (t3 >>> 8) | hibit;
+
+		long d0 = (long) h0 * r0 + (long) h1 * s4 + (long) h2 * s3 + (long) h3 * s2 + (long) h4 * s1;
+		long d1 = (long) h0 * r1 + (long) h1 * r0 + (long) h2 * s4 + (long) h3 * s3 + (long) h4 * s2;
+		long d2 = (long) h0 * r2 + (long) h1 * r1 + (long) h2 * r0 + (long) h3 * s4 + (long) h4 * s3;
+		long d3 = (long) h0 * r3 + (long) h1 * r2 + (long) h2 * r1 + (long) h3 * r0 + (long) h4 * s4;
+		long d4 = (long) h0 * r4 + (long) h1 * r3 + (long) h2 * r2 + (long) h3 * r1 + (long) h4 * r0;
+
+		long c = d0 >>> 26;
+		h0 = (int) d0 & MASK;
+		d1 += c;
+		c = d1 >>> 26;
+		h1 = (int) d1 & MASK;
+		d2 += c;
+		c = d2 >>> 26;
+		h2 = (int) d2 & MASK;
+		d3 += c;
+		c = d3 >>> 26;
+		h3 = (int) d3 & MASK;
+		d4 += c;
+		c = d4 >>> 26;
+		h4 = (int) d4 & MASK;
+		h0 += (int) c * 5;
+		c = h0 >>> 26;
+		h0 &= MASK;
+		h1 += (int) c;
+	}
+
+	private static int littleEndian(byte[] b, int off)
+	{
+		return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | (b[off + 3] << 24);
+	}
+
+	private static void putLittleEndian(int v, byte[] b, int off)
+	{
+		b[off] = (byte) v;
+		b[off + 1] = (byte) (v >> 8);
+		b[off + 2] = (byte) (v >> 16);
+		b[off + 3] = (byte) (v >> 24);
+	}
+}
@@ -0,0 +1,42 @@
+package com.trilead.ssh2.packets;
+
+/**
+ * PacketChannelData. Only for sending, the data is not copied until the
+ * transport puts it into the packet.
+ */
+public class PacketChannelData implements PacketPayload
+{
+	public int recipientChannelID;
+
+	byte[] data;
+	int off;
+	int len;
+
+	public PacketChannelData(int recipientChannelID, byte[] data, int off, int len)
+	{
+		this.recipientChannelID = recipientChannelID;
+		this.data = data;
+		this.off = off;
+		this.len = len;
+	}
+
+	public int getPayloadLength()
+	{
+		return 1 + 4 + 4 + len;
+	}
+
+	public void writePayload(byte[] dst, int pos)
+	{
+		dst[pos] = (byte) Packets.SSH_MSG_CHANNEL_DATA;
+		dst[pos + 1] = (byte) (recipientChannelID >> 24);
+		dst[pos + 2] = (byte) (recipientChannelID >> 16);
+		dst[pos + 3] = (byte) (recipientChannelID >> 8);
+		dst[pos + 4] = (byte) (recipientChannelID);
+		dst[pos + 5] = (byte) (len >> 24);
+		dst[pos + 6] = (byte) (len >> 16);
+		dst[pos + 7] = (byte) (len >> 8);
+		dst[pos + 8] = (byte) (len);
+
+		System.arraycopy(data, off, dst, pos + 9, len);
+	}
+}
@@ -8,7 +8,7 @@ import java.io.IOException;
  * @author Christian Plattner, plattner@trilead.com
  * @version $Id: PacketChannelWindowAdjust.java,v 1.1 2007/10/15 12:49:55 cplattne Exp $
  */
-public class PacketChannelWindowAdjust
+public class PacketChannelWindowAdjust implements PacketPayload
 {
 	byte[] payload;
 
@@ -46,12 +46,27 @@ public class PacketChannelWindowAdjust
 	{
 		if (payload == null)
 		{
-			TypesWriter tw = new TypesWriter();
-			tw.writeByte(Packets.SSH_MSG_CHANNEL_WINDOW_ADJUST);
-			tw.writeUINT32(recipientChannelID);
-			tw.writeUINT32(windowChange);
-			payload = tw.getBytes();
+			payload = new byte[getPayloadLength()];
+			writePayload(payload, 0);
 		}
 		return payload;
 	}
+
+	public int getPayloadLength()
+	{
+		return 1 + 4 + 4;
+	}
+
+	public void writePayload(byte[] dst, int off)
+	{
+		dst[off] = (byte) Packets.SSH_MSG_CHANNEL_WINDOW_ADJUST;
+		dst[off + 1] = (byte) (recipientChannelID >> 24);
+		dst[off + 2] = (byte) (recipientChannelID >> 16);
+		dst[off + 3] = (byte) (recipientChannelID >> 8);
+		dst[off + 4] = (byte) (recipientChannelID);
+		dst[off + 5] = (byte) (windowChange >> 24);
+		dst[off + 6] = (byte) (windowChange >> 16);
+		dst[off + 7] = (byte) (windowChange >> 8);
+		dst[off + 8] = (byte) (windowChange);
+	}
 }
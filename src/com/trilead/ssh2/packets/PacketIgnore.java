@@ -9,7 +9,7 @@ import java.io.IOException;
  * @author Christian Plattner, plattner@trilead.com
  * @version $Id: PacketIgnore.java,v 1.1 2007/10/15 12:49:55 cplattne Exp $
  */
-public class PacketIgnore
+public class PacketIgnore implements PacketPayload
 {
 	byte[] payload;
 
@@ -44,16 +44,28 @@ public class PacketIgnore
 	{
 		if (payload == null)
 		{
-			TypesWriter tw = new TypesWriter();
-			tw.writeByte(Packets.SSH_MSG_IGNORE);
-
-			if (data != null)
-				tw.writeString(data, 0, data.length);
-			else
-				tw.writeString("");
-
-			payload = tw.getBytes();
+			payload = new byte[getPayloadLength()];
+			writePayload(payload, 0);
 		}
 		return payload;
 	}
+
+	public int getPayloadLength()
+	{
+		return 1 + 4 + ((data != null) ? data.length : 0);
+	}
+
+	public void writePayload(byte[] dst, int off)
+	{
+		int len = (data != null) ? data.length : 0;
+
+		dst[off] = (byte) Packets.SSH_MSG_IGNORE;
+		dst[off + 1] = (byte) (len >> 24);
+		dst[off + 2] = (byte) (len >> 16);
+		dst[off + 3] = (byte) (len >> 8);
+		dst[off + 4] = (byte) (len);
+
+		if (data != null)
+			System.arraycopy(data, 0, dst, off + 5, len);
+	}
 }
@@ -0,0 +1,21 @@
+package com.trilead.ssh2.packets;
+
+/**
+ * A message that puts its payload straight into the packet the transport
+ * sends, so it does not need an array of its own for it.
+ */
+public interface PacketPayload
+{
+	/**
+	 * @return the length of the payload in bytes
+	 */
+	public int getPayloadLength();
+
+	/**
+	 * Put the payload into the packet.
+	 *
+	 * @param dst the packet, with room for {@link #getPayloadLength()} bytes
+	 * @param off where the payload starts
+	 */
+	public void writePayload(byte[] dst, int off);
+}
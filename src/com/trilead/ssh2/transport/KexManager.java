@@ -11,8 +11,9 @@ import com.trilead.ssh2.compression.CompressionFactory;
 import com.trilead.ssh2.compression.ICompressor;
 import com.trilead.ssh2.crypto.CryptoWishList;
 import com.trilead.ssh2.crypto.KeyMaterial;
-import com.trilead.ssh2.crypto.cipher.BlockCipher;
+import com.trilead.ssh2.crypto.cipher.AeadCipher;
 import com.trilead.ssh2.crypto.cipher.BlockCipherFactory;
+import com.trilead.ssh2.crypto.cipher.BulkCipher;
 import com.trilead.ssh2.crypto.dh.DhExchange;
 import com.trilead.ssh2.crypto.dh.DhGroupExchange;
 import com.trilead.ssh2.crypto.digest.MAC;
@@ -255,14 +256,14 @@ public class KexManager
 		{
 			int mac_cs_key_len = MAC.getKeyLen(kxs.np.mac_algo_client_to_server);
 			int enc_cs_key_len = BlockCipherFactory.getKeySize(kxs.np.enc_algo_client_to_server);
-			int enc_cs_block_len = BlockCipherFactory.getBlockSize(kxs.np.enc_algo_client_to_server);
+			int enc_cs_iv_len = BlockCipherFactory.getIvSize(kxs.np.enc_algo_client_to_server);
 
 			int mac_sc_key_len = MAC.getKeyLen(kxs.np.mac_algo_server_to_client);
 			int enc_sc_key_len = BlockCipherFactory.getKeySize(kxs.np.enc_algo_server_to_client);
-			int enc_sc_block_len = BlockCipherFactory.getBlockSize(kxs.np.enc_algo_server_to_client);
+			int enc_sc_iv_len = BlockCipherFactory.getIvSize(kxs.np.enc_algo_server_to_client);
 
-			km = KeyMaterial.create("SHA1", kxs.H, kxs.K, sessionId, enc_cs_key_len, enc_cs_block_len, mac_cs_key_len,
-					enc_sc_key_len, enc_sc_block_len, mac_sc_key_len);
+			km = KeyMaterial.create("SHA1", kxs.H, kxs.K, sessionId, enc_cs_key_len, enc_cs_iv_len, mac_cs_key_len,
+					enc_sc_key_len, enc_sc_iv_len, mac_sc_key_len);
 		}
 		catch (IllegalArgumentException e)
 		{
@@ -283,16 +284,26 @@ public class KexManager
 		PacketNewKeys ign = new PacketNewKeys();
 		tm.sendKexMessage(ign.getPayload());
 
-		BlockCipher cbc;
-		MAC mac;
+		BulkCipher cbc = null;
+		AeadCipher aead = null;
+		MAC mac = null;
 		ICompressor comp;
 
 		try
 		{
-			cbc = BlockCipherFactory.createCipher(kxs.np.enc_algo_client_to_server, true, km.enc_key_client_to_server,
-					km.initial_iv_client_to_server);
+			/* The MAC was negotiated as well, but an AEAD cipher does not use it */
+			if (BlockCipherFactory.isAead(kxs.np.enc_algo_client_to_server))
+			{
+				aead = BlockCipherFactory.createAeadCipher(kxs.np.enc_algo_client_to_server, true,
+						km.enc_key_client_to_server, km.initial_iv_client_to_server);
+			}
+			else
+			{
+				cbc = BlockCipherFactory.createCipher(kxs.np.enc_algo_client_to_server, true,
+						km.enc_key_client_to_server, km.initial_iv_client_to_server);
 
-			mac = new MAC(kxs.np.mac_algo_client_to_server, km.integrity_key_client_to_server);
+				mac = new MAC(kxs.np.mac_algo_client_to_server, km.integrity_key_client_to_server);
+			}
 			
 			comp = CompressionFactory.createCompressor(kxs.np.comp_algo_client_to_server);
 
@@ -302,7 +313,10 @@ public class KexManager
 			throw new IOException("Fatal error during MAC startup!");
 		}
 
-		tm.changeSendCipher(cbc, mac);
+		if (aead != null)
+			tm.changeSendCipher(aead);
+		else
+			tm.changeSendCipher(cbc, mac);
 		tm.changeSendCompression(comp);
 		tm.kexFinished();
 	}
@@ -468,16 +482,25 @@ public class KexManager
 			if (km == null)
 				throw new IOException("Peer sent SSH_MSG_NEWKEYS, but I have no key material ready!");
 
-			BlockCipher cbc;
-			MAC mac;
+			BulkCipher cbc = null;
+			AeadCipher aead = null;
+			MAC mac = null;
 			ICompressor comp;
 
 			try
 			{
-				cbc = BlockCipherFactory.createCipher(kxs.np.enc_algo_server_to_client, false,
-						km.enc_key_server_to_client, km.initial_iv_server_to_client);
+				if (BlockCipherFactory.isAead(kxs.np.enc_algo_server_to_client))
+				{
+					aead = BlockCipherFactory.createAeadCipher(kxs.np.enc_algo_server_to_client, false,
+							km.enc_key_server_to_client, km.initial_iv_server_to_client);
+				}
+				else
+				{
+					cbc = BlockCipherFactory.createCipher(kxs.np.enc_algo_server_to_client, false,
+							km.enc_key_server_to_client, km.initial_iv_server_to_client);
 
-				mac = new MAC(kxs.np.mac_algo_server_to_client, km.integrity_key_server_to_client);
+					mac = new MAC(kxs.np.mac_algo_server_to_client, km.integrity_key_server_to_client);
+				}
 				
 				comp = CompressionFactory.createCompressor(kxs.np.comp_algo_server_to_client);
 			}
@@ -486,7 +509,10 @@ public class KexManager
 				throw new IOException("Fatal error during MAC startup!");
 			}
 
-			tm.changeRecvCipher(cbc, mac);
+			if (aead != null)
+				tm.changeRecvCipher(aead);
+			else
+				tm.changeRecvCipher(cbc, mac);
 			tm.changeRecvCompression(comp);
 
 			ConnectionInfo sci = new ConnectionInfo();
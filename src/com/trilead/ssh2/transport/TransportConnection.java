@@ -7,12 +7,13 @@ import java.io.OutputStream;
 import java.security.SecureRandom;
 
 import com.trilead.ssh2.compression.ICompressor;
-import com.trilead.ssh2.crypto.cipher.BlockCipher;
+import com.trilead.ssh2.crypto.cipher.AeadCipher;
+import com.trilead.ssh2.crypto.cipher.BulkCipher;
 import com.trilead.ssh2.crypto.cipher.CipherInputStream;
-import com.trilead.ssh2.crypto.cipher.CipherOutputStream;
 import com.trilead.ssh2.crypto.cipher.NullCipher;
 import com.trilead.ssh2.crypto.digest.MAC;
 import com.trilead.ssh2.log.Logger;
+import com.trilead.ssh2.packets.PacketPayload;
 import com.trilead.ssh2.packets.Packets;
 
 
@@ -26,24 +27,39 @@ public class TransportConnection
 {
 	private static final Logger log = Logger.getLogger(TransportConnection.class);
 
+	/**
+	 * The longest packet accepted, room for channel data packets of 256 KiB.
+	 * Every implementation has to take packets of 35000 bytes, so buffers
+	 * only grow past that when a longer packet comes.
+	 */
+	public static final int MAX_PACKET_LENGTH = 256 * 1024 + 1024;
+
 	int send_seq_number = 0;
 
 	int recv_seq_number = 0;
 
+	/* Only buffers, the packets are decrypted as a whole */
+
 	CipherInputStream cis;
 
-	CipherOutputStream cos;
+	/* Each packet goes out in one write */
+
+	OutputStream os;
 
 	boolean useRandomPadding = false;
 
 	/* Depends on current MAC and CIPHER */
 
+	BulkCipher send_cipher;
+
 	MAC send_mac;
 
 	byte[] send_mac_buffer;
 
 	int send_padd_blocksize = 8;
 
+	BulkCipher recv_cipher;
+
 	MAC recv_mac;
 
 	byte[] recv_mac_buffer;
@@ -51,6 +67,12 @@ public class TransportConnection
 	byte[] recv_mac_buffer_cmp;
 
 	int recv_padd_blocksize = 8;
+
+	/* Replace CIPHER and MAC if an AEAD cipher is in use */
+
+	AeadCipher send_aead;
+
+	AeadCipher recv_aead;
 	
 	ICompressor recv_comp = null;
 	
@@ -68,13 +90,15 @@ public class TransportConnection
 
 	final byte[] send_padding_buffer = new byte[256];
 
-	final byte[] send_packet_header_buffer = new byte[5];
+	/* A whole packet with its MAC or tag, the payload starts at 5 */
 
-	final byte[] recv_padding_buffer = new byte[256];
+	byte[] send_packet_buffer;
 
-	final byte[] recv_packet_header_buffer = new byte[5];
+	byte[] recv_packet_buffer;
 
-	boolean recv_packet_header_present = false;
+	int recv_payload_length;
+
+	boolean recv_packet_present = false;
 
 	ClientServerHello csh;
 
@@ -82,14 +106,17 @@ public class TransportConnection
 
 	public TransportConnection(InputStream is, OutputStream os, SecureRandom rnd)
 	{
-		this.cis = new CipherInputStream(new NullCipher(), is);
-		this.cos = new CipherOutputStream(new NullCipher(), os);
+		this.cis = new CipherInputStream(is);
+		this.os = os;
+		this.send_cipher = new NullCipher();
+		this.recv_cipher = new NullCipher();
 		this.rnd = rnd;
 	}
 
-	public void changeRecvCipher(BlockCipher bc, MAC mac)
+	public void changeRecvCipher(BulkCipher bc, MAC mac)
 	{
-		cis.changeCipher(bc);
+		recv_aead = null;
+		recv_cipher = bc;
 		recv_mac = mac;
 		recv_mac_buffer = (mac != null) ? new byte[mac.size()] : null;
 		recv_mac_buffer_cmp = (mac != null) ? new byte[mac.size()] : null;
@@ -98,7 +125,7 @@ public class TransportConnection
 			recv_padd_blocksize = 8;
 	}
 
-	public void changeSendCipher(BlockCipher bc, MAC mac)
+	public void changeSendCipher(BulkCipher bc, MAC mac)
 	{
 		if ((bc instanceof NullCipher) == false)
 		{
@@ -107,7 +134,8 @@ public class TransportConnection
 			/* Once we start encrypting, there is no way back */
 		}
 
-		cos.changeCipher(bc);
+		send_aead = null;
+		send_cipher = bc;
 		send_mac = mac;
 		send_mac_buffer = (mac != null) ? new byte[mac.size()] : null;
 		send_padd_blocksize = bc.getBlockSize();
@@ -115,6 +143,31 @@ public class TransportConnection
 			send_padd_blocksize = 8;
 	}
 	
+	public void changeRecvCipher(AeadCipher ac)
+	{
+		recv_cipher = null;
+		recv_aead = ac;
+		recv_mac = null;
+		recv_mac_buffer = null;
+		recv_mac_buffer_cmp = null;
+		recv_padd_blocksize = ac.getBlockSize();
+		if (recv_padd_blocksize < 8)
+			recv_padd_blocksize = 8;
+	}
+
+	public void changeSendCipher(AeadCipher ac)
+	{
+		useRandomPadding = true;
+
+		send_cipher = null;
+		send_aead = ac;
+		send_mac = null;
+		send_mac_buffer = null;
+		send_padd_blocksize = ac.getBlockSize();
+		if (send_padd_blocksize < 8)
+			send_padd_blocksize = 8;
+	}
+
 	public void changeRecvCompression(ICompressor comp)
 	{
 		recv_comp = comp;
@@ -148,35 +201,79 @@ public class TransportConnection
 	public int getPacketOverheadEstimate()
 	{
 		// return an estimate for the paket overhead (for send operations)
+		if (send_aead != null)
+			return 5 + 4 + (send_padd_blocksize - 1) + send_aead.getTagSize();
 		return 5 + 4 + (send_padd_blocksize - 1) + send_mac_buffer.length;
 	}
 
 	public void sendMessage(byte[] message, int off, int len, int padd) throws IOException
 	{
+		reserveSendBuffer(len, padd);
+		System.arraycopy(message, off, send_packet_buffer, 5, len);
+		sendPacket(len, padd);
+	}
+
+	/**
+	 * Send a message that writes its payload right where the packet needs
+	 * it, behind the room for the packet length and padding length.
+	 */
+	public void sendMessage(PacketPayload message) throws IOException
+	{
+		int len = message.getPayloadLength();
+
+		reserveSendBuffer(len, 0);
+		message.writePayload(send_packet_buffer, 5);
+		sendPacket(len, 0);
+	}
+
+	/**
+	 * Make sure send_packet_buffer has room for a payload of the given
+	 * length, the header in front of it, and the padding and MAC behind it.
+	 * What the buffer held before is lost when it grows.
+	 */
+	private void reserveSendBuffer(int len, int padd)
+	{
+		int mac_len = (send_aead != null) ? send_aead.getTagSize() : ((send_mac != null) ? send_mac_buffer.length : 0);
+		int max_len = 16 + 5 + len + Math.max(padd, 4) + send_padd_blocksize + mac_len;
+
+		if (send_packet_buffer == null || send_packet_buffer.length < max_len)
+			send_packet_buffer = new byte[max_len];
+	}
+
+	/**
+	 * Pad, MAC and encrypt the payload in send_packet_buffer in place, and
+	 * write the whole packet at once.
+	 */
+	private void sendPacket(int len, int padd) throws IOException
+	{
+		int type = send_packet_buffer[5] & 0xff;
+
 		if (padd < 4)
 			padd = 4;
 		else if (padd > 64)
 			padd = 64;
-		
+
 		if (send_comp != null && can_send_compress) {
-			if (send_comp_buffer.length < message.length + 1024)
-				send_comp_buffer = new byte[message.length + 1024];
-			len = send_comp.compress(message, off, len, send_comp_buffer);
-			message = send_comp_buffer;
+			if (send_comp_buffer.length < len + 1024)
+				send_comp_buffer = new byte[len + 1024];
+			len = send_comp.compress(send_packet_buffer, 5, len, send_comp_buffer);
+			reserveSendBuffer(len, padd);
+			System.arraycopy(send_comp_buffer, 0, send_packet_buffer, 5, len);
 		}
 
 		int packet_len = 5 + len + padd; /* Minimum allowed padding is 4 */
 
-		int slack = packet_len % send_padd_blocksize;
+		if (packet_len < 16)
+			packet_len = 16;
+
+		/* AEAD ciphers leave out the packet length field when padding */
+		int slack = ((send_aead != null) ? packet_len - 4 : packet_len) % send_padd_blocksize;
 
 		if (slack != 0)
 		{
 			packet_len += (send_padd_blocksize - slack);
 		}
 
-		if (packet_len < 16)
-			packet_len = 16;
-
 		int padd_len = packet_len - (5 + len);
 
 		if (useRandomPadding)
@@ -209,32 +306,42 @@ public class TransportConnection
 			 */
 		}
 
-		send_packet_header_buffer[0] = (byte) ((packet_len - 4) >> 24);
-		send_packet_header_buffer[1] = (byte) ((packet_len - 4) >> 16);
-		send_packet_header_buffer[2] = (byte) ((packet_len - 4) >> 8);
-		send_packet_header_buffer[3] = (byte) ((packet_len - 4));
-		send_packet_header_buffer[4] = (byte) padd_len;
+		send_packet_buffer[0] = (byte) ((packet_len - 4) >> 24);
+		send_packet_buffer[1] = (byte) ((packet_len - 4) >> 16);
+		send_packet_buffer[2] = (byte) ((packet_len - 4) >> 8);
+		send_packet_buffer[3] = (byte) ((packet_len - 4));
+		send_packet_buffer[4] = (byte) padd_len;
+
+		System.arraycopy(send_padding_buffer, 0, send_packet_buffer, 5 + len, padd_len);
 
-		cos.write(send_packet_header_buffer, 0, 5);
-		cos.write(message, off, len);
-		cos.write(send_padding_buffer, 0, padd_len);
+		int mac_len;
 
-		if (send_mac != null)
+		if (send_aead != null)
+		{
+			send_aead.seal(send_seq_number, send_packet_buffer, 0, packet_len);
+			mac_len = send_aead.getTagSize();
+		}
+		else
 		{
-			send_mac.initMac(send_seq_number);
-			send_mac.update(send_packet_header_buffer, 0, 5);
-			send_mac.update(message, off, len);
-			send_mac.update(send_padding_buffer, 0, padd_len);
+			mac_len = 0;
+
+			if (send_mac != null)
+			{
+				send_mac.initMac(send_seq_number);
+				send_mac.update(send_packet_buffer, 0, packet_len);
+				send_mac.getMac(send_packet_buffer, packet_len);
+				mac_len = send_mac_buffer.length;
+			}
 
-			send_mac.getMac(send_mac_buffer, 0);
-			cos.writePlain(send_mac_buffer, 0, send_mac_buffer.length);
+			send_cipher.update(send_packet_buffer, 0, packet_len, send_packet_buffer, 0);
 		}
 
-		cos.flush();
+		os.write(send_packet_buffer, 0, packet_len + mac_len);
+		os.flush();
 
 		if (log.isEnabled())
 		{
-			log.log(90, "Sent " + Packets.getMessageName(message[off] & 0xff) + " " + len + " bytes payload");
+			log.log(90, "Sent " + Packets.getMessageName(type) + " " + len + " bytes payload");
 		}
 
 		send_seq_number++;
@@ -242,75 +349,157 @@ public class TransportConnection
 
 	public int peekNextMessageLength() throws IOException
 	{
-		if (recv_packet_header_present == false)
+		if (recv_packet_present == false)
 		{
-			cis.read(recv_packet_header_buffer, 0, 5);
-			recv_packet_header_present = true;
+			receivePacket();
+			recv_packet_present = true;
 		}
 
-		int packet_length = ((recv_packet_header_buffer[0] & 0xff) << 24)
-				| ((recv_packet_header_buffer[1] & 0xff) << 16) | ((recv_packet_header_buffer[2] & 0xff) << 8)
-				| ((recv_packet_header_buffer[3] & 0xff));
+		return recv_payload_length;
+	}
 
-		int padding_length = recv_packet_header_buffer[4] & 0xff;
+	private void receivePacket() throws IOException
+	{
+		if (recv_aead != null)
+			receiveAeadPacket();
+		else
+			receiveBlockPacket();
 
-		if (packet_length > 35000 || packet_length < 12)
-			throw new IOException("Illegal packet size! (" + packet_length + ")");
+		if (recv_comp != null && can_recv_compress)
+		{
+			/*
+			 * Inflate right away, so peekNextMessageLength() tells how much
+			 * room the message really needs. The inflated payload replaces
+			 * the compressed one, in a bigger buffer if it does not fit.
+			 */
+			int[] uncomp_len = new int[] { recv_payload_length };
+			byte[] inflated = recv_comp.uncompress(recv_packet_buffer, 5, uncomp_len);
 
-		int payload_length = packet_length - padding_length - 1;
+			if (inflated == null)
+				throw new IOException("Error while inflating remote data");
 
-		if (payload_length < 0)
-			throw new IOException("Illegal padding_length in packet from remote (" + padding_length + ")");
+			recv_packet_buffer = inflated;
+			recv_payload_length = uncomp_len[0];
+		}
+	}
 
-		return payload_length;
+	/**
+	 * Make sure recv_packet_buffer holds at least len bytes, keeping the
+	 * first keep bytes when it grows.
+	 */
+	private void reserveRecvBuffer(int len, int keep)
+	{
+		if (recv_packet_buffer != null && recv_packet_buffer.length >= len)
+			return;
+
+		byte[] buffer = new byte[len];
+		if (keep > 0)
+			System.arraycopy(recv_packet_buffer, 0, buffer, 0, keep);
+		recv_packet_buffer = buffer;
 	}
 
-	public int receiveMessage(byte buffer[], int off, int len) throws IOException
+	/**
+	 * Read a whole packet and its MAC into recv_packet_buffer, decrypt it in
+	 * one go and check the MAC. Only the first block is decrypted on its own,
+	 * for the packet length.
+	 */
+	private void receiveBlockPacket() throws IOException
 	{
-		if (recv_packet_header_present == false)
-		{
-			cis.read(recv_packet_header_buffer, 0, 5);
-		}
-		else
-			recv_packet_header_present = false;
+		int block_len = recv_padd_blocksize;
+		int mac_len = (recv_mac != null) ? recv_mac_buffer.length : 0;
 
-		int packet_length = ((recv_packet_header_buffer[0] & 0xff) << 24)
-				| ((recv_packet_header_buffer[1] & 0xff) << 16) | ((recv_packet_header_buffer[2] & 0xff) << 8)
-				| ((recv_packet_header_buffer[3] & 0xff));
+		reserveRecvBuffer(4 + 35000 + mac_len, 0);
 
-		int padding_length = recv_packet_header_buffer[4] & 0xff;
+		cis.readPlain(recv_packet_buffer, 0, block_len);
+		recv_cipher.update(recv_packet_buffer, 0, block_len, recv_packet_buffer, 0);
 
-		if (packet_length > 35000 || packet_length < 12)
+		int packet_length = ((recv_packet_buffer[0] & 0xff) << 24) | ((recv_packet_buffer[1] & 0xff) << 16)
+				| ((recv_packet_buffer[2] & 0xff) << 8) | ((recv_packet_buffer[3] & 0xff));
+
+		if (packet_length > MAX_PACKET_LENGTH || packet_length < 12)
 			throw new IOException("Illegal packet size! (" + packet_length + ")");
 
+		if ((4 + packet_length) % block_len != 0)
+			throw new IOException("Packet size is not a multiple of the block size! (" + packet_length + ")");
+
+		reserveRecvBuffer(4 + packet_length + mac_len, block_len);
+
+		int rest = 4 + packet_length - block_len;
+
+		cis.readPlain(recv_packet_buffer, block_len, rest + mac_len);
+		recv_cipher.update(recv_packet_buffer, block_len, rest, recv_packet_buffer, block_len);
+
+		int padding_length = recv_packet_buffer[4] & 0xff;
+
 		int payload_length = packet_length - padding_length - 1;
 
 		if (payload_length < 0)
 			throw new IOException("Illegal padding_length in packet from remote (" + padding_length + ")");
 
-		if (payload_length >= len)
-			throw new IOException("Receive buffer too small (" + len + ", need " + payload_length + ")");
-
-		cis.read(buffer, off, payload_length);
-		cis.read(recv_padding_buffer, 0, padding_length);
-
 		if (recv_mac != null)
 		{
-			cis.readPlain(recv_mac_buffer, 0, recv_mac_buffer.length);
-
 			recv_mac.initMac(recv_seq_number);
-			recv_mac.update(recv_packet_header_buffer, 0, 5);
-			recv_mac.update(buffer, off, payload_length);
-			recv_mac.update(recv_padding_buffer, 0, padding_length);
+			recv_mac.update(recv_packet_buffer, 0, 4 + packet_length);
 			recv_mac.getMac(recv_mac_buffer_cmp, 0);
 
-			for (int i = 0; i < recv_mac_buffer.length; i++)
+			for (int i = 0; i < recv_mac_buffer_cmp.length; i++)
 			{
-				if (recv_mac_buffer[i] != recv_mac_buffer_cmp[i])
+				if (recv_packet_buffer[4 + packet_length + i] != recv_mac_buffer_cmp[i])
 					throw new IOException("Remote sent corrupt MAC.");
 			}
 		}
 
+		recv_payload_length = payload_length;
+	}
+
+	/**
+	 * Read a whole packet and its tag into recv_packet_buffer, and open it.
+	 */
+	private void receiveAeadPacket() throws IOException
+	{
+		int tag_len = recv_aead.getTagSize();
+
+		reserveRecvBuffer(4 + 35000 + tag_len, 0);
+
+		cis.readPlain(recv_packet_buffer, 0, 4);
+
+		int packet_length = recv_aead.getPacketLength(recv_seq_number, recv_packet_buffer, 0);
+
+		if (packet_length > MAX_PACKET_LENGTH || packet_length < 12)
+			throw new IOException("Illegal packet size! (" + packet_length + ")");
+
+		if (packet_length % recv_padd_blocksize != 0)
+			throw new IOException("Packet size is not a multiple of the block size! (" + packet_length + ")");
+
+		reserveRecvBuffer(4 + packet_length + tag_len, 4);
+
+		cis.readPlain(recv_packet_buffer, 4, packet_length + tag_len);
+		recv_aead.open(recv_seq_number, recv_packet_buffer, 0, 4 + packet_length);
+
+		int padding_length = recv_packet_buffer[4] & 0xff;
+
+		int payload_length = packet_length - padding_length - 1;
+
+		if (padding_length < 4 || payload_length < 0)
+			throw new IOException("Illegal padding_length in packet from remote (" + padding_length + ")");
+
+		recv_payload_length = payload_length;
+	}
+
+	public int receiveMessage(byte buffer[], int off, int len) throws IOException
+	{
+		if (recv_packet_present == false)
+			receivePacket();
+		else
+			recv_packet_present = false;
+
+		int payload_length = recv_payload_length;
+
+		if (payload_length >= len)
+			throw new IOException("Receive buffer too small (" + len + ", need " + payload_length + ")");
+
+		System.arraycopy(recv_packet_buffer, 5, buffer, off, payload_length);
+
 		recv_seq_number++;
 
 		if (log.isEnabled())
@@ -319,18 +508,7 @@ public class TransportConnection
 					+ " bytes payload");
 		}
 
-		if (recv_comp != null && can_recv_compress) {
-			int[] uncomp_len = new int[] { payload_length };
-			buffer = recv_comp.uncompress(buffer, off, uncomp_len);
-			
-			if (buffer == null) {
-				throw new IOException("Error while inflating remote data");
-			} else {
-				return uncomp_len[0];
-			}
-		} else {
-			return payload_length;
-		}
+		return payload_length;
 	}
 
 	/**
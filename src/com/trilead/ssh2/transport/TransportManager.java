@@ -21,10 +21,12 @@ import com.trilead.ssh2.ServerHostKeyVerifier;
 import com.trilead.ssh2.compression.ICompressor;
 import com.trilead.ssh2.crypto.Base64;
 import com.trilead.ssh2.crypto.CryptoWishList;
-import com.trilead.ssh2.crypto.cipher.BlockCipher;
+import com.trilead.ssh2.crypto.cipher.AeadCipher;
+import com.trilead.ssh2.crypto.cipher.BulkCipher;
 import com.trilead.ssh2.crypto.digest.MAC;
 import com.trilead.ssh2.log.Logger;
 import com.trilead.ssh2.packets.PacketDisconnect;
+import com.trilead.ssh2.packets.PacketPayload;
 import com.trilead.ssh2.packets.Packets;
 import com.trilead.ssh2.packets.TypesReader;
 import com.trilead.ssh2.util.Tokenizer;
@@ -577,16 +579,26 @@ public class TransportManager
 		km.initiateKEX(cwl, dhgex);
 	}
 
-	public void changeRecvCipher(BlockCipher bc, MAC mac)
+	public void changeRecvCipher(BulkCipher bc, MAC mac)
 	{
 		tc.changeRecvCipher(bc, mac);
 	}
 
-	public void changeSendCipher(BlockCipher bc, MAC mac)
+	public void changeSendCipher(BulkCipher bc, MAC mac)
 	{
 		tc.changeSendCipher(bc, mac);
 	}
 
+	public void changeRecvCipher(AeadCipher ac)
+	{
+		tc.changeRecvCipher(ac);
+	}
+
+	public void changeSendCipher(AeadCipher ac)
+	{
+		tc.changeSendCipher(ac);
+	}
+
 	/**
 	 * @param comp
 	 */
@@ -645,6 +657,19 @@ public class TransportManager
 	}
 
 	public void sendMessage(byte[] msg) throws IOException
+	{
+		sendMessage(msg, null);
+	}
+
+	/**
+	 * Send a message that puts its payload straight into the packet.
+	 */
+	public void sendMessage(PacketPayload msg) throws IOException
+	{
+		sendMessage(null, msg);
+	}
+
+	private void sendMessage(byte[] msg, PacketPayload payload) throws IOException
 	{
 		if (Thread.currentThread() == receiveThread)
 			throw new IOException("Assertion error: sendMessage may never be invoked by the receiver thread!");
@@ -673,7 +698,10 @@ public class TransportManager
 
 			try
 			{
-				tc.sendMessage(msg);
+				if (payload != null)
+					tc.sendMessage(payload);
+				else
+					tc.sendMessage(msg);
 			}
 			catch (IOException e)
 			{
@@ -689,6 +717,11 @@ public class TransportManager
 
 		while (true)
 		{
+			/* Most packets fit, only grow for the long ones */
+			int nextlen = tc.peekNextMessageLength();
+			if (nextlen >= msg.length)
+				msg = new byte[nextlen + 1];
+
 			int msglen = tc.receiveMessage(msg, 0, msg.length);
 
 			int type = msg[0] & 0xff;
@@ -0,0 +1,247 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * Long scrollback history made of packed lines. Lines are collected into
+ * blocks of {@link #BLOCK_LINES} lines; every full block is deflated and
+ * only inflated again when one of its lines is asked for. A few inflated
+ * blocks are kept around so scrolling through the history does not inflate
+ * the same block over and over.
+ *
+ * This is the store a {@link VDUBuffer} uses unless it is given another one.
+ */
+final class CompressedScrollback implements ScrollbackStore {
+	/** Number of lines compressed together. */
+	static final int BLOCK_LINES = 256;
+
+	/** Number of inflated blocks kept for scrolling. */
+	private static final int CACHED_BLOCKS = 4;
+
+	/* blocks are compressed on the thread that reads the terminal output */
+	private static final int LEVEL = JZlib.Z_BEST_SPEED;
+
+	/* lines of a block repeat over short distances, a small window will do */
+	private static final int WINDOW_BITS = 12;
+
+	private static class Block {
+		final byte[] data;
+		final int length;
+
+		Block(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	private final ArrayList<Block> blocks = new ArrayList<Block>();
+	private int firstBlock;           /* sequence number of the first block */
+	private int skip;       /* lines removed from the front of the history */
+
+	private char[][] tail = new char[BLOCK_LINES][];
+	private int tailLines;
+
+	private int maxLines;
+
+	private final Map<Integer, char[][]> inflated =
+			new LinkedHashMap<Integer, char[][]>(CACHED_BLOCKS + 1, 1f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, char[][]> eldest) {
+			return size() > CACHED_BLOCKS;
+		}
+	};
+
+	private byte[] raw = new byte[BLOCK_LINES * 64];
+	private byte[] compressed = new byte[BLOCK_LINES * 16];
+
+	/**
+	 * @param maxLines number of lines kept before the oldest ones are trimmed
+	 */
+	CompressedScrollback(int maxLines) {
+		this.maxLines = maxLines;
+	}
+
+	public int size() {
+		return blocks.size() * BLOCK_LINES + tailLines - skip;
+	}
+
+	public void setMaxLines(int maxLines) {
+		this.maxLines = maxLines;
+	}
+
+	public void add(char[] packed) {
+		tail[tailLines++] = packed;
+		if (tailLines < BLOCK_LINES)
+			return;
+
+		int sequence = firstBlock + blocks.size();
+		blocks.add(deflate(tail));
+		inflated.put(sequence, tail);
+		tail = new char[BLOCK_LINES][];
+		tailLines = 0;
+	}
+
+	public char[] get(int line) {
+		line += skip;
+		int block = line / BLOCK_LINES;
+		if (block >= blocks.size())
+			return tail[line - blocks.size() * BLOCK_LINES];
+
+		Integer sequence = firstBlock + block;
+		char[][] lines = inflated.get(sequence);
+		if (lines == null) {
+			lines = inflate(blocks.get(block));
+			inflated.put(sequence, lines);
+		}
+		return lines[line % BLOCK_LINES];
+	}
+
+	public int trim() {
+		int excess = size() - maxLines;
+		if (excess <= 0)
+			return 0;
+		remove(excess);
+		return excess;
+	}
+
+	public void remove(int count) {
+		if (count >= size()) {
+			blocks.clear();
+			inflated.clear();
+			firstBlock = 0;
+			skip = 0;
+			tail = new char[BLOCK_LINES][];
+			tailLines = 0;
+			return;
+		}
+
+		skip += count;
+		while (skip >= BLOCK_LINES && !blocks.isEmpty()) {
+			blocks.remove(0);
+			inflated.remove(firstBlock);
+			firstBlock++;
+			skip -= BLOCK_LINES;
+		}
+
+		// the remaining lines are all in the tail, let go of the removed ones
+		if (blocks.isEmpty() && skip > 0) {
+			System.arraycopy(tail, skip, tail, 0, tailLines - skip);
+			for (int i = tailLines - skip; i < tailLines; i++)
+				tail[i] = null;
+			tailLines -= skip;
+			skip = 0;
+		}
+	}
+
+	public void close() {
+		remove(size());
+	}
+
+	private Block deflate(char[][] lines) {
+		int length = 0;
+		for (int i = 0; i < BLOCK_LINES; i++)
+			length += 2 * (1 + lines[i].length);
+		if (raw.length < length)
+			raw = new byte[length];
+
+		int offset = 0;
+		for (int i = 0; i < BLOCK_LINES; i++) {
+			char[] line = lines[i];
+			raw[offset++] = (byte) (line.length >>> 8);
+			raw[offset++] = (byte) line.length;
+			for (int j = 0; j < line.length; j++) {
+				raw[offset++] = (byte) (line[j] >>> 8);
+				raw[offset++] = (byte) line[j];
+			}
+		}
+
+		ZStream stream = new ZStream();
+		stream.deflateInit(LEVEL, WINDOW_BITS);
+		stream.next_in = raw;
+		stream.next_in_index = 0;
+		stream.avail_in = length;
+
+		int produced = 0;
+		while (true) {
+			stream.next_out = compressed;
+			stream.next_out_index = produced;
+			stream.avail_out = compressed.length - produced;
+			int status = stream.deflate(JZlib.Z_FINISH);
+			produced = compressed.length - stream.avail_out;
+			if (status == JZlib.Z_STREAM_END)
+				break;
+			if (status != JZlib.Z_OK && status != JZlib.Z_BUF_ERROR)
+				throw new IllegalStateException("deflate failed: " + stream.msg);
+
+			byte[] bigger = new byte[compressed.length * 2];
+			System.arraycopy(compressed, 0, bigger, 0, produced);
+			compressed = bigger;
+		}
+		stream.deflateEnd();
+
+		byte[] data = new byte[produced];
+		System.arraycopy(compressed, 0, data, 0, produced);
+		return new Block(data, length);
+	}
+
+	private char[][] inflate(Block block) {
+		if (raw.length < block.length)
+			raw = new byte[block.length];
+
+		ZStream stream = new ZStream();
+		stream.inflateInit(WINDOW_BITS);
+		stream.next_in = block.data;
+		stream.next_in_index = 0;
+		stream.avail_in = block.data.length;
+		stream.next_out = raw;
+		stream.next_out_index = 0;
+		stream.avail_out = block.length;
+		int status = stream.inflate(JZlib.Z_FINISH);
+		stream.inflateEnd();
+		if (status != JZlib.Z_STREAM_END)
+			throw new IllegalStateException("inflate failed: " + stream.msg);
+
+		char[][] lines = new char[BLOCK_LINES][];
+		int offset = 0;
+		for (int i = 0; i < BLOCK_LINES; i++) {
+			int length = ((raw[offset] & 0xff) << 8) | (raw[offset + 1] & 0xff);
+			offset += 2;
+			if (length == 1 && raw[offset] == 0 && raw[offset + 1] == 0) {
+				lines[i] = PackedLine.EMPTY;
+				offset += 2;
+				continue;
+			}
+			char[] line = new char[length];
+			for (int j = 0; j < length; j++) {
+				line[j] = (char) (((raw[offset] & 0xff) << 8) | (raw[offset + 1] & 0xff));
+				offset += 2;
+			}
+			lines[i] = line;
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Scrollback history kept in a memory-mapped file, so its size does not
+ * count against the heap. Lines are appended to the file one after the
+ * other and found through an index of their offsets. The file header
+ * records which part of the file holds lines, so opening the same file
+ * again brings back the history of an earlier session. The file is not
+ * deleted when the store is closed; that is up to whoever created it.
+ *
+ * The file layout, in chars:
+ *
+ * <pre>
+ * [magic] [start] [end] ([length] [packed line]) * lines
+ * </pre>
+ */
+public class MappedScrollback implements ScrollbackStore {
+	private static final int MAGIC = 0x53424b31;
+
+	/* header fields, two chars each */
+	private static final int HEADER_MAGIC = 0;
+	private static final int HEADER_START = 4;
+	private static final int HEADER_END = 8;
+	private static final int HEADER_CHARS = 6;
+
+	private static final int INITIAL_SIZE = 64 * 1024;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private MappedByteBuffer map;
+	private CharBuffer chars;
+
+	private int start;                  /* offset of the oldest line */
+	private int end;                    /* offset past the newest line */
+
+	private int[] offsets = new int[1024];
+	private int first;            /* index entry of the oldest line */
+	private int lines;
+
+	private int maxLines;
+
+	/**
+	 * Open a scrollback file, keeping the lines already in it.
+	 * @param path file to keep the lines in
+	 * @throws IOException when the file cannot be opened or mapped
+	 */
+	public MappedScrollback(File path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+
+		long length = file.length();
+		try {
+			map(length > INITIAL_SIZE ? (int) length : INITIAL_SIZE);
+		} catch (IOException e) {
+			channel.close();
+			file.close();
+			throw e;
+		}
+
+		if (length < HEADER_CHARS * 2 || map.getInt(HEADER_MAGIC) != MAGIC || !readIndex()) {
+			map.putInt(HEADER_MAGIC, MAGIC);
+			clear();
+		}
+	}
+
+	/**
+	 * Rebuild the line index from the lines recorded in the file.
+	 * @return false if the file does not hold a valid list of lines
+	 */
+	private boolean readIndex() {
+		start = map.getInt(HEADER_START);
+		end = map.getInt(HEADER_END);
+		if (start < HEADER_CHARS || end < start || end > chars.capacity())
+			return false;
+
+		for (int offset = start; offset < end; offset += 1 + chars.get(offset)) {
+			if (offset + 1 + chars.get(offset) > end)
+				return false;
+			append(offset);
+		}
+		return true;
+	}
+
+	private void map(int size) throws IOException {
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		chars = map.asCharBuffer();
+	}
+
+	private void append(int offset) {
+		if (first + lines == offsets.length) {
+			if (first > 0) {
+				System.arraycopy(offsets, first, offsets, 0, lines);
+			} else {
+				int[] bigger = new int[offsets.length * 2];
+				System.arraycopy(offsets, 0, bigger, 0, lines);
+				offsets = bigger;
+			}
+			first = 0;
+		}
+		offsets[first + lines] = offset;
+		lines++;
+	}
+
+	private void clear() {
+		first = 0;
+		lines = 0;
+		start = HEADER_CHARS;
+		end = HEADER_CHARS;
+		map.putInt(HEADER_START, start);
+		map.putInt(HEADER_END, end);
+	}
+
+	public int size() {
+		return lines;
+	}
+
+	public void setMaxLines(int maxLines) {
+		this.maxLines = maxLines;
+	}
+
+	public void add(char[] packed) {
+		int length = 1 + packed.length;
+		if (end + length > chars.capacity())
+			makeRoom(length);
+
+		chars.put(end, (char) packed.length);
+		chars.position(end + 1);
+		chars.put(packed);
+		append(end);
+
+		end += length;
+		map.putInt(HEADER_END, end);
+	}
+
+	/**
+	 * Make room for more lines at the end of the file, either by moving the
+	 * lines to the front of the file when most of it has been removed, or
+	 * by growing the file.
+	 */
+	private void makeRoom(int length) {
+		int used = end - start;
+		if (start - HEADER_CHARS >= used && HEADER_CHARS + used + length <= chars.capacity()) {
+			char[] block = new char[4096];
+			for (int offset = 0; offset < used; offset += block.length) {
+				int count = Math.min(block.length, used - offset);
+				chars.position(start + offset);
+				chars.get(block, 0, count);
+				chars.position(HEADER_CHARS + offset);
+				chars.put(block, 0, count);
+			}
+
+			int shift = start - HEADER_CHARS;
+			for (int i = 0; i < lines; i++)
+				offsets[first + i] -= shift;
+			start -= shift;
+			end -= shift;
+			map.putInt(HEADER_START, start);
+			map.putInt(HEADER_END, end);
+			return;
+		}
+
+		int size = map.capacity();
+		while (size / 2 < end + length)
+			size *= 2;
+		try {
+			map(size);
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot grow scrollback file", e);
+		}
+	}
+
+	public char[] get(int line) {
+		int offset = offsets[first + line];
+		int length = chars.get(offset);
+		if (length == 1 && chars.get(offset + 1) == 0)
+			return PackedLine.EMPTY;
+
+		char[] packed = new char[length];
+		chars.position(offset + 1);
+		chars.get(packed);
+		return packed;
+	}
+
+	public int trim() {
+		int excess = lines - maxLines;
+		if (excess <= 0)
+			return 0;
+		remove(excess);
+		return excess;
+	}
+
+	public void remove(int count) {
+		if (count >= lines) {
+			clear();
+			return;
+		}
+
+		first += count;
+		lines -= count;
+		start = offsets[first];
+		map.putInt(HEADER_START, start);
+	}
+
+	/**
+	 * Close the file and drop the mapping, so it can be unmapped once it is
+	 * collected. The lines stay in the file.
+	 */
+	public void close() {
+		map = null;
+		chars = null;
+		try {
+			channel.close();
+			file.close();
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.util.Arrays;
+
+/**
+ * Compact representation of a terminal line that has scrolled off the
+ * screen. A packed line is a single char array holding the attribute runs
+ * of the line followed by its text with trailing blanks trimmed:
+ *
+ * <pre>
+ * [runs] [attr high, attr low, length] * runs [text]
+ * </pre>
+ *
+ * Blank lines all share one empty packed line.
+ */
+final class PackedLine {
+	/** Packed form of a line that only holds blanks. */
+	static final char[] EMPTY = new char[] { 0 };
+
+	private PackedLine() {
+	}
+
+	/**
+	 * Pack a line of characters and attributes.
+	 * @param chars characters of the line
+	 * @param attributes attributes of the line
+	 * @return packed line
+	 */
+	static char[] pack(char[] chars, int[] attributes) {
+		int length = chars.length;
+		while (length > 0 && chars[length - 1] == ' ' && attributes[length - 1] == 0)
+			length--;
+
+		if (length == 0)
+			return EMPTY;
+
+		int runs = 1;
+		for (int i = 1; i < length; i++)
+			if (attributes[i] != attributes[i - 1])
+				runs++;
+
+		char[] packed = new char[1 + runs * 3 + length];
+		packed[0] = (char) runs;
+
+		int offset = 1;
+		int start = 0;
+		for (int i = 1; i <= length; i++) {
+			if (i == length || attributes[i] != attributes[start]) {
+				packed[offset++] = (char) (attributes[start] >>> 16);
+				packed[offset++] = (char) attributes[start];
+				packed[offset++] = (char) (i - start);
+				start = i;
+			}
+		}
+
+		System.arraycopy(chars, 0, packed, offset, length);
+		return packed;
+	}
+
+	/**
+	 * @param packed packed line
+	 * @return number of characters in the line, without trailing blanks
+	 */
+	static int length(char[] packed) {
+		return packed.length - 1 - packed[0] * 3;
+	}
+
+	/**
+	 * @param packed packed line
+	 * @return attributes of the last character, 0 for a blank line
+	 */
+	static int lastAttributes(char[] packed) {
+		int runs = packed[0];
+		if (runs == 0)
+			return 0;
+		int offset = 1 + (runs - 1) * 3;
+		return (packed[offset] << 16) | packed[offset + 1];
+	}
+
+	/**
+	 * Expand a packed line into the given arrays. Text that does not fit is
+	 * cut off, the rest of the line is blanked.
+	 * @param packed packed line
+	 * @param chars destination for the characters
+	 * @param attributes destination for the attributes
+	 */
+	static void unpack(char[] packed, char[] chars, int[] attributes) {
+		int width = chars.length;
+		int runs = packed[0];
+		int text = 1 + runs * 3;
+
+		int column = 0;
+		for (int offset = 1; offset < text && column < width; offset += 3) {
+			int attr = (packed[offset] << 16) | packed[offset + 1];
+			int end = column + packed[offset + 2];
+			if (end > width)
+				end = width;
+			Arrays.fill(attributes, column, end, attr);
+			column = end;
+		}
+
+		System.arraycopy(packed, text, chars, 0, column);
+		Arrays.fill(chars, column, width, ' ');
+		Arrays.fill(attributes, column, width, 0);
+	}
+}
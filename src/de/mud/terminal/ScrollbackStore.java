@@ -0,0 +1,69 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+/**
+ * Storage for the scrollback history of a {@link VDUBuffer}, the lines that
+ * are too old to be kept in its line store. Lines are handed over in packed
+ * form and are only appended at the end or removed from the front.
+ *
+ * Implementations need not be thread safe, the buffer guards all access.
+ *
+ * @see VDUBuffer#setScrollbackStore(ScrollbackStore)
+ */
+public interface ScrollbackStore {
+	/**
+	 * @return number of lines in the store
+	 */
+	public int size();
+
+	/**
+	 * @param maxLines number of lines kept before {@link #trim()} removes
+	 *        the oldest ones
+	 */
+	public void setMaxLines(int maxLines);
+
+	/**
+	 * Append a line to the end of the store.
+	 * @param packed packed line
+	 */
+	public void add(char[] packed);
+
+	/**
+	 * @param line line number, the oldest line is 0
+	 * @return packed line
+	 */
+	public char[] get(int line);
+
+	/**
+	 * Remove the oldest lines beyond the maximum number of lines.
+	 * @return number of lines removed
+	 */
+	public int trim();
+
+	/**
+	 * Remove lines from the front of the store.
+	 * @param count number of lines to remove
+	 */
+	public void remove(int count);
+
+	/**
+	 * Release the resources held by the store.
+	 */
+	public void close();
+}
@@ -43,19 +43,66 @@ public class VDUBuffer {
   /** Enable debug messages. */
   public final static int debug = 0;
 
+  /** Number of scroll operations kept until the display takes them. */
+  public final static int SCROLL_JOURNAL_SIZE = 16;
+
+  /** Lines kept uncompressed, older scrollback goes to the history. */
+  private final static int LIVE_LINES = 512;
+
+  /** Scrollback lines just above the screen that are not packed. */
+  private final static int RECENT_LINES = 256;
+
   public int height, width;                          /* rows and columns */
   public boolean[] update;        /* contains the lines that need update */
-  public char[][] charArray;                  /* contains the characters */
-  public int[][] charAttributes;             /* contains character attrs */
+  public int[] updateStart;       /* first column of a line to be updated */
+  public int[] updateEnd;    /* column after the last one to be updated */
   public int bufSize;
   public int maxBufSize;                                 /* buffer sizes */
   public int screenBase;                      /* the actual screen start */
   public int windowBase;                   /* where the start displaying */
   public int scrollMarker;               /* marks the last line inserted */
 
+  /* circular store of the lines, null for packed lines; read them through
+   * getLineChars() and getLineAttributes() */
+  private char[][] charArray;           /* characters of the lines */
+  private int[][] charAttributes;       /* attributes of the lines */
+  private int bufHead;        /* slot of the oldest line in the line store */
+  private char[][] packedLines;     /* packed form of the scrollback lines */
+
+  private ScrollbackStore history;     /* oldest lines, if the buffer is big */
+  private ScrollbackStore historyStore;   /* where to keep them, if not here */
+  private int historySize;         /* lines of the buffer kept in the history */
+
+  /* history lines expanded for display, one slot per screen row */
+  private char[][] historyChars;
+  private int[][] historyAttributes;
+  private int[] historyLines;
+
   private int topMargin;                               /* top scroll margin */
   private int bottomMargin;                         /* bottom scroll margin */
 
+  /* scrolls not yet taken by the display: top, bottom and lines moved up */
+  private final int[] scrollJournal = new int[3 * SCROLL_JOURNAL_SIZE];
+  private int scrollCount;
+
+  /* scratch space used to rearrange line references while scrolling */
+  private char[][] scrollChars;
+  private int[][] scrollAttributes;
+
+  /* lines no longer in use, reused for new blank lines */
+  private char[][] spareChars;
+  private int[][] spareAttributes;
+  private int spareCount;
+
+  /* lines made by the last rewrap, and where the tracked position went */
+  private char[][] wrapLines = new char[64][];
+  private int wrapCount;
+  private int wrapLine, wrapColumn;
+
+  private boolean reflowPending;  /* scrollback not rewrapped to the width */
+
+  private boolean keepScrollback = true;  /* lines scrolled off are kept */
+
   // cursor variables
   protected boolean showcursor = true;
   protected int cursorX, cursorY;
@@ -93,6 +140,8 @@ public class VDUBuffer {
   public final static int INVISIBLE = 0x10;
   /** Unicode full-width character (CJK, et al.) */
   public final static int FULLWIDTH = 0x8000000;
+  /** Set on the last column of a line whose text continues on the next. */
+  public final static int WRAPPED = 0x4000000;
 
   /** how much to left shift the foreground color */
   public final static int COLOR_FG_SHIFT = 5;
@@ -158,10 +207,11 @@ public class VDUBuffer {
    */
 
   public void putChar(int c, int l, char ch, int attributes) {
-    charArray[screenBase + l][c] = ch;
-    charAttributes[screenBase + l][c] = attributes;
+    int line = bufferIndex(screenBase + l);
+    charArray[line][c] = ch;
+    charAttributes[line][c] = attributes;
     if (l < height)
-      update[l + 1] = true;
+      markColumns(l, c, c + 1);
   }
 
   /**
@@ -171,7 +221,7 @@ public class VDUBuffer {
    * @see #putChar
    */
   public char getChar(int c, int l) {
-    return charArray[screenBase + l][c];
+    return charArray[bufferIndex(screenBase + l)][c];
   }
 
   /**
@@ -181,7 +231,47 @@ public class VDUBuffer {
    * @see #putChar
    */
   public int getAttributes(int c, int l) {
-    return charAttributes[screenBase + l][c];
+    return charAttributes[bufferIndex(screenBase + l)][c];
+  }
+
+  /**
+   * Get the characters of a line in the buffer. The line is counted from
+   * the oldest line in the scrollback buffer, the same way as screenBase
+   * and windowBase are, so the first visible line is windowBase.
+   * Scrollback lines are kept packed and are expanded on first access.
+   * @param line the buffer line
+   * @see #getLineAttributes
+   */
+  public char[] getLineChars(int line) {
+    if (line < historySize)
+      return historyChars[expandHistoryLine(line)];
+    int index = bufferIndex(line);
+    if (charArray[index] == null)
+      expandLine(index);
+    return charArray[index];
+  }
+
+  /**
+   * Get the attributes of a line in the buffer.
+   * @param line the buffer line, counted like in getLineChars()
+   * @see #getLineChars
+   */
+  public int[] getLineAttributes(int line) {
+    if (line < historySize)
+      return historyAttributes[expandHistoryLine(line)];
+    int index = bufferIndex(line);
+    if (charAttributes[index] == null)
+      expandLine(index);
+    return charAttributes[index];
+  }
+
+  /**
+   * Map a buffer line to its slot in the circular line store.
+   * @param line the buffer line, counted from the oldest line
+   */
+  private int bufferIndex(int line) {
+    int index = bufHead + line - historySize;
+    return index >= charArray.length ? index - charArray.length : index;
   }
 
   /**
@@ -203,10 +293,12 @@ public class VDUBuffer {
    * @see #redraw
    */
   public void insertChar(int c, int l, char ch, int attributes) {
-    System.arraycopy(charArray[screenBase + l], c,
-                     charArray[screenBase + l], c + 1, width - c - 1);
-    System.arraycopy(charAttributes[screenBase + l], c,
-                     charAttributes[screenBase + l], c + 1, width - c - 1);
+    int line = bufferIndex(screenBase + l);
+    System.arraycopy(charArray[line], c,
+                     charArray[line], c + 1, width - c - 1);
+    System.arraycopy(charAttributes[line], c,
+                     charAttributes[line], c + 1, width - c - 1);
+    markColumns(l, c, width);
     putChar(c, l, ch, attributes);
   }
 
@@ -222,10 +314,12 @@ public class VDUBuffer {
    */
   public void deleteChar(int c, int l) {
     if (c < width - 1) {
-      System.arraycopy(charArray[screenBase + l], c + 1,
-                       charArray[screenBase + l], c, width - c - 1);
-      System.arraycopy(charAttributes[screenBase + l], c + 1,
-                       charAttributes[screenBase + l], c, width - c - 1);
+      int line = bufferIndex(screenBase + l);
+      System.arraycopy(charArray[line], c + 1,
+                       charArray[line], c, width - c - 1);
+      System.arraycopy(charAttributes[line], c + 1,
+                       charAttributes[line], c, width - c - 1);
+      markColumns(l, c, width);
     }
     putChar(width - 1, l, (char) 0);
   }
@@ -275,6 +369,36 @@ public class VDUBuffer {
       putChar(c + i, l, s.charAt(i), attributes);
   }
 
+  /**
+   * Put a run of characters with the same attributes on the screen. The
+   * characters need to fit into the line, they do not wrap.
+   * @param c x-coordinate (column)
+   * @param l y-coordinate (line)
+   * @param s character array
+   * @param start first character in the array
+   * @param len number of characters
+   * @param attributes the character attributes
+   * @see #putChar
+   */
+  public void putChars(int c, int l, char[] s, int start, int len, int attributes) {
+    int line = bufferIndex(screenBase + l);
+    System.arraycopy(s, start, charArray[line], c, len);
+    Arrays.fill(charAttributes[line], c, c + len, attributes);
+    if (l < height)
+      markColumns(l, c, c + len);
+  }
+
+  /**
+   * Mark a line as continuing on the next line, because the text written
+   * to it wrapped around at the end of the line. Wrapped lines are joined
+   * again when the width of the screen changes.
+   * @param l y-coordinate (line)
+   * @see #WRAPPED
+   */
+  public void setWrapped(int l) {
+    charAttributes[bufferIndex(screenBase + l)][width - 1] |= WRAPPED;
+  }
+
   /**
    * Insert a blank line at a specific position.
    * The current line and all previous lines are scrolled one line up. The
@@ -327,15 +451,6 @@ public class VDUBuffer {
    * @see #redraw
    */
   public synchronized void insertLine(int l, int n, boolean scrollDown) {
-    char cbuf[][] = null;
-    int abuf[][] = null;
-    int offset = 0;
-    int oldBase = screenBase;
-
-    int newScreenBase = screenBase;
-    int newWindowBase = windowBase;
-    int newBufSize = bufSize;
-
     if (l > bottomMargin) /* We do not scroll below bottom margin (below the scrolling region). */
       return;
     int top = (l < topMargin ?
@@ -351,135 +466,300 @@ public class VDUBuffer {
 
     if (scrollDown) {
       if (n > (bottom - top)) n = (bottom - top);
-      int size = bottom - l - (n - 1);
-      if(size < 0) size = 0;
-      cbuf = new char[size][];
-      abuf = new int[size][];
-
-      System.arraycopy(charArray, oldBase + l, cbuf, 0, bottom - l - (n - 1));
-      System.arraycopy(charAttributes, oldBase + l,
-                       abuf, 0, bottom - l - (n - 1));
-      System.arraycopy(cbuf, 0, charArray, oldBase + l + n,
-                       bottom - l - (n - 1));
-      System.arraycopy(abuf, 0, charAttributes, oldBase + l + n,
-                       bottom - l - (n - 1));
-      cbuf = charArray;
-      abuf = charAttributes;
+      if (n > bottom - l + 1) n = bottom - l + 1;
+
+      // the lines pushed out at the bottom become the inserted blank lines
+      int base = screenBase + l;
+      int size = bottom - l + 1;
+      for (int i = 0; i < size; i++) {
+        int index = bufferIndex(base + i);
+        scrollChars[i] = charArray[index];
+        scrollAttributes[i] = charAttributes[index];
+      }
+      for (int i = 0; i < size; i++) {
+        int from = (i < n ? size - n + i : i - n);
+        int index = bufferIndex(base + i);
+        charArray[index] = scrollChars[from];
+        charAttributes[index] = scrollAttributes[from];
+        if (i < n)
+          clearLine(index);
+      }
+    } else if (!keepScrollback) {
+      if (n > (bottom - top) + 1) n = (bottom - top) + 1;
+      if (n > l - top + 1) n = l - top + 1;
+
+      // the lines scrolled off at the top become the inserted blank lines,
+      // the buffer does not grow
+      int base = screenBase + top;
+      int size = l - top + 1;
+      for (int i = 0; i < size; i++) {
+        int index = bufferIndex(base + i);
+        scrollChars[i] = charArray[index];
+        scrollAttributes[i] = charAttributes[index];
+      }
+      for (int i = 0; i < size; i++) {
+        int from = (i < size - n ? i + n : i - (size - n));
+        int index = bufferIndex(base + i);
+        charArray[index] = scrollChars[from];
+        charAttributes[index] = scrollAttributes[from];
+        if (i >= size - n)
+          clearLine(index);
+      }
     } else {
-      try {
-        if (n > (bottom - top) + 1) n = (bottom - top) + 1;
-        if (bufSize < maxBufSize) {
-          if (bufSize + n > maxBufSize) {
-            offset = n - (maxBufSize - bufSize);
-            scrollMarker += offset;
-            newBufSize = maxBufSize;
-            newScreenBase = maxBufSize - height - 1;
-            newWindowBase = screenBase;
-          } else {
-            scrollMarker += n;
-            newScreenBase += n;
-            newWindowBase += n;
-            newBufSize += n;
-          }
+      if (n > (bottom - top) + 1) n = (bottom - top) + 1;
+      if (n > l - top + 1) n = l - top + 1;
+
+      int oldBase = screenBase - historySize;       /* in the line store */
+      int first = bufferIndex(screenBase);
+      int length = charArray.length;
+
+      // anything below the screen is stale, the screen always ends the buffer
+      if (bufSize > screenBase + height)
+        bufSize = screenBase + height;
+
+      // append n lines to the end of the buffer, reusing the slots of the
+      // oldest lines once the buffer is full
+      int grow = length - (bufSize - historySize);
+      if (grow > n)
+        grow = n;
+      else if (grow < 0)
+        grow = 0;
+      int evict = n - grow;
+
+      // the oldest lines move into the history instead of being dropped
+      if (history != null) {
+        for (int i = 0; i < evict; i++)
+          history.add(packedLine(bufferIndex(historySize + i)));
+        historySize += evict;
+        grow += evict;
+      }
 
-          cbuf = new char[newBufSize][];
-          abuf = new int[newBufSize][];
-        } else {
-          offset = n;
-          cbuf = charArray;
-          abuf = charAttributes;
-        }
-        // copy anything from the top of the buffer (+offset) to the new top
-        // up to the screenBase.
-        if (oldBase > 0) {
-          System.arraycopy(charArray, offset,
-                           cbuf, 0,
-                           oldBase - offset);
-          System.arraycopy(charAttributes, offset,
-                           abuf, 0,
-                           oldBase - offset);
-        }
-        // copy anything from the top of the screen (screenBase) up to the
-        // topMargin to the new screen
-        if (top > 0) {
-          System.arraycopy(charArray, oldBase,
-                           cbuf, newScreenBase,
-                           top);
-          System.arraycopy(charAttributes, oldBase,
-                           abuf, newScreenBase,
-                           top);
+      bufHead += evict;
+      if (bufHead >= length)
+        bufHead -= length;
+      bufSize += grow;
+      screenBase += grow;
+      windowBase += grow;
+      if (windowBase > screenBase)
+        windowBase = screenBase;
+      else if (windowBase < 0)
+        windowBase = 0;
+      scrollMarker += grow;
+
+      // The old screen starts at slot 'first' and is followed by the n
+      // appended lines, the new screen starts n lines further down. Once
+      // the buffer is full, the appended lines wrap around onto the oldest
+      // lines, which are dropped and reused as the new blank lines.
+      if (top == 0 && l == height - 1) {
+        // the whole screen scrolled, so everything is in place already
+        for (int i = 0; i < n; i++)
+          clearLine((first + height + i) % length);
+      } else {
+        int size = height + n;
+        for (int i = 0; i < height; i++) {
+          int index = (first + i) % length;
+          scrollChars[i] = charArray[index];
+          scrollAttributes[i] = charAttributes[index];
         }
-        // copy anything from the topMargin up to the amount of lines inserted
-        // to the gap left over between scrollback buffer and screenBase
-        if (oldBase >= 0) {
-          System.arraycopy(charArray, oldBase + top,
-                           cbuf, oldBase - offset,
-                           n);
-          System.arraycopy(charAttributes, oldBase + top,
-                           abuf, oldBase - offset,
-                           n);
+        for (int i = 0; i < n; i++) {
+          int drop = i - (n - evict) - oldBase;
+          if (drop >= 0) {
+            // no scrollback left to drop, so the lines scrolled off the
+            // screen are dropped right away
+            scrollChars[height + i] = scrollChars[top + drop];
+            scrollAttributes[height + i] = scrollAttributes[top + drop];
+          } else {
+            int index = (first + height + i) % length;
+            scrollChars[height + i] = charArray[index];
+            scrollAttributes[height + i] = charAttributes[index];
+          }
         }
-        // copy anything from topMargin + n up to the line linserted to the
-        // topMargin
-        System.arraycopy(charArray, oldBase + top + n,
-                         cbuf, newScreenBase + top,
-                         l - top - (n - 1));
-        System.arraycopy(charAttributes, oldBase + top + n,
-                         abuf, newScreenBase + top,
-                         l - top - (n - 1));
-        //
-        // copy the all lines next to the inserted to the new buffer
-        if (l < height - 1) {
-          System.arraycopy(charArray, oldBase + l + 1,
-                           cbuf, newScreenBase + l + 1,
-                           (height - 1) - l);
-          System.arraycopy(charAttributes, oldBase + l + 1,
-                           abuf, newScreenBase + l + 1,
-                           (height - 1) - l);
+        // writing past the end of the buffer overwrites the dropped lines
+        for (int i = 0; i < size; i++) {
+          int from;
+          if (i < n)
+            from = top + i;                    /* scrolled into the buffer */
+          else if (i - n < top)
+            from = i - n;                           /* above the region */
+          else if (i - n <= l - n)
+            from = i;                               /* moved up n lines */
+          else if (i - n <= l)
+            from = height + i - n - (l - n + 1);     /* new blank line */
+          else
+            from = i - n;                           /* below the region */
+          int index = (first + i) % length;
+          charArray[index] = scrollChars[from];
+          charAttributes[index] = scrollAttributes[from];
+          packedLines[index] = null;
+          if (from >= height)
+            clearLine(index);
         }
-      } catch (ArrayIndexOutOfBoundsException e) {
-        // this should not happen anymore, but I will leave the code
-        // here in case something happens anyway. That code above is
-        // so complex I always have a hard time understanding what
-        // I did, even though there are comments
-        System.err.println("*** Error while scrolling up:");
-        System.err.println("--- BEGIN STACK TRACE ---");
-        e.printStackTrace();
-        System.err.println("--- END STACK TRACE ---");
-        System.err.println("bufSize=" + bufSize + ", maxBufSize=" + maxBufSize);
-        System.err.println("top=" + top + ", bottom=" + bottom);
-        System.err.println("n=" + n + ", l=" + l);
-        System.err.println("screenBase=" + screenBase + ", windowBase=" + windowBase);
-        System.err.println("newScreenBase=" + newScreenBase + ", newWindowBase=" + newWindowBase);
-        System.err.println("oldBase=" + oldBase);
-        System.err.println("size.width=" + width + ", size.height=" + height);
-        System.err.println("abuf.length=" + abuf.length + ", cbuf.length=" + cbuf.length);
-        System.err.println("*** done dumping debug information");
       }
+      packOldLines(grow);
+
+      if (history != null)
+        trimHistory();
     }
 
     // this is a little helper to mark the scrolling
     scrollMarker -= n;
 
+    if (scrollDown)
+      markScroll(l, bottom, -n);
+    else
+      markScroll(top, l, n);
+
+    display.updateScrollBar();
+  }
+
+  /**
+   * Blank a line slot of the line store, allocating it if the slot is
+   * still empty or belongs to a different screen width.
+   * @param index slot in the circular line store
+   */
+  private void clearLine(int index) {
+    packedLines[index] = null;
+    if (charArray[index] == null || charArray[index].length != width)
+      allocateLine(index);
+    Arrays.fill(charArray[index], ' ');
+    Arrays.fill(charAttributes[index], 0);
+  }
+
+  /**
+   * Give a line slot fresh arrays, preferring lines no longer in use.
+   * The contents of the arrays are undefined.
+   * @param index slot in the circular line store
+   */
+  private void allocateLine(int index) {
+    allocateLine(charArray, charAttributes, index, width);
+  }
 
-    for (int i = 0; i < n; i++) {
-      cbuf[(newScreenBase + l) + (scrollDown ? i : -i)] = new char[width];
-      Arrays.fill(cbuf[(newScreenBase + l) + (scrollDown ? i : -i)], ' ');
-      abuf[(newScreenBase + l) + (scrollDown ? i : -i)] = new int[width];
+  /**
+   * Give a line fresh arrays of the given width, preferring lines no
+   * longer in use if they have that width.
+   * @param chars character lines
+   * @param attributes attribute lines
+   * @param index the line to set
+   * @param w width of the line
+   */
+  private void allocateLine(char[][] chars, int[][] attributes, int index, int w) {
+    if (spareCount > 0 && w == width) {
+      spareCount--;
+      chars[index] = spareChars[spareCount];
+      attributes[index] = spareAttributes[spareCount];
+      spareChars[spareCount] = null;
+      spareAttributes[spareCount] = null;
+    } else {
+      chars[index] = new char[w];
+      attributes[index] = new int[w];
     }
+  }
 
-    charArray = cbuf;
-    charAttributes = abuf;
-    screenBase = newScreenBase;
-    windowBase = newWindowBase;
-    bufSize = newBufSize;
+  /**
+   * Keep the arrays of a line that is no longer in use for new lines, as
+   * long as there is room for them and they have the width of the screen.
+   * @param chars characters of the line, may be null
+   * @param attributes attributes of the line
+   */
+  private void recycleLine(char[] chars, int[] attributes) {
+    if (chars != null && chars.length == width && spareCount < spareChars.length) {
+      spareChars[spareCount] = chars;
+      spareAttributes[spareCount] = attributes;
+      spareCount++;
+    }
+  }
 
-    if (scrollDown)
-      markLine(l, bottom - l + 1);
-    else
-      markLine(top, l - top + 1);
+  /**
+   * Replace a line by its packed form and keep its arrays for reuse.
+   * @param index slot in the circular line store
+   */
+  private void packLine(int index) {
+    char[] chars = charArray[index];
+    if (chars == null)
+      return;
+    packedLines[index] = PackedLine.pack(chars, charAttributes[index]);
+    recycleLine(chars, charAttributes[index]);
+    charArray[index] = null;
+    charAttributes[index] = null;
+  }
 
-    display.updateScrollBar();
+  /**
+   * Pack the scrollback lines that stopped being recent lines after the
+   * screen moved down in the buffer. The recent lines keep their arrays,
+   * so once a buffer not much bigger than that is full, the lines dropped
+   * off its top are blanked and reused at the bottom without allocating.
+   * In a bigger buffer every line that stops being recent still gets a
+   * packed array of its own, blank lines aside: the packed form is what
+   * the buffer keeps, and it is handed on to the history, which may hold
+   * on to it, so there is no array to pack it into again.
+   * @param n number of lines the screen moved down
+   */
+  private void packOldLines(int n) {
+    int end = screenBase - RECENT_LINES;
+    int start = end - n;
+    if (start < historySize)
+      start = historySize;
+    for (int i = start; i < end; i++)
+      packLine(bufferIndex(i));
+  }
+
+  /**
+   * Packed form of a line in the line store, whether it is packed already
+   * or not.
+   * @param index slot of the line
+   */
+  private char[] packedLine(int index) {
+    if (packedLines[index] != null)
+      return packedLines[index];
+    if (charArray[index] == null)
+      return PackedLine.EMPTY;
+    return PackedLine.pack(charArray[index], charAttributes[index]);
+  }
+
+  /**
+   * Expand a packed line so it can be displayed.
+   * @param index slot in the circular line store
+   */
+  private synchronized void expandLine(int index) {
+    if (charArray[index] != null)
+      return;
+    allocateLine(index);
+    PackedLine.unpack(packedLines[index], charArray[index], charAttributes[index]);
+    packedLines[index] = null;
+  }
+
+  /**
+   * Expand a history line into the display slot of its row.
+   * @param line line number of the history line
+   * @return slot holding the expanded line
+   */
+  private synchronized int expandHistoryLine(int line) {
+    int slot = line % historyLines.length;
+    if (historyLines[slot] != line) {
+      if (historyChars[slot] == null || historyChars[slot].length != width) {
+        historyChars[slot] = new char[width];
+        historyAttributes[slot] = new int[width];
+      }
+      PackedLine.unpack(history.get(line), historyChars[slot], historyAttributes[slot]);
+      historyLines[slot] = line;
+    }
+    return slot;
+  }
+
+  /**
+   * Drop the oldest history lines beyond its maximum size.
+   */
+  private void trimHistory() {
+    int removed = history.trim();
+    if (removed == 0)
+      return;
+    historySize -= removed;
+    bufSize -= removed;
+    screenBase -= removed;
+    windowBase -= removed;
+    if (windowBase < 0)
+      windowBase = 0;
+    Arrays.fill(historyLines, -1);
   }
 
   /**
@@ -494,23 +774,24 @@ public class VDUBuffer {
             (l < topMargin?topMargin:bottomMargin + 1));
     int numRows = bottom - l - 1;
 
-    char[] discardedChars = charArray[screenBase + l];
-    int[] discardedAttributes = charAttributes[screenBase + l];
+    int index = bufferIndex(screenBase + l);
+    char[] discardedChars = charArray[index];
+    int[] discardedAttributes = charAttributes[index];
 
-    if (numRows > 0) {
-	    System.arraycopy(charArray, screenBase + l + 1,
-	                     charArray, screenBase + l, numRows);
-	    System.arraycopy(charAttributes, screenBase + l + 1,
-	                     charAttributes, screenBase + l, numRows);
+    for (int i = 0; i < numRows; i++) {
+      int next = bufferIndex(screenBase + l + i + 1);
+      charArray[index] = charArray[next];
+      charAttributes[index] = charAttributes[next];
+      index = next;
     }
 
-    int newBottomRow = screenBase + bottom - 1;
+    int newBottomRow = bufferIndex(screenBase + bottom - 1);
     charArray[newBottomRow] = discardedChars;
     charAttributes[newBottomRow] = discardedAttributes;
     Arrays.fill(charArray[newBottomRow], ' ');
     Arrays.fill(charAttributes[newBottomRow], 0);
 
-    markLine(l, bottom - l);
+    markScroll(l, bottom - 1, 1);
   }
 
   /**
@@ -527,13 +808,12 @@ public class VDUBuffer {
    */
   public void deleteArea(int c, int l, int w, int h, int curAttr) {
     int endColumn = c + w;
-    int targetRow = screenBase + l;
     for (int i = 0; i < h && l + i < height; i++) {
+      int targetRow = bufferIndex(screenBase + l + i);
       Arrays.fill(charAttributes[targetRow], c, endColumn, curAttr);
       Arrays.fill(charArray[targetRow], c, endColumn, ' ');
-      targetRow++;
+      markColumns(l + i, c, endColumn);
     }
-    markLine(l, h);
   }
 
   /**
@@ -597,10 +877,22 @@ public class VDUBuffer {
    * @see #setBufferSize
    * @see #getBufferSize
    */
-  public void setWindowBase(int line) {
+  public synchronized void setWindowBase(int line) {
     if (line > screenBase)
       line = screenBase;
     else if (line < 0) line = 0;
+
+    if (reflowPending && line < screenBase) {
+      reflowPending = false;
+      line = reflowScrollback(line);
+    }
+
+    // pack the older scrollback lines that are no longer shown
+    int start = windowBase > historySize ? windowBase : historySize;
+    for (int i = start; i < windowBase + height && i < screenBase - RECENT_LINES; i++)
+      if (i < line || i >= line + height)
+        packLine(bufferIndex(i));
+
     windowBase = line;
     update[0] = true;
     redraw();
@@ -678,6 +970,17 @@ public class VDUBuffer {
     return bottomMargin;
   }
 
+  /**
+   * Keep the lines that scroll off the top of the screen in the scrollback
+   * buffer. While output is skipped over, they are dropped right away
+   * instead, which leaves the scrollback from before as it is and saves
+   * moving lines into the scrollback that nobody is going to look at.
+   * @param keep false to drop the lines scrolled off the screen
+   */
+  public synchronized void setKeepScrollback(boolean keep) {
+    keepScrollback = keep;
+  }
+
   /**
    * Set scrollback buffer size.
    * @param amount new size of the buffer
@@ -685,26 +988,95 @@ public class VDUBuffer {
   public void setBufferSize(int amount) {
     if (amount < height) amount = height;
     if (amount < maxBufSize) {
-      char cbuf[][] = new char[amount][width];
-      int abuf[][] = new int[amount][width];
-      int copyStart = bufSize - amount < 0 ? 0 : bufSize - amount;
-      int copyCount = bufSize - amount < 0 ? bufSize : amount;
-      if (charArray != null)
-        System.arraycopy(charArray, copyStart, cbuf, 0, copyCount);
-      if (charAttributes != null)
-        System.arraycopy(charAttributes, copyStart, abuf, 0, copyCount);
-      charArray = cbuf;
-      charAttributes = abuf;
-      bufSize = copyCount;
+      // keep only the most recent lines
+      if (bufSize > amount) {
+        int count = bufSize - amount;
+        int fromHistory = count < historySize ? count : historySize;
+        if (fromHistory > 0) {
+          history.remove(fromHistory);
+          historySize -= fromHistory;
+          Arrays.fill(historyLines, -1);
+        }
+        bufHead = bufferIndex(historySize + count - fromHistory);
+        bufSize = amount;
+      }
       screenBase = bufSize - height;
       windowBase = screenBase;
     }
     maxBufSize = amount;
+    setLiveLines(liveLines(amount, height));
 
     update[0] = true;
     redraw();
   }
 
+  /**
+   * Number of lines kept uncompressed in a buffer of the given size, the
+   * line store always has room for two screens.
+   * @param amount size of the buffer
+   * @param rows rows of the screen
+   */
+  private static int liveLines(int amount, int rows) {
+    int lines = LIVE_LINES > 2 * rows ? LIVE_LINES : 2 * rows;
+    return amount < lines ? amount : lines;
+  }
+
+  /**
+   * Reallocate the circular line store so it holds the given amount of
+   * lines. The lines currently in the buffer are kept, starting with the
+   * oldest one in the first slot. Lines that do not fit go into the
+   * history, which is only kept while the buffer is larger than the store.
+   * @param capacity number of lines the store can hold
+   */
+  private void setLiveLines(int capacity) {
+    int live = bufSize - historySize;
+    int excess = 0;
+    int restore = 0;
+    if (maxBufSize > capacity) {
+      if (history == null)
+        history = historyStore != null ? historyStore : new CompressedScrollback(0);
+      history.setMaxLines(maxBufSize - capacity);
+      excess = live - capacity;
+      if (excess < 0)
+        excess = 0;
+      for (int i = 0; i < excess; i++) {
+        int index = bufferIndex(historySize + i);
+        history.add(packedLine(index));
+        recycleLine(charArray[index], charAttributes[index]);
+      }
+    } else if (history != null) {
+      // the history is not needed any more, its lines fit the line store
+      restore = historySize;
+    }
+
+    char cbuf[][] = new char[capacity][];
+    int abuf[][] = new int[capacity][];
+    char pbuf[][] = new char[capacity][];
+    for (int i = 0; i < restore; i++)
+      pbuf[i] = history.get(i);
+    if (charArray != null) {
+      for (int i = excess; i < live; i++) {
+        int index = bufferIndex(historySize + i);
+        cbuf[restore + i - excess] = charArray[index];
+        abuf[restore + i - excess] = charAttributes[index];
+        pbuf[restore + i - excess] = packedLines[index];
+      }
+    }
+    charArray = cbuf;
+    charAttributes = abuf;
+    packedLines = pbuf;
+    bufHead = 0;
+
+    historySize += excess - restore;
+    if (maxBufSize <= capacity && history != null) {
+      history.remove(restore);
+      history = null;
+    }
+    if (historyLines != null)
+      Arrays.fill(historyLines, -1);
+    if (history != null)
+      trimHistory();
+  }
   /**
    * Retrieve current scrollback buffer size.
    * @see #setBufferSize
@@ -721,6 +1093,41 @@ public class VDUBuffer {
     return maxBufSize;
   }
 
+  /**
+   * Keep the oldest scrollback lines in the given store instead of keeping
+   * them compressed in memory. Lines already in the store come first, any
+   * history lines of the buffer move into the store.
+   * @param store where to keep the history, or null to keep it in memory
+   * @see #setBufferSize
+   */
+  public synchronized void setScrollbackStore(ScrollbackStore store) {
+    ScrollbackStore next = store != null ? store : new CompressedScrollback(0);
+    if (next != history) {
+      if (history != null) {
+        for (int i = 0; i < historySize; i++)
+          next.add(history.get(i));
+        history.remove(historySize);
+      }
+      int added = next.size() - historySize;
+      historySize += added;
+      bufSize += added;
+      screenBase += added;
+      windowBase += added;
+      history = next;
+      Arrays.fill(historyLines, -1);
+    }
+    historyStore = store;
+
+    int capacity = charArray.length;
+    history.setMaxLines(maxBufSize > capacity ? maxBufSize - capacity : 0);
+    trimHistory();
+    if (maxBufSize <= capacity)
+      history = null;
+
+    update[0] = true;
+    redraw();
+  }
+
   /**
    * Change the size of the screen. This will include adjustment of the
    * scrollback buffer.
@@ -730,7 +1137,7 @@ public class VDUBuffer {
   public void setScreenSize(int w, int h, boolean broadcast) {
     char cbuf[][];
     int abuf[][];
-    int maxSize = bufSize;
+    char pbuf[][];
 
     if (w < 1 || h < 1) return;
 
@@ -740,10 +1147,18 @@ public class VDUBuffer {
     if (h > maxBufSize)
       maxBufSize = h;
 
-    if (h > bufSize) {
-      bufSize = h;
-      screenBase = 0;
-      windowBase = 0;
+    // the line store keeps room for two screens, the rest is history
+    int capacity = liveLines(maxBufSize, h);
+    if (charArray != null)
+      setLiveLines(capacity);
+    if (charArray != null && w != width)
+      reflowScreen(w, h);
+    int maxSize = bufSize - historySize;
+
+    if (h > bufSize - historySize) {
+      bufSize = historySize + h;
+      screenBase = historySize;
+      windowBase = historySize;
     }
 
     if (windowBase + h >= bufSize)
@@ -753,49 +1168,96 @@ public class VDUBuffer {
       screenBase = bufSize - h;
 
 
-    cbuf = new char[bufSize][w];
-    abuf = new int[bufSize][w];
+    cbuf = new char[capacity][];
+    abuf = new int[capacity][];
+    pbuf = new char[capacity][];
 
+    if (charArray == null)
+      maxSize = 0;
 
-    for (int i = 0; i < bufSize; i++) {
-      Arrays.fill(cbuf[i], ' ');
-    }
-
-    if (bufSize < maxSize)
-      maxSize = bufSize;
-
+    // lines that have the width already are kept as they are, other
+    // scrollback lines stay packed, they fit any width
+    int base = screenBase - historySize;
     int rowLength;
-    if (charArray != null && charAttributes != null) {
-      for (int i = 0; i < maxSize && charArray[i] != null; i++) {
-        rowLength = charArray[i].length;
-        System.arraycopy(charArray[i], 0, cbuf[i], 0,
-                         w < rowLength ? w : rowLength);
-        System.arraycopy(charAttributes[i], 0, abuf[i], 0,
-                         w < rowLength ? w : rowLength);
+    for (int i = 0; i < bufSize - historySize; i++) {
+      int index = i < maxSize ? bufferIndex(historySize + i) : -1;
+      if (index >= 0 && charArray[index] != null && charArray[index].length == w) {
+        cbuf[i] = charArray[index];
+        abuf[i] = charAttributes[index];
+        continue;
+      }
+      if (i < base) {
+        if (index < 0 || (charArray[index] == null && packedLines[index] == null))
+          pbuf[i] = PackedLine.EMPTY;
+        else if (packedLines[index] != null)
+          pbuf[i] = packedLines[index];
+        else
+          pbuf[i] = PackedLine.pack(charArray[index], charAttributes[index]);
+        continue;
+      }
+
+      allocateLine(cbuf, abuf, i, w);
+      if (index >= 0 && packedLines[index] != null) {
+        PackedLine.unpack(packedLines[index], cbuf[i], abuf[i]);
+      } else {
+        Arrays.fill(cbuf[i], ' ');
+        Arrays.fill(abuf[i], 0);
+        if (index >= 0 && charArray[index] != null) {
+          rowLength = charArray[index].length;
+          System.arraycopy(charArray[index], 0, cbuf[i], 0,
+                           w < rowLength ? w : rowLength);
+          System.arraycopy(charAttributes[index], 0, abuf[i], 0,
+                           w < rowLength ? w : rowLength);
+        }
       }
     }
 
     int C = getCursorColumn();
     if (C < 0)
       C = 0;
-    else if (C >= width)
-      C = width - 1;
+    else if (C >= w)
+      C = w - 1;
 
     int R = getCursorRow();
     if (R < 0)
       R = 0;
-    else if (R >= height)
-      R = height - 1;
+    else if (R >= h)
+      R = h - 1;
 
     setCursorPosition(C, R);
 
     charArray = cbuf;
     charAttributes = abuf;
+    packedLines = pbuf;
+    bufHead = 0;
+    scrollChars = new char[2 * h][];
+    scrollAttributes = new int[2 * h][];
+    // recycled lines are kept as long as the width stays the same
+    if (w != width)
+      spareCount = 0;
+    else if (spareCount > h)
+      spareCount = h;
+    char[][] spare = new char[h][];
+    int[][] spareAttrs = new int[h][];
+    if (spareCount > 0) {
+      System.arraycopy(spareChars, 0, spare, 0, spareCount);
+      System.arraycopy(spareAttributes, 0, spareAttrs, 0, spareCount);
+    }
+    spareChars = spare;
+    spareAttributes = spareAttrs;
+    scrollCount = 0;
+    historyChars = new char[h][];
+    historyAttributes = new int[h][];
+    historyLines = new int[h];
+    Arrays.fill(historyLines, -1);
     width = w;
     height = h;
     topMargin = 0;
     bottomMargin = h - 1;
     update = new boolean[h + 1];
+    updateStart = new int[h + 1];
+    updateEnd = new int[h + 1];
+    Arrays.fill(updateEnd, w);
     update[0] = true;
     /*  FIXME: ???
     if(resizeStrategy == RESIZE_FONT)
@@ -803,6 +1265,257 @@ public class VDUBuffer {
     */
   }
 
+  /**
+   * Rewrap the lines on the screen for a new width, along with enough of
+   * the lines above it to fill the new screen. The rest of the scrollback
+   * is rewrapped when it is scrolled to; until then its lines are cut off
+   * or padded as before. Lines that already moved into the history keep
+   * the width they were written with.
+   * @param w new width of the screen
+   * @param h new height of the screen
+   */
+  private void reflowScreen(int w, int h) {
+    int first = screenBase - h * (w / width + 1);
+    if (first < historySize)
+      first = historySize;
+    while (first > historySize && isWrapped(first - 1))
+      first--;
+
+    rewrap(first, bufSize, w, screenBase + cursorY, cursorX);
+
+    // keep as many lines below the cursor as there were, the text above
+    // it may take more or fewer lines than before
+    int count = wrapCount;
+    int keep = wrapLine + height - cursorY;
+    while (count > keep && wrapLines[count - 1] == PackedLine.EMPTY)
+      count--;
+
+    int cursorLine = replaceLines(first, bufSize, wrapLines, count) + wrapLine;
+
+    screenBase = bufSize - h;
+    if (screenBase < historySize)
+      screenBase = historySize;
+    if (cursorLine < screenBase && cursorLine >= historySize) {
+      screenBase = cursorLine;
+      bufSize = screenBase + h;
+    }
+    windowBase = screenBase;
+    setCursorPosition(wrapColumn, cursorLine - screenBase);
+    reflowPending = true;
+  }
+
+  /**
+   * Rewrap the scrollback in the line store to the width of the screen.
+   * @param line a buffer line
+   * @return the line the given line moved to
+   */
+  private int reflowScrollback(int line) {
+    int from = historySize;
+    int to = screenBase;
+    if (from >= to)
+      return line;
+
+    rewrap(from, to, width, line, 0);
+    int start = replaceLines(from, to, wrapLines, wrapCount);
+    display.updateScrollBar();
+
+    if (line < from)
+      line += start - from;
+    else
+      line = start + wrapLine;
+    return line < 0 ? 0 : line;
+  }
+
+  /**
+   * Check whether a line of the line store continues on the next line.
+   * @param line the buffer line, counted like in getLineChars()
+   */
+  private boolean isWrapped(int line) {
+    int index = bufferIndex(line);
+    if (charAttributes[index] != null)
+      return (charAttributes[index][charAttributes[index].length - 1] & WRAPPED) != 0;
+    return packedLines[index] != null
+        && (PackedLine.lastAttributes(packedLines[index]) & WRAPPED) != 0;
+  }
+
+  /**
+   * Rewrap lines of the line store to a width. A line that wrapped is
+   * joined with the lines it continues on, then the text is split again at
+   * the new width. The new lines are left in packed form in wrapLines.
+   * @param from first line, which starts a line of text
+   * @param to line after the last one; if the last line wrapped, so does
+   *   the last new line
+   * @param w width to wrap at
+   * @param trackLine line of a position to follow
+   * @param trackColumn column of the position to follow, its new place is
+   *   left in wrapLine and wrapColumn
+   */
+  private void rewrap(int from, int to, int w, int trackLine, int trackColumn) {
+    char[] text = new char[2 * w];
+    int[] textAttributes = new int[2 * w];
+    int length = 0;
+    int track = -1;
+
+    char[] chars = new char[w];
+    int[] attributes = new int[w];
+
+    wrapCount = 0;
+    wrapLine = -1;
+    wrapColumn = 0;
+
+    for (int i = from; i < to; i++) {
+      int index = bufferIndex(i);
+      char[] lineChars = charArray[index];
+      int[] lineAttributes = charAttributes[index];
+      if (lineChars == null && packedLines[index] != null) {
+        int n = PackedLine.length(packedLines[index]);
+        lineChars = new char[n];
+        lineAttributes = new int[n];
+        PackedLine.unpack(packedLines[index], lineChars, lineAttributes);
+      }
+
+      int n = lineChars != null ? lineChars.length : 0;
+      boolean wrapped = n > 0 && (lineAttributes[n - 1] & WRAPPED) != 0;
+      if (!wrapped)
+        while (n > 0 && lineChars[n - 1] == ' ' && lineAttributes[n - 1] == 0)
+          n--;
+
+      if (i == trackLine)
+        track = length + trackColumn;
+
+      if (length + n > text.length) {
+        text = Arrays.copyOf(text, 2 * (length + n));
+        textAttributes = Arrays.copyOf(textAttributes, text.length);
+      }
+      for (int j = 0; j < n; j++) {
+        text[length + j] = lineChars[j];
+        textAttributes[length + j] = lineAttributes[j] & ~WRAPPED;
+      }
+      length += n;
+
+      if (wrapped && i < to - 1)
+        continue;
+
+      // split the text, keeping both halves of a wide character together
+      int start = 0;
+      do {
+        int pieceStart = start;
+        int column = 0;
+        while (start < length) {
+          int size = (textAttributes[start] & FULLWIDTH) != 0 && start + 1 < length ? 2 : 1;
+          if (column + size > w) {
+            if (column > 0)
+              break;
+            size = 1;
+          }
+          for (int j = 0; j < size; j++) {
+            chars[column] = text[start];
+            attributes[column] = textAttributes[start];
+            column++;
+            start++;
+          }
+        }
+        Arrays.fill(chars, column, w, ' ');
+        Arrays.fill(attributes, column, w, 0);
+        if (start < length || wrapped)
+          attributes[w - 1] |= WRAPPED;
+
+        if (track >= pieceStart && (track < start || start >= length)) {
+          wrapLine = wrapCount;
+          wrapColumn = track - pieceStart < w ? track - pieceStart : w - 1;
+          track = -1;
+        }
+
+        if (wrapCount == wrapLines.length)
+          wrapLines = Arrays.copyOf(wrapLines, 2 * wrapCount);
+        wrapLines[wrapCount++] = PackedLine.pack(chars, attributes);
+      } while (start < length);
+
+      length = 0;
+    }
+  }
+
+  /**
+   * Replace a range of lines of the line store by packed lines. Lines that
+   * no longer fit into the line store move into the history, or are
+   * dropped if there is none.
+   * @param from first line to replace
+   * @param to line after the last one to replace
+   * @param lines the new lines
+   * @param count number of new lines
+   * @return the line the first new line ended up at
+   */
+  private int replaceLines(int from, int to, char[][] lines, int count) {
+    int capacity = charArray.length;
+    int before = from - historySize;
+    int after = bufSize - to;
+    int total = before + count + after;
+    int overflow = total > capacity ? total - capacity : 0;
+
+    char cbuf[][] = new char[capacity][];
+    int abuf[][] = new int[capacity][];
+    char pbuf[][] = new char[capacity][];
+    for (int i = 0; i < total; i++) {
+      int slot = i - overflow;
+      if (i >= before && i < before + count) {
+        if (slot >= 0)
+          pbuf[slot] = lines[i - before];
+        else if (history != null)
+          history.add(lines[i - before]);
+        continue;
+      }
+
+      int index = bufferIndex(i < before ? historySize + i : to + i - before - count);
+      if (slot >= 0) {
+        cbuf[slot] = charArray[index];
+        abuf[slot] = charAttributes[index];
+        pbuf[slot] = packedLines[index];
+      } else {
+        if (history != null)
+          history.add(packedLine(index));
+        recycleLine(charArray[index], charAttributes[index]);
+      }
+    }
+    for (int i = from; i < to; i++) {
+      int index = bufferIndex(i);
+      recycleLine(charArray[index], charAttributes[index]);
+    }
+    charArray = cbuf;
+    charAttributes = abuf;
+    packedLines = pbuf;
+    bufHead = 0;
+
+    int shift = count - (to - from);
+    int dropped = 0;
+    if (history != null)
+      historySize += overflow;
+    else
+      dropped = overflow;
+    bufSize += shift - dropped;
+    screenBase = moveLine(screenBase, from, to, shift, dropped);
+    windowBase = moveLine(windowBase, from, to, shift, dropped);
+    scrollMarker = moveLine(scrollMarker, from, to, shift, dropped);
+    Arrays.fill(historyLines, -1);
+
+    int size = bufSize;
+    if (history != null)
+      trimHistory();
+    return from - dropped - (size - bufSize);
+  }
+
+  /**
+   * Where a line moves when a range of lines is replaced.
+   * @see #replaceLines
+   */
+  private static int moveLine(int line, int from, int to, int shift, int dropped) {
+    if (line >= to)
+      line += shift;
+    else if (line > from)
+      line = from;
+    line -= dropped;
+    return line < 0 ? 0 : line;
+  }
+
   /**
    * Get amount of rows on the screen.
    */
@@ -824,8 +1537,92 @@ public class VDUBuffer {
    * @see #redraw
    */
   public void markLine(int l, int n) {
-    for (int i = 0; (i < n) && (l + i < height); i++)
+    for (int i = 0; (i < n) && (l + i < height); i++) {
       update[l + i + 1] = true;
+      updateStart[l + i + 1] = 0;
+      updateEnd[l + i + 1] = width;
+    }
+  }
+
+  /**
+   * Record a scroll of the screen lines top to bottom in the journal and
+   * mark the lines scrolled into view. The lines that only moved keep
+   * their update marks, which move along with them, so the display can
+   * move what it has drawn instead of drawing them again.
+   * @param top first line of the scrolled region
+   * @param bottom last line of the scrolled region
+   * @param n lines the region moved up, negative if it moved down
+   * @see #takeScrolls
+   */
+  private void markScroll(int top, int bottom, int n) {
+    int size = bottom - top + 1;
+    int lines = n < 0 ? -n : n;
+    if (windowBase != screenBase || lines >= size || scrollCount < 0 || update[0]) {
+      markLine(top, size);
+      return;
+    }
+    if (scrollCount == SCROLL_JOURNAL_SIZE) {
+      // too much scrolling to keep track of, draw everything
+      scrollCount = -1;
+      update[0] = true;
+      markLine(top, size);
+      return;
+    }
+
+    scrollJournal[3 * scrollCount] = top;
+    scrollJournal[3 * scrollCount + 1] = bottom;
+    scrollJournal[3 * scrollCount + 2] = n;
+    scrollCount++;
+
+    int from = top + 1;
+    int to = bottom + 1;
+    if (n > 0) {
+      System.arraycopy(update, from + n, update, from, size - n);
+      System.arraycopy(updateStart, from + n, updateStart, from, size - n);
+      System.arraycopy(updateEnd, from + n, updateEnd, from, size - n);
+      markLine(bottom - n + 1, n);
+    } else {
+      System.arraycopy(update, from, update, from + lines, size - lines);
+      System.arraycopy(updateStart, from, updateStart, from + lines, size - lines);
+      System.arraycopy(updateEnd, from, updateEnd, from + lines, size - lines);
+      markLine(top, lines);
+    }
+  }
+
+  /**
+   * Take the scrolls recorded since the last call, to be applied to what
+   * the display shows in the order given. Each scroll is three entries of
+   * the journal: the first and the last line of the scrolled region and the
+   * number of lines it moved up, which is negative if it moved down. The
+   * lines scrolled into view are marked for update. Nothing is recorded
+   * while the window does not show the screen or update[0] is set.
+   * @param journal receives 3 * SCROLL_JOURNAL_SIZE entries at most
+   * @return number of scrolls taken
+   */
+  public synchronized int takeScrolls(int[] journal) {
+    int count = scrollCount;
+    scrollCount = 0;
+    if (count <= 0 || update[0])
+      return 0;
+    System.arraycopy(scrollJournal, 0, journal, 0, 3 * count);
+    return count;
+  }
+
+  /**
+   * Mark columns of a line to be updated with redraw(). Only the columns
+   * between updateStart and updateEnd of a line need to be redrawn.
+   * @param l line
+   * @param start first column to be updated
+   * @param end column after the last one to be updated
+   * @see #markLine
+   * @see #redraw
+   */
+  public void markColumns(int l, int start, int end) {
+    update[l + 1] = true;
+    if (start < updateStart[l + 1])
+      updateStart[l + 1] = start;
+    if (end > updateEnd[l + 1])
+      updateEnd[l + 1] = end;
   }
 
 //  private static int checkBounds(int value, int lower, int upper) {
@@ -0,0 +1,308 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+/**
+ * Escape sequence parser driven by a state transition table, laid out after
+ * the DEC ANSI parser state diagram. Every character costs one table lookup;
+ * the parser only collects the parts of a sequence and hands complete
+ * sequences to its {@link Actions}.
+ *
+ * Besides the DEC states, the parser knows the two address characters of
+ * the VT52 cursor address sequence (ESC Y), which vt320 accepts in ANSI
+ * mode as well.
+ */
+final class VTParser {
+	/**
+	 * Receives what the parser finds in the terminal output.
+	 */
+	interface Actions {
+		/** A character to put on the screen. */
+		void print(char c, boolean isWide);
+
+		/** A control character. */
+		void execute(char c);
+
+		/**
+		 * An escape sequence.
+		 * @param intermediate intermediate character, 0 if there was none
+		 * @param c final character
+		 */
+		void escDispatch(char intermediate, char c);
+
+		/**
+		 * A control sequence.
+		 * @param marker private marker (one of &lt; = &gt; ?), 0 if there was none
+		 * @param intermediate intermediate character, 0 if there was none
+		 * @param params parameter values, omitted ones are 0
+		 * @param count number of parameters, at least 1
+		 * @param c final character
+		 */
+		void csiDispatch(char marker, char intermediate, int[] params, int count, char c);
+
+		/** An operating system command. */
+		void oscDispatch(String osc);
+
+		/** A device control string. */
+		void dcsDispatch(String dcs);
+
+		/** The cursor address of a VT52 ESC Y sequence. */
+		void vt52Address(char row, char column);
+	}
+
+	/** Number of CSI parameters kept, later ones are dropped. */
+	static final int MAX_PARAMS = 30;
+
+	private static final int MAX_PARAM_VALUE = 0xffff;
+
+	/* longer strings are cut off */
+	private static final int MAX_STRING = 4096;
+
+	/* an intermediate character after the first one, makes the sequence unknown */
+	private static final char EXTRA_INTERMEDIATE = 0xffff;
+
+	/* states */
+	private static final int GROUND = 0;
+	private static final int ESCAPE = 1;
+	private static final int ESCAPE_INTERMEDIATE = 2;
+	private static final int CSI_ENTRY = 3;
+	private static final int CSI_PARAM = 4;
+	private static final int CSI_INTERMEDIATE = 5;
+	private static final int CSI_IGNORE = 6;
+	private static final int OSC_STRING = 7;
+	private static final int DCS_STRING = 8;
+	private static final int STRING_IGNORE = 9;        /* SOS, PM and APC */
+	private static final int VT52_ROW = 10;
+	private static final int VT52_COLUMN = 11;
+	private static final int STATES = 12;
+
+	/* table entries for which the state does not change */
+	private static final int STAY = 15;
+
+	/* actions */
+	private static final int NONE = 0;
+	private static final int PRINT = 1;
+	private static final int EXECUTE = 2;
+	private static final int COLLECT = 3;
+	private static final int MARKER = 4;
+	private static final int PARAM = 5;
+	private static final int SEPARATOR = 6;
+	private static final int ESC_DISPATCH = 7;
+	private static final int CSI_DISPATCH = 8;
+	private static final int PUT = 9;
+	private static final int ROW = 10;
+	private static final int COLUMN = 11;
+
+	/* characters from 0xa0 up share the last column of the table */
+	private static final int CLASSES = 0xa1;
+
+	/** Table entries: action in the low five bits, next state above them. */
+	private static final short[] TABLE = new short[STATES * CLASSES];
+
+	static {
+		for (int state = 0; state < STATES; state++)
+			set(state, 0, CLASSES - 1, NONE, STAY);
+
+		for (int state = 0; state < STATES; state++) {
+			if (state != GROUND) {
+				setControls(state, EXECUTE, STAY);
+				set(state, 0x7f, 0x7f, NONE, STAY);
+			}
+		}
+
+		set(GROUND, 0x00, 0x1f, EXECUTE, STAY);
+		set(GROUND, 0x20, 0x7f, PRINT, STAY);
+		set(GROUND, 0xa0, 0xa0, PRINT, STAY);
+
+		set(ESCAPE, 0x20, 0x2f, COLLECT, ESCAPE_INTERMEDIATE);
+		set(ESCAPE, 0x30, 0x7e, ESC_DISPATCH, GROUND);
+		set(ESCAPE, 'P', 'P', NONE, DCS_STRING);
+		set(ESCAPE, 'X', 'X', NONE, STRING_IGNORE);
+		set(ESCAPE, 'Y', 'Y', NONE, VT52_ROW);
+		set(ESCAPE, '[', '[', NONE, CSI_ENTRY);
+		set(ESCAPE, ']', ']', NONE, OSC_STRING);
+		set(ESCAPE, '^', '_', NONE, STRING_IGNORE);
+
+		set(ESCAPE_INTERMEDIATE, 0x20, 0x2f, COLLECT, STAY);
+		set(ESCAPE_INTERMEDIATE, 0x30, 0x7e, ESC_DISPATCH, GROUND);
+
+		set(CSI_ENTRY, 0x20, 0x2f, COLLECT, CSI_INTERMEDIATE);
+		set(CSI_ENTRY, 0x30, 0x39, PARAM, CSI_PARAM);
+		set(CSI_ENTRY, 0x3a, 0x3a, NONE, CSI_IGNORE);
+		set(CSI_ENTRY, 0x3b, 0x3b, SEPARATOR, CSI_PARAM);
+		set(CSI_ENTRY, 0x3c, 0x3f, MARKER, CSI_PARAM);
+		set(CSI_ENTRY, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+
+		set(CSI_PARAM, 0x20, 0x2f, COLLECT, CSI_INTERMEDIATE);
+		set(CSI_PARAM, 0x30, 0x39, PARAM, STAY);
+		set(CSI_PARAM, 0x3a, 0x3a, NONE, CSI_IGNORE);
+		set(CSI_PARAM, 0x3b, 0x3b, SEPARATOR, STAY);
+		set(CSI_PARAM, 0x3c, 0x3f, NONE, CSI_IGNORE);
+		set(CSI_PARAM, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+
+		set(CSI_INTERMEDIATE, 0x20, 0x2f, COLLECT, STAY);
+		set(CSI_INTERMEDIATE, 0x30, 0x3f, NONE, CSI_IGNORE);
+		set(CSI_INTERMEDIATE, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+
+		set(CSI_IGNORE, 0x40, 0x7e, NONE, GROUND);
+
+		// like vt320, any control character ends an OSC string
+		setControls(OSC_STRING, NONE, GROUND);
+		set(OSC_STRING, 0x20, 0x7f, PUT, STAY);
+		set(OSC_STRING, 0xa0, 0xa0, PUT, STAY);
+
+		set(DCS_STRING, 0x00, 0x7f, PUT, STAY);
+		set(DCS_STRING, 0xa0, 0xa0, PUT, STAY);
+
+		set(STRING_IGNORE, 0x00, 0x7f, NONE, STAY);
+
+		set(VT52_ROW, 0x00, 0xa0, ROW, VT52_COLUMN);
+		set(VT52_COLUMN, 0x00, 0xa0, COLUMN, GROUND);
+
+		// transitions from anywhere
+		for (int state = 0; state < STATES; state++) {
+			set(state, 0x18, 0x18, EXECUTE, GROUND);
+			set(state, 0x1a, 0x1a, EXECUTE, GROUND);
+			set(state, 0x1b, 0x1b, NONE, ESCAPE);
+			set(state, 0x80, 0x8f, EXECUTE, GROUND);
+			set(state, 0x90, 0x90, NONE, DCS_STRING);
+			set(state, 0x91, 0x97, EXECUTE, GROUND);
+			set(state, 0x98, 0x98, NONE, STRING_IGNORE);
+			set(state, 0x99, 0x9a, EXECUTE, GROUND);
+			set(state, 0x9b, 0x9b, NONE, CSI_ENTRY);
+			set(state, 0x9c, 0x9c, NONE, GROUND);
+			set(state, 0x9d, 0x9d, NONE, OSC_STRING);
+			set(state, 0x9e, 0x9f, NONE, STRING_IGNORE);
+		}
+	}
+
+	private static void set(int state, int first, int last, int action, int next) {
+		for (int c = first; c <= last; c++)
+			TABLE[state * CLASSES + c] = (short) (action | (next << 5));
+	}
+
+	/* C0 controls that do not leave the state */
+	private static void setControls(int state, int action, int next) {
+		set(state, 0x00, 0x17, action, next);
+		set(state, 0x19, 0x19, action, next);
+		set(state, 0x1c, 0x1f, action, next);
+	}
+
+	private final Actions actions;
+
+	private int state = GROUND;
+
+	private char marker;
+	private char intermediate;
+	private final int[] params = new int[MAX_PARAMS];
+	private int param;
+
+	private final StringBuilder string = new StringBuilder();
+	private char row;
+
+	VTParser(Actions actions) {
+		this.actions = actions;
+	}
+
+	/**
+	 * @return true if the parser is not in the middle of a sequence
+	 */
+	boolean isGround() {
+		return state == GROUND;
+	}
+
+	/**
+	 * Forget a sequence that has not been completed.
+	 */
+	void reset() {
+		state = GROUND;
+	}
+
+	/**
+	 * Parse the next character of the terminal output.
+	 * @param c the character
+	 * @param isWide whether the character takes two columns, if printed
+	 */
+	void next(char c, boolean isWide) {
+		int entry = TABLE[state * CLASSES + (c < CLASSES - 1 ? c : CLASSES - 1)];
+		int next = entry >> 5;
+
+		if (next != STAY) {
+			if (state == OSC_STRING)
+				actions.oscDispatch(string.toString());
+			else if (state == DCS_STRING)
+				actions.dcsDispatch(string.toString());
+		}
+
+		switch (entry & 0x1f) {
+		case PRINT:
+			actions.print(c, isWide);
+			break;
+		case EXECUTE:
+			actions.execute(c);
+			break;
+		case COLLECT:
+			intermediate = intermediate == 0 ? c : EXTRA_INTERMEDIATE;
+			break;
+		case MARKER:
+			marker = c;
+			break;
+		case PARAM:
+			int value = params[param] * 10 + c - '0';
+			params[param] = value > MAX_PARAM_VALUE ? MAX_PARAM_VALUE : value;
+			break;
+		case SEPARATOR:
+			if (param < MAX_PARAMS - 1)
+				params[++param] = 0;
+			break;
+		case ESC_DISPATCH:
+			actions.escDispatch(intermediate, c);
+			break;
+		case CSI_DISPATCH:
+			actions.csiDispatch(marker, intermediate, params, param + 1, c);
+			break;
+		case PUT:
+			if (string.length() < MAX_STRING)
+				string.append(c);
+			break;
+		case ROW:
+			row = c;
+			break;
+		case COLUMN:
+			actions.vt52Address(row, c);
+			break;
+		}
+
+		if (next != STAY) {
+			state = next;
+			switch (next) {
+			case ESCAPE:
+			case CSI_ENTRY:
+				marker = 0;
+				intermediate = 0;
+				param = 0;
+				params[0] = 0;
+				break;
+			case OSC_STRING:
+			case DCS_STRING:
+				string.setLength(0);
+				break;
+			}
+		}
+	}
+}
@@ -84,6 +84,9 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
    * Put string at current cursor position. Moves cursor
    * according to the String. Does NOT wrap.
    * @param s character array
+   * @param fullwidths East Asian width of each character, fullwidths[i]
+   *        for s[start + i], or null if none is wide. Widths of ASCII
+   *        characters are never read, callers need not set them.
    * @param start place to start in array
    * @param len number of characters to process
    */
@@ -100,6 +103,18 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
         if (c <= 0x7F) {
           if (lastChar != -1)
             putChar((char) lastChar, isWide, false);
+          // plain text goes into the buffer a run at a time, the last
+          // character is held back in case a combining mark follows
+          if (c >= ' ' && c < 0x7F && isPlainText()) {
+            int end = i + 1;
+            while (end < len && s[start + end] >= ' ' && s[start + end] < 0x7F)
+              end++;
+            if (end - i > 1) {
+              putText(s, start + i, end - i - 1);
+              i = end - 1;
+              c = s[start + i];
+            }
+          }
           lastChar = c;
           isWide = false;
         } else if (!Character.isLowSurrogate(c) && !Character.isHighSurrogate(c)) {
@@ -130,6 +145,62 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
     }
   }
 
+  /**
+   * Check whether printable ASCII characters would be put on the screen as
+   * they are, without a pending escape sequence or charset mapping.
+   */
+  private boolean isPlainText() {
+    if (term_state != TSTATE_DATA || insertmode != 0 || onegl >= 0 || useibmcharset)
+      return false;
+    if (parser != null && !parser.isGround())
+      return false;
+    return !usedcharsets || gx[gl] == 'B' || gx[gl] == 'A';
+  }
+
+  /**
+   * Put printable ASCII characters on the screen the way putChar does, but
+   * a line at a time.
+   * @param s character array
+   * @param start place to start in array
+   * @param len number of characters to put
+   * @see #isPlainText
+   */
+  private void putText(char[] s, int start, int len) {
+    int rows = this.height;
+    int columns = this.width;
+
+    lastwaslf = 0;
+    while (len > 0) {
+      if (C >= columns) {
+        if (wraparound) {
+          int bot = rows;
+
+          // If we're in the scroll region, check against the bottom margin
+          if (R <= getBottomMargin() && R >= getTopMargin())
+            bot = getBottomMargin() + 1;
+
+          setWrapped(R);
+          if (R < bot - 1)
+            R++;
+          else
+            insertLine(R, 1, SCROLL_UP);
+          C = 0;
+        } else {
+          // cursor stays on last character.
+          C = columns - 1;
+        }
+      }
+
+      int count = columns - C;
+      if (count > len)
+        count = len;
+      putChars(C, R, s, start, count, attributes);
+      C += count;
+      start += count;
+      len -= count;
+    }
+  }
+
   protected void sendTelnetCommand(byte cmd) {
 
   }
@@ -160,7 +231,11 @@ public void setScreenSize(int c, int r, boolean broadcast) {
       debugStr.setLength(0);
     }
 
+    // the cursor moves along with the text when the lines are rewrapped
+    setCursorPosition(C, R);
     super.setScreenSize(c,r,false);
+    C = getCursorColumn();
+    R = getCursorRow();
 
     boolean cursorChanged = false;
 
@@ -437,6 +512,28 @@ public void setScreenSize(int c, int r, boolean broadcast) {
     useibmcharset = ibm;
   }
 
+  /**
+   * Parse escape sequences with the table driven parser instead of the
+   * original one. Both end up in the same code to carry out a sequence;
+   * a sequence that has not been completed yet is dropped.
+   * @param enabled true to use the table driven parser
+   * @see VTParser
+   */
+  public void setTableParser(boolean enabled) {
+    parser = enabled ? new VTParser(new ParserActions()) : null;
+    term_state = TSTATE_DATA;
+  }
+
+  /**
+   * Forget an escape sequence that has been started but not completed,
+   * for when the rest of the output it belongs to was thrown away.
+   */
+  public void cancelSequence() {
+    term_state = TSTATE_DATA;
+    if (parser != null)
+      parser.reset();
+  }
+
   /**
    * Override the standard key codes used by the terminal emulation.
    * @param codes a properties object containing key code definitions
@@ -766,6 +863,8 @@ public void setScreenSize(int c, int r, boolean broadcast) {
 
   /** vt320 state variable (internal) */
   private int term_state = TSTATE_DATA;
+  /** table driven parser, null when the original one is used */
+  private VTParser parser;
   /** in vms mode, set by Terminal.VMS property */
   private boolean vms = false;
   /** Tabulators */
@@ -1524,6 +1623,111 @@ public void setScreenSize(int c, int r, boolean broadcast) {
   }
 
   private void putChar(char c, boolean isWide, boolean doshowcursor) {
+    // the IBM charset has characters where OSC and DCS would be
+    if (parser == null || (useibmcharset && (c == OSC || c == DCS) && parser.isGround()))
+      interpret(c, isWide);
+    else
+      parser.next(c, isWide);
+  }
+
+  /**
+   * Takes the sequences found by the table driven parser to the code that
+   * carries them out for the original parser, by putting the terminal in
+   * the state the original parser would be in before their final character.
+   */
+  private class ParserActions implements VTParser.Actions {
+    public void print(char c, boolean isWide) {
+      interpret(c, isWide);
+    }
+
+    public void execute(char c) {
+      interpret(c, false);
+    }
+
+    public void escDispatch(char intermediate, char c) {
+      switch (intermediate) {
+        case 0:
+          term_state = TSTATE_ESC;
+          break;
+        case ' ':
+          term_state = TSTATE_ESCSPACE;
+          break;
+        case '#':
+          term_state = TSTATE_ESCSQUARE;
+          break;
+        case '(':
+          term_state = TSTATE_SETG0;
+          usedcharsets = true;
+          break;
+        case ')':
+          term_state = TSTATE_SETG1;
+          usedcharsets = true;
+          break;
+        case '*':
+          term_state = TSTATE_SETG2;
+          usedcharsets = true;
+          break;
+        case '+':
+          term_state = TSTATE_SETG3;
+          usedcharsets = true;
+          break;
+        default:
+          debug("ESC " + intermediate + " " + c + " unhandled.");
+          return;
+      }
+      interpret(c, false);
+      term_state = TSTATE_DATA;
+    }
+
+    public void csiDispatch(char marker, char intermediate, int[] params, int count, char c) {
+      int state;
+      if (marker == 0 && intermediate == 0)
+        state = TSTATE_CSI;
+      else if (marker == '?' && intermediate == 0)
+        state = TSTATE_DCEQ;
+      else if (marker == '=' && intermediate == 0)
+        state = TSTATE_CSI_EQUAL;
+      else if (marker == 0 && intermediate == '"')
+        state = TSTATE_CSI_TICKS;
+      else if (marker == 0 && intermediate == '$')
+        state = TSTATE_CSI_DOLLAR;
+      else if (marker == 0 && intermediate == '!')
+        state = TSTATE_CSI_EX;
+      else {
+        debug("ESC [ " + marker + " ... " + intermediate + " " + c + " unhandled.");
+        return;
+      }
+
+      System.arraycopy(params, 0, DCEvars, 0, count);
+      for (int i = count; i < 4; i++)
+        DCEvars[i] = 0;
+      DCEvar = count - 1;
+      term_state = state;
+      interpret(c, false);
+      term_state = TSTATE_DATA;
+    }
+
+    public void oscDispatch(String osc) {
+      handle_osc(osc);
+    }
+
+    public void dcsDispatch(String dcs) {
+      handle_dcs(dcs);
+    }
+
+    public void vt52Address(char row, char column) {
+      term_state = TSTATE_VT52Y;
+      interpret(row, false);
+      term_state = TSTATE_VT52X;
+      interpret(column, false);
+      term_state = TSTATE_DATA;
+    }
+  }
+
+  /**
+   * Carry out a character for the original parser.
+   */
+  private void interpret(char c, boolean isWide) {
     int rows = this.height; //statusline
     int columns = this.width;
     // byte msg[];
@@ -1708,6 +1912,7 @@ public void setScreenSize(int c, int r, boolean broadcast) {
                   if (R <= getBottomMargin() && R >= getTopMargin())
                     bot = getBottomMargin() + 1;
 
+                  setWrapped(R);
                   if (R < bot - 1)
                     R++;
                   else {
@@ -1788,6 +1993,7 @@ public void setScreenSize(int c, int r, boolean broadcast) {
                     if (R <= getBottomMargin() && R >= getTopMargin())
                       bot = getBottomMargin() + 1;
 
+                    setWrapped(R);
                     if (R < bot - 1)
                       R++;
                     else {
@@ -3027,5 +3233,7 @@ public void setScreenSize(int c, int r, boolean broadcast) {
     showCursor(true);
     /*FIXME:*/
     term_state = TSTATE_DATA;
+    if (parser != null)
+      parser.reset();
   }
 }
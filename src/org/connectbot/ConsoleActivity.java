@@ -22,9 +22,11 @@ import java.util.List;
 
 import org.connectbot.bean.SelectionArea;
 import org.connectbot.service.PromptHelper;
+import org.connectbot.service.RenderStatistics;
 import org.connectbot.service.TerminalBridge;
 import org.connectbot.service.TerminalKeyListener;
 import org.connectbot.service.TerminalManager;
+import org.connectbot.util.Histogram;
 import org.connectbot.util.PreferenceConstants;
 
 import android.app.Activity;
@@ -84,6 +86,7 @@ public class ConsoleActivity extends Activity {
 	private static final int CLICK_TIME = 400;
 	private static final float MAX_CLICK_DISTANCE = 25f;
 	private static final int KEYBOARD_DISPLAY_TIME = 1500;
+	private static final int STATISTICS_INTERVAL = 1000;
 
 	// Direction to shift the ViewFlipper
 	private static final int SHIFT_LEFT = 0;
@@ -111,6 +114,7 @@ public class ConsoleActivity extends Activity {
 	private Button booleanYes, booleanNo;
 
 	private TextView empty;
+	private TextView statistics;
 
 	private Animation slide_left_in, slide_left_out, slide_right_in, slide_right_out, fade_stay_hidden, fade_out_delayed;
 
@@ -128,6 +132,13 @@ public class ConsoleActivity extends Activity {
 
 	private Handler handler = new Handler();
 
+	private Runnable statisticsUpdater = new Runnable() {
+		public void run() {
+			updateStatistics();
+			handler.postDelayed(this, STATISTICS_INTERVAL);
+		}
+	};
+
 	private ImageView mKeyboardButton;
 
 	private ServiceConnection connection = new ServiceConnection() {
@@ -301,6 +312,7 @@ public class ConsoleActivity extends Activity {
 
 		flip = (ViewFlipper)findViewById(R.id.console_flip);
 		empty = (TextView)findViewById(android.R.id.empty);
+		statistics = (TextView)findViewById(R.id.console_statistics);
 
 		stringPromptGroup = (RelativeLayout) findViewById(R.id.console_password_group);
 		stringPromptInstructions = (TextView) findViewById(R.id.console_password_instructions);
@@ -514,7 +526,7 @@ public class ConsoleActivity extends Activity {
 							area.setColumn(col);
 							lastTouchRow = row;
 							lastTouchCol = col;
-							copySource.redraw();
+							copySource.redrawOverlay();
 						}
 						return true;
 					case MotionEvent.ACTION_MOVE:
@@ -532,7 +544,7 @@ public class ConsoleActivity extends Activity {
 						area.setColumn(col);
 						lastTouchRow = row;
 						lastTouchCol = col;
-						copySource.redraw();
+						copySource.redrawOverlay();
 						return true;
 					case MotionEvent.ACTION_UP:
 						/* If they didn't move their finger, maybe they meant to
@@ -554,7 +566,7 @@ public class ConsoleActivity extends Activity {
 						// make sure we clear any highlighted area
 						area.reset();
 						copySource.setSelectingForCopy(false);
-						copySource.redraw();
+						copySource.redrawOverlay();
 						return true;
 					}
 				}
@@ -679,7 +691,7 @@ public class ConsoleActivity extends Activity {
 				copySource.setSelectingForCopy(true);
 
 				// Make sure we show the initial selection
-				copySource.redraw();
+				copySource.redrawOverlay();
 
 				Toast.makeText(ConsoleActivity.this, getString(R.string.console_copy_start), Toast.LENGTH_LONG).show();
 				return true;
@@ -843,6 +855,8 @@ public class ConsoleActivity extends Activity {
 
 		if (forcedOrientation && bound != null)
 			bound.setResizeAllowed(false);
+
+		handler.removeCallbacks(statisticsUpdater);
 	}
 
 	@Override
@@ -862,6 +876,38 @@ public class ConsoleActivity extends Activity {
 
 		if (forcedOrientation && bound != null)
 			bound.setResizeAllowed(true);
+
+		if (prefs.getBoolean(PreferenceConstants.STATISTICS, false)) {
+			statistics.setVisibility(View.VISIBLE);
+			handler.post(statisticsUpdater);
+		} else {
+			statistics.setVisibility(View.GONE);
+		}
+	}
+
+	/**
+	 * Show how long the current console takes to read, parse and draw its
+	 * output.
+	 */
+	private void updateStatistics() {
+		View view = findCurrentView(R.id.console_flip);
+		if (!(view instanceof TerminalView)) {
+			statistics.setText(null);
+			return;
+		}
+
+		RenderStatistics stats = ((TerminalView) view).bridge.getRenderStatistics();
+		statistics.setText(String.format("p50/p99/max\ndraw  %s us\nlines %s\nread  %s bytes\nchars %s\nparse %s us\n"
+				+ "parse %d ms, draw %d ms, %.1f calls/frame",
+				describe(stats.getDrawTimes()), describe(stats.getDirtyLines()),
+				describe(stats.getBytesPerRead()), describe(stats.getCharsPerRead()),
+				describe(stats.getEmulationTimes()), stats.getEmulationTime() / 1000,
+				stats.getRenderTime() / 1000, stats.getCanvasCallsPerFrame()));
+	}
+
+	private static String describe(Histogram histogram) {
+		return String.format("%d/%d/%d", histogram.getPercentile(50),
+				histogram.getPercentile(99), histogram.getMax());
 	}
 
 	/* (non-Javadoc)
@@ -366,6 +366,7 @@ public class HostListActivity extends ListActivity {
 								bridge.dispatchDisconnect(true);
 
 							hostdb.deleteHost(host);
+							TerminalManager.deleteScrollback(HostListActivity.this, host);
 							updateHandler.sendEmptyMessage(-1);
 						}
 						})
@@ -162,6 +162,31 @@ public class TerminalView extends View implements FontSizeChangedListener {
 		scaleCursors();
 	}
 
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		super.onWindowVisibilityChanged(visibility);
+
+		visibilityChanged();
+	}
+
+	@Override
+	protected void onVisibilityChanged(View changedView, int visibility) {
+		super.onVisibilityChanged(changedView, visibility);
+
+		visibilityChanged();
+	}
+
+	/**
+	 * Let the bridge give up its bitmaps while we are hidden, for example
+	 * behind the console of another host, and draw again once we are shown.
+	 */
+	private void visibilityChanged() {
+		if (isShown() && getWindowVisibility() == VISIBLE)
+			bridge.parentChanged(this);
+		else
+			bridge.parentDetached();
+	}
+
 	public void onFontSizeChanged(float size) {
 		scaleCursors();
 	}
@@ -179,7 +204,7 @@ public class TerminalView extends View implements FontSizeChangedListener {
 			bridge.onDraw();
 
 			// draw the bridge bitmap if it exists
-			canvas.drawBitmap(bridge.bitmap, 0, 0, paint);
+			bridge.drawBitmap(canvas, paint);
 
 			// also draw cursor if visible
 			if (bridge.buffer.isCursorVisible()) {
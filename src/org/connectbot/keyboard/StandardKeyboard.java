@@ -128,12 +128,12 @@ public class StandardKeyboard implements IKeyboard {
 				final int lastMetaState = listener.metaState;
 				listener.metaState &= ~(TerminalKeyListener.META_SHIFT_ON | TerminalKeyListener.META_ALT_ON);
 				if (listener.metaState != lastMetaState) {
-					listener.getBridge().redraw();
+					listener.getBridge().redrawOverlay();
 				}
 
 				if ((listener.metaState & TerminalKeyListener.META_CTRL_MASK) != 0) {
 					listener.metaState &= ~TerminalKeyListener.META_CTRL_ON;
-					listener.getBridge().redraw();
+					listener.getBridge().redrawOverlay();
 
 					// If there is no hard keyboard or there is a hard keyboard currently hidden,
 					// CTRL-1 through CTRL-9 will send F1 through F9
@@ -276,7 +276,7 @@ public class StandardKeyboard implements IKeyboard {
 			case KeyEvent.KEYCODE_DPAD_LEFT:
 				if (listener.isSelectingForCopy()) {
 					listener.getSelectionArea().decrementColumn();
-					listener.getBridge().redraw();
+					listener.getBridge().redrawOverlay();
 				} else {
 					((vt320) listener.getBuffer()).keyPressed(vt320.KEY_LEFT, ' ',
 							listener.getStateForBuffer());
@@ -288,7 +288,7 @@ public class StandardKeyboard implements IKeyboard {
 			case KeyEvent.KEYCODE_DPAD_UP:
 				if (listener.isSelectingForCopy()) {
 					listener.getSelectionArea().decrementRow();
-					listener.getBridge().redraw();
+					listener.getBridge().redrawOverlay();
 				} else {
 					((vt320) listener.getBuffer()).keyPressed(vt320.KEY_UP, ' ',
 							listener.getStateForBuffer());
@@ -300,7 +300,7 @@ public class StandardKeyboard implements IKeyboard {
 			case KeyEvent.KEYCODE_DPAD_DOWN:
 				if (listener.isSelectingForCopy()) {
 					listener.getSelectionArea().incrementRow();
-					listener.getBridge().redraw();
+					listener.getBridge().redrawOverlay();
 				} else {
 					((vt320) listener.getBuffer()).keyPressed(vt320.KEY_DOWN, ' ',
 							listener.getStateForBuffer());
@@ -312,7 +312,7 @@ public class StandardKeyboard implements IKeyboard {
 			case KeyEvent.KEYCODE_DPAD_RIGHT:
 				if (listener.isSelectingForCopy()) {
 					listener.getSelectionArea().incrementColumn();
-					listener.getBridge().redraw();
+					listener.getBridge().redrawOverlay();
 				} else {
 					((vt320) listener.getBuffer()).keyPressed(vt320.KEY_RIGHT, ' ',
 							listener.getStateForBuffer());
@@ -348,7 +348,7 @@ public class StandardKeyboard implements IKeyboard {
 						listener.metaPress(TerminalKeyListener.META_CTRL_ON);
 				}
 
-				listener.getBridge().redraw();
+				listener.getBridge().redrawOverlay();
 
 				return true;
 			}
@@ -0,0 +1,99 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+/**
+ * Decides when a {@link Relay} stops drawing to get through a flood of
+ * output, like a huge log printed by mistake. The output floods when a lot
+ * of it waits to be parsed, or when it comes in faster than anybody can
+ * read it. During a flood the output is still parsed, but only the screen
+ * it ends with is drawn and the lines scrolled through are not kept.
+ *
+ * All times are in milliseconds, from any clock that does not go back.
+ * Only the thread parsing the output calls {@link #parsed} and
+ * {@link #quiet()}.
+ */
+final class FastForward {
+	/** Bytes waiting to be parsed that make the output flood. */
+	static final int BACKLOG = 32 * 1024;
+
+	/** Bytes parsed within one {@link #WINDOW} that make the output flood. */
+	static final int RATE = 256 * 1024;
+
+	/** Length of the windows the rate of the output is measured over. */
+	static final long WINDOW = 250;
+
+	/** A pause in the output that ends a flood. */
+	static final long QUIET = 100;
+
+	private volatile boolean active = false;
+
+	private long windowStart = Long.MIN_VALUE / 2;
+	private int windowBytes = 0;
+	private boolean lastWindowFlooded = false;
+
+	private long floods = 0;
+
+	/**
+	 * Note a batch of output about to be parsed.
+	 * @param bytes size of the batch
+	 * @param backlog bytes still waiting to be parsed after the batch
+	 * @param now the current time
+	 * @return true if the output floods and the batch is not drawn
+	 */
+	boolean parsed(int bytes, int backlog, long now) {
+		if (now - windowStart >= WINDOW) {
+			// only the window right before this one counts
+			lastWindowFlooded = windowBytes >= RATE && now - windowStart < 2 * WINDOW;
+			windowStart = now;
+			windowBytes = 0;
+		}
+		windowBytes += bytes;
+
+		boolean flooded = backlog >= BACKLOG || windowBytes >= RATE || lastWindowFlooded;
+		if (flooded && !active)
+			floods++;
+
+		// a flood is over once the output slowed down and all of it is parsed
+		active = flooded || (active && backlog > 0);
+		return active;
+	}
+
+	/**
+	 * Note that no output came for {@link #QUIET}, which ends a flood.
+	 */
+	void quiet() {
+		active = false;
+		windowBytes = 0;
+		lastWindowFlooded = false;
+	}
+
+	/**
+	 * @return true while drawing waits for a flood to end
+	 */
+	boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * @return number of floods so far
+	 */
+	long getFloods() {
+		return floods;
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.mud.terminal.VDUBuffer;
+
+/**
+ * Hands the changed lines of a {@link VDUBuffer} from the thread that
+ * parses the terminal output to the thread that draws it, without either
+ * of them waiting for the other to finish its work.
+ * <p>
+ * The emulator holds the buffer lock for a whole batch of output, so the
+ * renderer does not take it while a batch is being parsed. Instead the
+ * emulator copies the changed lines into a {@link Frame} at the end of a
+ * batch and publishes it, if the renderer has taken the frame published
+ * before. Changes of batches that are not published stay marked in the
+ * buffer until the next one is. While the emulator is idle the renderer
+ * copies the changes itself; the emulator only waits for that copy if it
+ * starts a batch in the meantime, never for a frame to be drawn.
+ * <p>
+ * There are three frames: one owned by the emulator, one owned by the
+ * renderer and one in between, which both sides swap with their own.
+ */
+final class FrameHandoff {
+	private static final int IDLE = 0;
+	private static final int EMULATING = 1;
+	private static final int TAKING = 2;
+
+	/**
+	 * Changed lines of the terminal, copied out of the buffer so they can be
+	 * drawn without holding its lock.
+	 */
+	static final class Frame {
+		char[][] chars = new char[0][];
+		int[][] attributes = new int[0][];
+
+		/** First column of each line to draw. */
+		int[] start = new int[0];
+
+		/** Column after the last one of each line to draw. */
+		int[] end = new int[0];
+
+		int rows;
+
+		/** Whether all of the lines are to be drawn. */
+		boolean entire;
+
+		/** Scrolls of the screen since the frame before, see VDUBuffer#takeScrolls. */
+		final int[] scrolls = new int[3 * VDUBuffer.SCROLL_JOURNAL_SIZE];
+		int scrollCount;
+
+		/** First and last line that changed or scrolled, last < first if none. */
+		int first;
+		int last;
+
+		/** Set while the frame waits in between to be drawn. */
+		private volatile boolean fresh = false;
+
+		/**
+		 * Copy the changes of the buffer and mark them as taken. The caller
+		 * has to hold the lock of the buffer.
+		 */
+		void take(VDUBuffer buffer) {
+			scrollCount = buffer.takeScrolls(scrolls);
+			entire = buffer.update[0];
+
+			int columns = buffer.width;
+			rows = buffer.height;
+			if (chars.length < rows) {
+				chars = new char[rows][];
+				attributes = new int[rows][];
+				start = new int[rows];
+				end = new int[rows];
+			}
+			first = rows;
+			last = -1;
+
+			for (int l = 0; l < rows; l++) {
+				start[l] = 0;
+				end[l] = 0;
+
+				// check if this line is dirty and needs to be repainted
+				// also check for entire-buffer dirty flags
+				if (!entire && !buffer.update[l + 1]) continue;
+
+				// only repaint the dirty columns of this line
+				int from = entire ? 0 : buffer.updateStart[l + 1];
+				int to = entire ? columns : buffer.updateEnd[l + 1];
+
+				// reset dirty flag for this line
+				buffer.update[l + 1] = false;
+				buffer.updateStart[l + 1] = columns;
+				buffer.updateEnd[l + 1] = 0;
+
+				if (to > columns)
+					to = columns;
+				if (from >= to)
+					continue;
+
+				if (chars[l] == null || chars[l].length != columns) {
+					chars[l] = new char[columns];
+					attributes[l] = new int[columns];
+				}
+				System.arraycopy(buffer.getLineChars(buffer.windowBase + l), 0,
+						chars[l], 0, columns);
+				System.arraycopy(buffer.getLineAttributes(buffer.windowBase + l), 0,
+						attributes[l], 0, columns);
+				start[l] = from;
+				end[l] = to;
+				if (l < first)
+					first = l;
+				last = l;
+			}
+
+			// reset entire-buffer flags
+			buffer.update[0] = false;
+
+			if (!entire) {
+				for (int i = 0; i < scrollCount; i++) {
+					if (scrolls[3 * i] < first)
+						first = scrolls[3 * i];
+					if (scrolls[3 * i + 1] > last)
+						last = scrolls[3 * i + 1];
+				}
+			}
+		}
+	}
+
+	private final AtomicInteger owner = new AtomicInteger(IDLE);
+	private final AtomicReference<Frame> between = new AtomicReference<Frame>(new Frame());
+
+	/* owned by the emulator */
+	private Frame emulatorFrame = new Frame();
+
+	/* owned by the renderer */
+	private Frame renderFrame = new Frame();
+
+	private volatile long framesPublished = 0;
+	private volatile long framesTaken = 0;
+	private volatile long emulatorWaits = 0;
+	private volatile long rendererMisses = 0;
+
+	/**
+	 * Called by the emulator before it takes the buffer lock for a batch of
+	 * output. Waits while the renderer copies changes out of the buffer.
+	 */
+	void beginEmulation() {
+		if (owner.compareAndSet(IDLE, EMULATING))
+			return;
+
+		emulatorWaits++;
+		while (!owner.compareAndSet(IDLE, EMULATING))
+			Thread.yield();
+	}
+
+	/**
+	 * Called by the emulator at the end of a batch, while it still holds
+	 * the buffer lock. Publishes the changes unless the renderer has yet to
+	 * take the frame published before.
+	 * @return true if a frame was published
+	 */
+	boolean publish(VDUBuffer buffer) {
+		if (between.get().fresh)
+			return false;
+
+		emulatorFrame.take(buffer);
+		emulatorFrame.fresh = true;
+		emulatorFrame = between.getAndSet(emulatorFrame);
+		framesPublished++;
+		return true;
+	}
+
+	/**
+	 * Called by the emulator after it let go of the buffer lock.
+	 */
+	void endEmulation() {
+		owner.set(IDLE);
+	}
+
+	/**
+	 * @return true between beginEmulation and endEmulation
+	 */
+	boolean isEmulating() {
+		return owner.get() == EMULATING;
+	}
+
+	/**
+	 * Called by the renderer for the frame published by the emulator. The
+	 * frame is valid until the next call to a take method.
+	 * @return the frame, or null if none is waiting
+	 */
+	Frame takePublished() {
+		if (!between.get().fresh)
+			return null;
+
+		renderFrame = between.getAndSet(renderFrame);
+		renderFrame.fresh = false;
+		return renderFrame;
+	}
+
+	/**
+	 * Called by the renderer to copy the changes of the buffer itself. This
+	 * only happens while the emulator is idle, so the buffer lock is not
+	 * held long by anyone. The frame is valid until the next call to a take
+	 * method.
+	 * @return the frame, or null if the emulator is busy; its next
+	 *         published frame carries the changes then
+	 */
+	Frame takeIdle(VDUBuffer buffer) {
+		if (!owner.compareAndSet(IDLE, TAKING)) {
+			rendererMisses++;
+			return null;
+		}
+
+		try {
+			// a frame published since the renderer looked goes before the buffer
+			Frame published = takePublished();
+			if (published != null)
+				return published;
+
+			synchronized (buffer) {
+				renderFrame.take(buffer);
+			}
+			framesTaken++;
+			return renderFrame;
+		} finally {
+			owner.set(IDLE);
+		}
+	}
+
+	/**
+	 * @return number of frames published by the emulator
+	 */
+	long getFramesPublished() {
+		return framesPublished;
+	}
+
+	/**
+	 * @return number of frames the renderer copied while the emulator was idle
+	 */
+	long getFramesTaken() {
+		return framesTaken;
+	}
+
+	/**
+	 * @return number of batches the emulator waited for the renderer to copy
+	 */
+	long getEmulatorWaits() {
+		return emulatorWaits;
+	}
+
+	/**
+	 * @return number of times the renderer found the emulator in a batch
+	 */
+	long getRendererMisses() {
+		return rendererMisses;
+	}
+}
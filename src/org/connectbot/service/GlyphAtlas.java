@@ -0,0 +1,182 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import org.connectbot.util.SlotCache;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+/**
+ * Cells of text already drawn by a {@link TerminalBridge}, kept in one
+ * bitmap so drawing them again is a copy instead of text rendering. A cell
+ * is known by its character, its foreground and background color indices
+ * and whether it is underlined; the font size is the same for all of them,
+ * so the atlas starts over when it changes. The least recently drawn cells
+ * make room for new ones.
+ */
+final class GlyphAtlas implements FontSizeChangedListener {
+	private static final String TAG = "ConnectBot.GlyphAtlas";
+
+	private static final int MAX_GLYPHS = 1024;
+	private static final int MAX_PIXELS = 256 * 1024;
+	private static final int COLUMNS = 32;
+
+	private final TerminalBridge bridge;
+	private final Paint paint = new Paint();
+
+	private Bitmap bitmap = null;
+	private final Canvas canvas = new Canvas();
+	private SlotCache slots = null;
+	private boolean failed = false;
+
+	private int cellWidth;
+	private int cellHeight;
+	private int cellTop;
+
+	private final char[] glyph = new char[1];
+	private final Rect source = new Rect();
+	private final Rect target = new Rect();
+
+	GlyphAtlas(TerminalBridge bridge) {
+		this.bridge = bridge;
+	}
+
+	/**
+	 * Draw a run of single width characters that share their attributes.
+	 * @param to canvas to draw on
+	 * @param chars characters of the line
+	 * @param start first character of the run
+	 * @param length number of characters in the run
+	 * @param fgIndex color index of the foreground
+	 * @param bgIndex color index of the background
+	 * @param underline whether the characters are underlined
+	 * @param x left edge of the run
+	 * @param y top edge of the run
+	 * @return false if the atlas could not be used, nothing was drawn then
+	 */
+	synchronized boolean drawRun(Canvas to, char[] chars, int start, int length, int fgIndex,
+			int bgIndex, boolean underline, int x, int y) {
+		if (bitmap == null && !allocate())
+			return false;
+
+		long attributes = ((long) fgIndex << 16) | ((long) bgIndex << 25)
+				| (underline ? 1L << 34 : 0);
+		for (int i = 0; i < length; i++) {
+			char c = chars[start + i];
+			long key = attributes | c;
+			int slot = slots.get(key);
+			if (slot < 0) {
+				slot = slots.put(key);
+				drawGlyph(slot, c, bridge.color[fgIndex], bridge.color[bgIndex], underline);
+			}
+
+			int left = (slot % COLUMNS) * cellWidth;
+			int top = (slot / COLUMNS) * cellHeight;
+			source.set(left, top, left + cellWidth, top + cellHeight);
+			target.set(x, y, x + cellWidth, y + cellHeight);
+			to.drawBitmap(bitmap, source, target, null);
+			x += cellWidth;
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether runs can be drawn from the atlas, which is allocated
+	 *         if needed
+	 */
+	synchronized boolean isUsable() {
+		return bitmap != null || allocate();
+	}
+
+	private void drawGlyph(int slot, char c, int fg, int bg, boolean underline) {
+		int left = (slot % COLUMNS) * cellWidth;
+		int top = (slot / COLUMNS) * cellHeight;
+
+		canvas.save(Canvas.CLIP_SAVE_FLAG);
+		canvas.clipRect(left, top, left + cellWidth, top + cellHeight);
+		paint.setColor(bg);
+		canvas.drawPaint(paint);
+
+		glyph[0] = c;
+		paint.setColor(fg);
+		paint.setUnderlineText(underline);
+		canvas.drawText(glyph, 0, 1, left, top - cellTop, paint);
+		canvas.restore();
+	}
+
+	private boolean allocate() {
+		if (failed || bridge.charWidth <= 0 || bridge.charHeight <= 0)
+			return false;
+
+		cellWidth = bridge.charWidth;
+		cellHeight = bridge.charHeight;
+		cellTop = bridge.charTop;
+		paint.set(bridge.defaultPaint);
+
+		int glyphs = MAX_PIXELS / (cellWidth * cellHeight);
+		if (glyphs > MAX_GLYPHS)
+			glyphs = MAX_GLYPHS;
+		glyphs -= glyphs % COLUMNS;
+		if (glyphs == 0) {
+			failed = true;
+			return false;
+		}
+
+		try {
+			bitmap = Bitmap.createBitmap(COLUMNS * cellWidth,
+					glyphs / COLUMNS * cellHeight, Config.ARGB_8888);
+		} catch (OutOfMemoryError e) {
+			Log.w(TAG, "Not enough memory for the glyph atlas, drawing text directly");
+			failed = true;
+			return false;
+		}
+		canvas.setBitmap(bitmap);
+		if (slots == null || slots.getCapacity() != glyphs)
+			slots = new SlotCache(glyphs);
+		else
+			slots.clear();
+		return true;
+	}
+
+	/**
+	 * Forget all cells, for example because the colors changed.
+	 */
+	synchronized void clear() {
+		if (slots != null)
+			slots.clear();
+	}
+
+	/**
+	 * Give up the memory of the atlas, it is allocated again when needed.
+	 */
+	synchronized void release() {
+		if (bitmap != null)
+			bitmap.recycle();
+		bitmap = null;
+		failed = false;
+	}
+
+	public void onFontSizeChanged(float size) {
+		release();
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+/**
+ * Decides when a {@link TerminalBridge} draws the frames asked for by its
+ * redraw() calls. Requests made while a frame is pending are folded into
+ * that frame, and frames are at least one display frame apart. While the
+ * output keeps coming and the user is not typing, frames are spread out
+ * further, which leaves the UI thread time for everything else. The first
+ * redraw after a key press is drawn right away, so echoes show up without
+ * delay.
+ *
+ * All times are in milliseconds, from any clock that does not go back.
+ */
+final class RedrawScheduler {
+	/** Shortest time between two frames, one frame at 60 frames a second. */
+	static final long FRAME_INTERVAL = 16;
+
+	/** Shortest time between two frames during sustained output. */
+	static final long BUSY_FRAME_INTERVAL = 50;
+
+	/** How long output has to keep coming before it counts as sustained. */
+	static final long BUSY_AFTER = 250;
+
+	/** A pause in the redraw requests that ends sustained output. */
+	static final long IDLE_GAP = 100;
+
+	/** How long after a key press the user still counts as typing. */
+	static final long INPUT_TIMEOUT = 500;
+
+	/** A pending frame not drawn after this long is asked for again. */
+	static final long FRAME_TIMEOUT = 1000;
+
+	/** Returned by {@link #request} if the request joins a pending frame. */
+	static final long COALESCED = -1;
+
+	private boolean pending = false;
+	private long pendingSince;
+	private boolean echoPending = false;
+
+	private long lastFrame = Long.MIN_VALUE / 2;
+	private long lastRequest = Long.MIN_VALUE / 2;
+	private long lastInput = Long.MIN_VALUE / 2;
+	private long busySince;
+
+	private long framesRequested = 0;
+	private long framesDrawn = 0;
+	private long framesSkipped = 0;
+
+	/**
+	 * Ask for a frame.
+	 * @param now the current time
+	 * @return how long to wait before drawing the frame, or
+	 *         {@link #COALESCED} if a frame is pending already
+	 */
+	synchronized long request(long now) {
+		framesRequested++;
+
+		if (now - lastRequest > IDLE_GAP)
+			busySince = now;
+		lastRequest = now;
+
+		if (echoPending) {
+			echoPending = false;
+			if (now - lastInput < INPUT_TIMEOUT) {
+				pending = true;
+				pendingSince = now;
+				return 0;
+			}
+		}
+
+		// the view may have been hidden before it drew the frame
+		if (pending && now - pendingSince < FRAME_TIMEOUT) {
+			framesSkipped++;
+			return COALESCED;
+		}
+
+		long interval = FRAME_INTERVAL;
+		if (now - busySince >= BUSY_AFTER && now - lastInput >= INPUT_TIMEOUT)
+			interval = BUSY_FRAME_INTERVAL;
+
+		pending = true;
+		pendingSince = now;
+		long delay = lastFrame + interval - now;
+		return delay > 0 ? delay : 0;
+	}
+
+	/**
+	 * Note that a frame was drawn, whether it was asked for or not.
+	 * @param now the current time
+	 */
+	synchronized void frameDrawn(long now) {
+		framesDrawn++;
+		lastFrame = now;
+		pending = false;
+	}
+
+	/**
+	 * Note that the pending frame was not drawn because drawing is held
+	 * back, so the next request is not folded into it.
+	 */
+	synchronized void frameDropped() {
+		pending = false;
+	}
+
+	/**
+	 * Note that the user sent input, its echo should be drawn right away.
+	 * @param now the current time
+	 */
+	synchronized void inputReceived(long now) {
+		lastInput = now;
+		echoPending = true;
+	}
+
+	synchronized long getFramesRequested() {
+		return framesRequested;
+	}
+
+	synchronized long getFramesDrawn() {
+		return framesDrawn;
+	}
+
+	synchronized long getFramesSkipped() {
+		return framesSkipped;
+	}
+}
@@ -24,11 +24,16 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.harmony.niochar.charset.additional.IBM437;
 import org.connectbot.transport.AbsTransport;
+import org.connectbot.util.ByteRing;
 import org.connectbot.util.EastAsianWidth;
+import org.connectbot.util.Utf8Decoder;
 
+import android.os.SystemClock;
 import android.util.Log;
 import de.mud.terminal.vt320;
 
@@ -38,17 +43,43 @@ import de.mud.terminal.vt320;
 public class Relay implements Runnable {
 	private static final String TAG = "ConnectBot.Relay";
 
-	private static final int BUFFER_SIZE = 4096;
+	/* most bytes taken from the transport at once */
+	private static final int READ_SIZE = 8192;
+
+	/* most bytes parsed at once, so a burst is handled in a few big batches */
+	private static final int BUFFER_SIZE = 32768;
+
+	/*
+	 * room for a few batches, so the reader seldom waits on the emulation; when
+	 * the ring is full, output waits in the transport, which for SSH means in the
+	 * channel buffer until the server runs out of window
+	 */
+	private static final int RING_SIZE = 65536;
 
 	private TerminalBridge bridge;
 
 	private Charset currentCharset;
 	private CharsetDecoder decoder;
 
+	/* decodes UTF-8 without the CharsetDecoder, null for other charsets */
+	private Utf8Decoder utf8Decoder;
+
 	private AbsTransport transport;
 
 	private vt320 buffer;
 
+	/* bytes read from the transport that the emulation has not parsed yet */
+	private final ByteRing ring = new ByteRing(RING_SIZE);
+
+	/* stops drawing while the output floods */
+	private final FastForward fastForward = new FastForward();
+
+	/* position in the ring before which the output is thrown away, or -1 */
+	private final AtomicLong discardBefore = new AtomicLong(-1);
+
+	/* bytes the transport held that are thrown away once they are read */
+	private final AtomicInteger discardRead = new AtomicInteger(0);
+
 	private ByteBuffer byteBuffer;
 	private CharBuffer charBuffer;
 
@@ -78,9 +109,14 @@ public class Relay implements Runnable {
 		newCd.onUnmappableCharacter(CodingErrorAction.REPLACE);
 		newCd.onMalformedInput(CodingErrorAction.REPLACE);
 
+		Utf8Decoder newUtf8Decoder = null;
+		if (charset.name().equals("UTF-8"))
+			newUtf8Decoder = new Utf8Decoder();
+
 		currentCharset = charset;
 		synchronized (this) {
 			decoder = newCd;
+			utf8Decoder = newUtf8Decoder;
 		}
 	}
 
@@ -88,12 +124,87 @@ public class Relay implements Runnable {
 		return currentCharset;
 	}
 
+	/**
+	 * Throw away the output that has been received but not parsed yet, like
+	 * the rest of a flood after it was interrupted. What the transport
+	 * holds is thrown away as well, if it can tell how much that is.
+	 */
+	public void discardPendingOutput() {
+		// mark the ring first: bytes the reader moves from the transport to the
+		// ring in between are then counted by neither, never by both
+		long position = ring.getWritePosition();
+		try {
+			discardRead.set(transport.available());
+		} catch (IOException e) {
+			Log.e(TAG, "Problem while checking the output the transport holds", e);
+		}
+		discardBefore.set(position);
+	}
+
+	/**
+	 * @return true while the output floods and is not drawn
+	 */
+	public boolean isFastForwarding() {
+		return fastForward.isActive();
+	}
+
+	/**
+	 * Reads the transport on the calling thread and parses what was read on
+	 * a thread of its own, so the network is drained while the emulator is
+	 * busy and the emulator takes everything that piled up in one batch.
+	 */
 	public void run() {
+		Thread emulation = new Thread(new Runnable() {
+			public void run() {
+				emulate();
+			}
+		});
+		emulation.setName("Emulation");
+		emulation.setDaemon(true);
+		emulation.start();
+
+		byte[] readBuffer = new byte[READ_SIZE];
+		RenderStatistics statistics = bridge.renderStatistics;
+		int bytesRead;
+		int skip;
+
+		try {
+			while (true) {
+				bytesRead = transport.read(readBuffer, 0, readBuffer.length);
+
+				if (bytesRead > 0) {
+					statistics.bytesPerRead.add(bytesRead);
+
+					// the output the transport held when it was discarded
+					skip = discardRead.get();
+					if (skip > 0) {
+						skip = Math.min(skip, bytesRead);
+						discardRead.addAndGet(-skip);
+					} else {
+						skip = 0;
+					}
+
+					if (!ring.writeFully(readBuffer, skip, bytesRead - skip))
+						break;
+				}
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Problem while handling incoming data in relay thread", e);
+		} catch (InterruptedException e) {
+			Log.e(TAG, "Relay thread interrupted", e);
+		} finally {
+			// the emulation parses what is left and stops
+			ring.close();
+		}
+	}
+
+	private void emulate() {
 		byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-		charBuffer = CharBuffer.allocate(BUFFER_SIZE);
+		charBuffer = CharBuffer.allocate(BUFFER_SIZE + Utf8Decoder.MAX_PENDING);
 
 		/* for East Asian character widths */
-		byte[] wideAttribute = new byte[BUFFER_SIZE];
+		byte[] wideAttribute = new byte[charBuffer.capacity()];
+		byte[] measured = new byte[charBuffer.capacity()];
 
 		byteArray = byteBuffer.array();
 		charArray = charBuffer.array();
@@ -105,41 +216,126 @@ public class Relay implements Runnable {
 		int bytesToRead;
 		int offset;
 		int charWidth;
+		int firstWide;
+		int lastWide;
 
 		EastAsianWidth measurer = EastAsianWidth.getInstance();
 
+		RenderStatistics statistics = bridge.renderStatistics;
+		long started;
+		long discard;
+		boolean flooding;
+
 		try {
 			while (true) {
+				discard = discardBefore.getAndSet(-1);
+				if (discard >= 0 && ring.skipTo(discard) > 0)
+					discarded();
+
 				charWidth = bridge.charWidth;
 				bytesToRead = byteBuffer.capacity() - byteBuffer.limit();
 				offset = byteBuffer.arrayOffset() + byteBuffer.limit();
-				bytesRead = transport.read(byteArray, offset, bytesToRead);
+				// during a flood, a pause in the output is waited for to draw the screen
+				bytesRead = ring.readBlocking(byteArray, offset, bytesToRead,
+						fastForward.isActive() ? FastForward.QUIET * 1000000 : 0);
+				if (bytesRead <= 0 && fastForward.isActive()) {
+					fastForward.quiet();
+					synchronized (buffer) {
+						buffer.setKeepScrollback(true);
+					}
+					bridge.redrawOutput();
+				}
+				if (bytesRead < 0)
+					break;
 
 				if (bytesRead > 0) {
 					byteBuffer.limit(byteBuffer.limit() + bytesRead);
+					flooding = fastForward.parsed(bytesRead, ring.available(),
+							SystemClock.uptimeMillis());
 
 					synchronized (this) {
-						result = decoder.decode(byteBuffer, charBuffer, false);
-					}
+						if (utf8Decoder != null) {
+							// keeps a sequence cut in two by itself, so all bytes are taken
+							charBuffer.position(utf8Decoder.decode(byteArray,
+									byteBuffer.arrayOffset() + byteBuffer.position(),
+									byteBuffer.remaining(), charArray, 0));
+							byteBuffer.clear();
+							byteBuffer.limit(0);
+							firstWide = utf8Decoder.getFirstNonAscii();
+							lastWide = utf8Decoder.getLastNonAscii();
+						} else {
+							result = decoder.decode(byteBuffer, charBuffer, false);
 
-					if (result.isUnderflow() &&
-							byteBuffer.limit() == byteBuffer.capacity()) {
-						byteBuffer.compact();
-						byteBuffer.limit(byteBuffer.position());
-						byteBuffer.position(0);
+							if (result.isUnderflow() &&
+									byteBuffer.limit() == byteBuffer.capacity()) {
+								byteBuffer.compact();
+								byteBuffer.limit(byteBuffer.position());
+								byteBuffer.position(0);
+							}
+							firstWide = 0;
+							lastWide = charBuffer.position() - 1;
+						}
 					}
 
 					offset = charBuffer.position();
+					statistics.charsPerRead.add(offset);
 
-					measurer.measure(charArray, 0, offset, wideAttribute, bridge.defaultPaint, charWidth);
-					buffer.putString(charArray, wideAttribute, 0, charBuffer.position());
-					bridge.propagateConsoleText(charArray, charBuffer.position());
+					// ASCII is never wide, so only the span from the first to the last
+					// other character is measured; the widths outside it are left from
+					// earlier batches, vt320.putString does not read widths of ASCII
+					if (firstWide >= 0 && lastWide >= firstWide) {
+						measurer.measure(charArray, firstWide, lastWide + 1, measured,
+								bridge.defaultPaint, charWidth);
+						System.arraycopy(measured, 0, wideAttribute, firstWide,
+								lastWide + 1 - firstWide);
+					}
+					// the renderer does not take the buffer lock during a batch,
+					// it draws the frame published at the end of it instead
+					bridge.frameHandoff.beginEmulation();
+					try {
+						synchronized (buffer) {
+							// nobody gets to see the lines scrolled through during a flood
+							buffer.setKeepScrollback(!flooding);
+							started = System.nanoTime();
+							buffer.putString(charArray, wideAttribute, 0, charBuffer.position());
+							statistics.emulationTimes.add((System.nanoTime() - started) / 1000);
+							// a hidden terminal keeps its changes in the buffer, and so
+							// does a flooded one until the flood is over
+							if (!flooding && !bridge.isDetached())
+								bridge.frameHandoff.publish(buffer);
+						}
+					} finally {
+						bridge.frameHandoff.endEmulation();
+					}
+					// the only frame request of the batch, the emulator's own redraw
+					// is left out while the batch is being emulated
+					if (!flooding) {
+						bridge.propagateConsoleText(charArray, charBuffer.position());
+						bridge.redrawOutput();
+					}
 					charBuffer.clear();
-					bridge.redraw();
 				}
 			}
-		} catch (IOException e) {
-			Log.e(TAG, "Problem while handling incoming data in relay thread", e);
+		} catch (InterruptedException e) {
+			Log.e(TAG, "Emulation thread interrupted", e);
+		}
+	}
+
+	/**
+	 * Forget the output that was thrown away while it was being parsed: the
+	 * bytes not decoded yet, and the sequence it may have stopped in.
+	 */
+	private void discarded() {
+		byteBuffer.clear();
+		byteBuffer.limit(0);
+
+		synchronized (this) {
+			decoder.reset();
+			if (utf8Decoder != null)
+				utf8Decoder.reset();
+		}
+		synchronized (buffer) {
+			buffer.cancelSequence();
 		}
 	}
 }
@@ -0,0 +1,198 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import org.connectbot.util.Histogram;
+
+/**
+ * Counts of the drawing work a {@link TerminalBridge} did, to compare how
+ * many canvas calls frames take, and histograms of how long reading,
+ * parsing and drawing the output takes, to tell why a session is slow.
+ *
+ * @see TerminalBridge#getRenderStatistics()
+ */
+public final class RenderStatistics {
+	long frames;
+	long lines;
+	long cells;
+	long backgroundRuns;
+	long textRuns;
+	long atlasCells;
+
+	/** Time to draw a frame, in microseconds. */
+	final Histogram drawTimes;
+
+	/** Number of dirty lines drawn for a frame. */
+	final Histogram dirtyLines;
+
+	/** Number of bytes read from the transport at once. */
+	final Histogram bytesPerRead;
+
+	/** Number of characters decoded from one batch of bytes read. */
+	final Histogram charsPerRead;
+
+	/** Time to parse the characters of one batch, in microseconds. */
+	final Histogram emulationTimes;
+
+	RenderStatistics() {
+		drawTimes = new Histogram();
+		dirtyLines = new Histogram();
+		bytesPerRead = new Histogram();
+		charsPerRead = new Histogram();
+		emulationTimes = new Histogram();
+	}
+
+	RenderStatistics(RenderStatistics other) {
+		frames = other.frames;
+		lines = other.lines;
+		cells = other.cells;
+		backgroundRuns = other.backgroundRuns;
+		textRuns = other.textRuns;
+		atlasCells = other.atlasCells;
+		drawTimes = new Histogram(other.drawTimes);
+		dirtyLines = new Histogram(other.dirtyLines);
+		bytesPerRead = new Histogram(other.bytesPerRead);
+		charsPerRead = new Histogram(other.charsPerRead);
+		emulationTimes = new Histogram(other.emulationTimes);
+	}
+
+	void clear() {
+		frames = 0;
+		lines = 0;
+		cells = 0;
+		backgroundRuns = 0;
+		textRuns = 0;
+		atlasCells = 0;
+		drawTimes.clear();
+		dirtyLines.clear();
+		bytesPerRead.clear();
+		charsPerRead.clear();
+		emulationTimes.clear();
+	}
+
+	/**
+	 * @return number of frames drawn
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @return number of dirty lines drawn
+	 */
+	public long getLines() {
+		return lines;
+	}
+
+	/**
+	 * @return number of dirty cells drawn
+	 */
+	public long getCells() {
+		return cells;
+	}
+
+	/**
+	 * @return number of background rectangles filled
+	 */
+	public long getBackgroundRuns() {
+		return backgroundRuns;
+	}
+
+	/**
+	 * @return number of runs of text drawn
+	 */
+	public long getTextRuns() {
+		return textRuns;
+	}
+
+	/**
+	 * @return number of cells copied from the glyph atlas
+	 */
+	public long getAtlasCells() {
+		return atlasCells;
+	}
+
+	/**
+	 * @return number of drawing calls made on the canvas
+	 */
+	public long getCanvasCalls() {
+		return backgroundRuns + textRuns + atlasCells;
+	}
+
+	/**
+	 * @return average number of drawing calls for each frame
+	 */
+	public float getCanvasCallsPerFrame() {
+		return frames == 0 ? 0 : (float) getCanvasCalls() / frames;
+	}
+
+	/**
+	 * @return time to draw each frame, in microseconds
+	 */
+	public Histogram getDrawTimes() {
+		return drawTimes;
+	}
+
+	/**
+	 * @return number of dirty lines drawn for each frame
+	 */
+	public Histogram getDirtyLines() {
+		return dirtyLines;
+	}
+
+	/**
+	 * @return number of bytes of each read from the transport
+	 */
+	public Histogram getBytesPerRead() {
+		return bytesPerRead;
+	}
+
+	/**
+	 * @return number of characters decoded from each batch of bytes read
+	 */
+	public Histogram getCharsPerRead() {
+		return charsPerRead;
+	}
+
+	/**
+	 * @return time to parse the characters of each batch, in microseconds
+	 */
+	public Histogram getEmulationTimes() {
+		return emulationTimes;
+	}
+
+	/**
+	 * @return time spent drawing frames, in microseconds
+	 */
+	public long getRenderTime() {
+		return drawTimes.getSum();
+	}
+
+	/**
+	 * @return time spent parsing the output, in microseconds
+	 */
+	public long getEmulationTime() {
+		return emulationTimes.getSum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d frames, %d lines, %d cells, %d backgrounds, %d texts, %d atlas cells, %.1f calls/frame",
+				frames, lines, cells, backgroundRuns, textRuns, atlasCells, getCanvasCallsPerFrame());
+	}
+}
@@ -17,8 +17,10 @@
 
 package org.connectbot.service;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -40,9 +42,14 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.FontMetrics;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.os.SystemClock;
 import android.text.ClipboardManager;
 import android.util.Log;
+import de.mud.terminal.MappedScrollback;
 import de.mud.terminal.VDUBuffer;
 import de.mud.terminal.VDUDisplay;
 import de.mud.terminal.vt320;
@@ -81,13 +88,30 @@ public class TerminalBridge implements VDUDisplay {
 
 	private final String emulation;
 	private final int scrollback;
+	private MappedScrollback scrollbackStore = null;
 
 	public Bitmap bitmap = null;
 	public VDUBuffer buffer = null;
 
-	private TerminalView parent = null;
+	private volatile TerminalView parent = null;
+
+	/* set while the parent is hidden, nothing is drawn then */
+	private volatile boolean detached = false;
+
+	/* the bitmap frames are drawn on, a back bitmap if there is a render thread */
+	private Bitmap renderBitmap = null;
 	private final Canvas canvas = new Canvas();
 
+	/* guards the bitmap shown by the view while the render thread copies to it */
+	private final Object frontLock = new Object();
+	private final Canvas frontCanvas = new Canvas();
+	private final Rect frameRect = new Rect();
+
+	private final boolean renderInBackground;
+	private volatile RenderThread renderThread = null;
+	private volatile boolean overlayChanged = false;  /* selection or meta keys */
+	private int shownCursorX = -1, shownCursorY = -1;
+
 	private boolean disconnected = false;
 	private boolean awaitingClose = false;
 
@@ -105,19 +129,35 @@ public class TerminalBridge implements VDUDisplay {
 
 	public int charWidth = -1;
 	public int charHeight = -1;
-	private int charTop = -1;
+	/* package */ int charTop = -1;
 
 	private float fontSize = -1;
 
 	private final List<FontSizeChangedListener> fontSizeChangedListeners;
 
+	private final GlyphAtlas glyphAtlas;
+
 	private final List<String> localOutput;
 
-	/**
-	 * Flag indicating if we should perform a full-screen redraw during our next
-	 * rendering pass.
-	 */
-	private boolean fullRedraw = false;
+	private final RedrawScheduler redrawScheduler = new RedrawScheduler();
+
+	/* passes the changed lines from the relay to the renderer */
+	/* package */ final FrameHandoff frameHandoff = new FrameHandoff();
+
+	/* the paints of the render loop, set up when the font changes */
+	private final Paint backgroundPaint = new Paint();
+	private final Paint textPaint = new Paint();
+	private final Paint underlinePaint = new Paint();
+
+	/* package */ final RenderStatistics renderStatistics = new RenderStatistics();
+
+	/* scratch space for moving scrolled lines, the size of the render bitmap */
+	private Bitmap scrollScratch;
+	private Canvas scrollCanvas;
+	private final Paint scrollPaint = new Paint();
+	private final Rect scrollSource = new Rect();
+	private final Rect scrollTarget = new Rect();
+	private char[] blanks;
 
 	public PromptHelper promptHelper;
 
@@ -144,14 +184,19 @@ public class TerminalBridge implements VDUDisplay {
 		manager = null;
 
 		defaultPaint = new Paint();
+		updateTextPaints();
 
 		selectionArea = new SelectionArea();
 		scrollback = 1;
+		renderInBackground = false;
 
 		localOutput = new LinkedList<String>();
 
 		fontSizeChangedListeners = new LinkedList<FontSizeChangedListener>();
 
+		glyphAtlas = new GlyphAtlas(this);
+		fontSizeChangedListeners.add(glyphAtlas);
+
 		transport = null;
 
 		keyListener = new TerminalKeyListener(manager, this, buffer, null);
@@ -168,6 +213,7 @@ public class TerminalBridge implements VDUDisplay {
 
 		emulation = manager.getEmulation();
 		scrollback = manager.getScrollback();
+		renderInBackground = manager.isRenderingInBackground();
 
 		// create prompt helper to relay password and hostkey requests up to gui
 		promptHelper = new PromptHelper(this);
@@ -177,11 +223,16 @@ public class TerminalBridge implements VDUDisplay {
 		defaultPaint.setAntiAlias(true);
 		defaultPaint.setTypeface(Typeface.MONOSPACE);
 		defaultPaint.setFakeBoldText(true); // more readable?
+		updateTextPaints();
 
 		localOutput = new LinkedList<String>();
 
 		fontSizeChangedListeners = new LinkedList<FontSizeChangedListener>();
 
+		// cells already drawn are copied instead of drawing their text again
+		glyphAtlas = new GlyphAtlas(this);
+		fontSizeChangedListeners.add(glyphAtlas);
+
 		int hostFontSize = host.getFontSize();
 		if (hostFontSize <= 0)
 			hostFontSize = DEFAULT_FONT_SIZE;
@@ -240,6 +291,21 @@ public class TerminalBridge implements VDUDisplay {
 		else
 			buffer.setBufferSize(0);
 
+		((vt320) buffer).setTableParser(manager.isTableParserEnabled());
+
+		// Large scrollback can live in a file, which also keeps it for the
+		// next session with this host until the host is deleted or the
+		// preference is turned off.
+		if (host.getWantSession() && host.getId() >= 0 && manager.isScrollbackOnStorage()) {
+			File file = TerminalManager.getScrollbackFile(manager, host);
+			try {
+				scrollbackStore = new MappedScrollback(file);
+				buffer.setScrollbackStore(scrollbackStore);
+			} catch (IOException e) {
+				Log.e(TAG, "Could not open scrollback file, keeping it in memory", e);
+			}
+		}
+
 		resetColors();
 		buffer.setDisplay(this);
 
@@ -342,6 +408,7 @@ public class TerminalBridge implements VDUDisplay {
 		if (string == null || string.length() == 0)
 			return;
 
+		inputReceived();
 		Thread injectStringThread = new Thread(new Runnable() {
 			public void run() {
 				try {
@@ -390,6 +457,17 @@ public class TerminalBridge implements VDUDisplay {
 		injectString(host.getPostLogin());
 	}
 
+	/**
+	 * Close the file holding the scrollback. Its lines stay in the file for
+	 * the next session with this host.
+	 */
+	protected void closeScrollback() {
+		if (scrollbackStore != null) {
+			scrollbackStore.close();
+			scrollbackStore = null;
+		}
+	}
+
 	/**
 	 * @return whether a session is open or not
 	 */
@@ -487,6 +565,7 @@ public class TerminalBridge implements VDUDisplay {
 
 		defaultPaint.setTextSize(size);
 		fontSize = size;
+		updateTextPaints();
 
 		// read new metrics to get exact pixel dimensions
 		FontMetrics fm = defaultPaint.getFontMetrics();
@@ -498,7 +577,7 @@ public class TerminalBridge implements VDUDisplay {
 		charHeight = (int)Math.ceil(fm.descent - fm.top);
 
 		// refresh any bitmap with new font size
-		if(parent != null)
+		if(parent != null && !detached)
 			parentChanged(parent);
 
 		for (FontSizeChangedListener ofscl : fontSizeChangedListeners)
@@ -510,6 +589,15 @@ public class TerminalBridge implements VDUDisplay {
 		forcedSize = false;
 	}
 
+	/**
+	 * Give the paints of the render loop the font of the default paint.
+	 */
+	private synchronized void updateTextPaints() {
+		textPaint.set(defaultPaint);
+		underlinePaint.set(defaultPaint);
+		underlinePaint.setUnderlineText(true);
+	}
+
 	/**
 	 * Add an {@link FontSizeChangedListener} to the list of listeners for this
 	 * bridge.
@@ -534,7 +622,8 @@ public class TerminalBridge implements VDUDisplay {
 	/**
 	 * Something changed in our parent {@link TerminalView}, maybe it's a new
 	 * parent, or maybe it's an updated font size. We should recalculate
-	 * terminal size information and request a PTY resize.
+	 * terminal size information and request a PTY resize. If the parent was
+	 * hidden, the whole terminal is drawn again.
 	 */
 	public final synchronized void parentChanged(TerminalView parent) {
 		if (manager != null && !manager.isResizeAllowed()) {
@@ -542,6 +631,9 @@ public class TerminalBridge implements VDUDisplay {
 			return;
 		}
 
+		boolean reattached = detached;
+		boolean resized = !reattached;
+
 		this.parent = parent;
 		final int width = parent.getWidth();
 		final int height = parent.getHeight();
@@ -562,7 +654,8 @@ public class TerminalBridge implements VDUDisplay {
 
 			// If nothing has changed in the terminal dimensions and not an intial
 			// draw then don't blow away scroll regions and such.
-			if (newColumns == columns && newRows == rows)
+			resized = (newColumns != columns || newRows != rows);
+			if (!resized && !reattached)
 				return;
 
 			columns = newColumns;
@@ -577,7 +670,17 @@ public class TerminalBridge implements VDUDisplay {
 		if (newBitmap) {
 			discardBitmap();
 			bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
-			canvas.setBitmap(bitmap);
+			if (renderInBackground) {
+				renderBitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+				frontCanvas.setBitmap(bitmap);
+			} else
+				renderBitmap = bitmap;
+			canvas.setBitmap(renderBitmap);
+		}
+
+		if (renderInBackground && renderThread == null) {
+			renderThread = new RenderThread();
+			renderThread.start();
 		}
 
 		// clear out any old buffer information
@@ -597,50 +700,92 @@ public class TerminalBridge implements VDUDisplay {
 				canvas.drawLine(0, borderY, borderX + 1, borderY, defaultPaint);
 		}
 
-		try {
-			// request a terminal pty resize
-			synchronized (buffer) {
-				buffer.setScreenSize(columns, rows, true);
-			}
+		if (resized) {
+			try {
+				// request a terminal pty resize
+				synchronized (buffer) {
+					buffer.setScreenSize(columns, rows, true);
+				}
 
-			if(transport != null)
-				transport.setDimensions(columns, rows, width, height);
-		} catch(Exception e) {
-			Log.e(TAG, "Problem while trying to resize screen or PTY", e);
-		}
+				if(transport != null)
+					transport.setDimensions(columns, rows, width, height);
+			} catch(Exception e) {
+				Log.e(TAG, "Problem while trying to resize screen or PTY", e);
+			}
 
-		// redraw local output if we don't have a sesson to receive our resize request
-		if (transport == null) {
-			synchronized (localOutput) {
-				((vt320) buffer).reset();
+			// redraw local output if we don't have a sesson to receive our resize request
+			if (transport == null) {
+				synchronized (localOutput) {
+					((vt320) buffer).reset();
 
-				for (String line : localOutput)
-					((vt320) buffer).putString(line);
+					for (String line : localOutput)
+						((vt320) buffer).putString(line);
+				}
 			}
 		}
 
-		// force full redraw with new buffer size
-		fullRedraw = true;
+		// force full redraw with new buffer size, or after being hidden
+		synchronized (buffer) {
+			buffer.update[0] = true;
+		}
+		detached = false;
 		redraw();
 
-		parent.notifyUser(String.format("%d x %d", columns, rows));
+		if (resized)
+			parent.notifyUser(String.format("%d x %d", columns, rows));
 
 		Log.i(TAG, String.format("parentChanged() now width=%d, height=%d", columns, rows));
 	}
 
+	/**
+	 * Our parent {@link TerminalView} is hidden, so we don't need to draw
+	 * until {@link #parentChanged} is called again. Output still goes into
+	 * the buffer, but the bitmaps are recycled so hidden sessions take no
+	 * memory for them.
+	 */
+	public synchronized void parentDetached() {
+		if (detached || bitmap == null)
+			return;
+
+		detached = true;
+		stopDrawing();
+	}
+
 	/**
 	 * Somehow our parent {@link TerminalView} was destroyed. Now we don't need
 	 * to redraw anywhere, and we can recycle our internal bitmap.
 	 */
 	public synchronized void parentDestroyed() {
 		parent = null;
+		// a new parent has to draw everything, even at the same size
+		detached = true;
+		stopDrawing();
+	}
+
+	private void stopDrawing() {
+		if (renderThread != null) {
+			renderThread.quit();
+			renderThread = null;
+		}
 		discardBitmap();
+		glyphAtlas.release();
 	}
 
 	private void discardBitmap() {
-		if (bitmap != null)
-			bitmap.recycle();
-		bitmap = null;
+		if (renderBitmap != null && renderBitmap != bitmap)
+			renderBitmap.recycle();
+		renderBitmap = null;
+
+		if (scrollScratch != null)
+			scrollScratch.recycle();
+		scrollScratch = null;
+		scrollCanvas = null;
+
+		synchronized (frontLock) {
+			if (bitmap != null)
+				bitmap.recycle();
+			bitmap = null;
+		}
 	}
 
 	public void setVDUBuffer(VDUBuffer buffer) {
@@ -657,112 +802,516 @@ public class TerminalBridge implements VDUDisplay {
 		}
 	}
 
+	/**
+	 * Draw the changes of the terminal onto the bitmap, unless a render
+	 * thread does that.
+	 */
 	public void onDraw() {
-		int fg, bg;
-		synchronized (buffer) {
-			boolean entireDirty = buffer.update[0] || fullRedraw;
-			boolean isWideCharacter = false;
+		if (renderThread == null)
+			renderFrame();
+	}
 
-			// walk through all lines in the buffer
-			for(int l = 0; l < buffer.height; l++) {
+	/**
+	 * @return whether nothing is drawn because the parent is hidden
+	 */
+	/* package */ boolean isDetached() {
+		return detached;
+	}
 
-				// check if this line is dirty and needs to be repainted
-				// also check for entire-buffer dirty flags
-				if (!entireDirty && !buffer.update[l + 1]) continue;
+	/**
+	 * Show the drawn terminal on the canvas of the view.
+	 */
+	public void drawBitmap(Canvas canvas, Paint paint) {
+		synchronized (frontLock) {
+			if (bitmap != null)
+				canvas.drawBitmap(bitmap, 0, 0, paint);
+		}
+	}
 
-				// reset dirty flag for this line
-				buffer.update[l + 1] = false;
+	/**
+	 * Take the changes of the terminal and draw them, then hand the changed
+	 * lines to the view if they were drawn on the back bitmap. Neither waits
+	 * for the relay to finish parsing a batch of output, changes it makes
+	 * in the meantime arrive with its next published frame.
+	 * Nothing is drawn during a flood, the changes stay in the buffer until
+	 * the relay asks for the final screen once the output is quiet.
+	 * @return whether anything was drawn that the view has to show
+	 */
+	private synchronized boolean renderFrame() {
+		if (renderBitmap == null)
+			return false;
+		if (isFastForwarding()) {
+			redrawScheduler.frameDropped();
+			return false;
+		}
 
-				// walk through all characters in this line
-				for (int c = 0; c < buffer.width; c++) {
-					int addr = 0;
-					int currAttr = buffer.charAttributes[buffer.windowBase + l][c];
+		long started = System.nanoTime();
+		long lines = renderStatistics.lines;
+		redrawScheduler.frameDrawn(SystemClock.uptimeMillis());
+		renderStatistics.frames++;
+
+		boolean entire = false;
+		boolean scrolled = false;
+		int first = Integer.MAX_VALUE;
+		int last = -1;
+
+		// first the frame published by the relay, then what changed after it
+		for (int i = 0; i < 2; i++) {
+			FrameHandoff.Frame frame = (i == 0) ? frameHandoff.takePublished()
+					: frameHandoff.takeIdle(buffer);
+			if (frame == null)
+				continue;
+
+			drawFrame(frame);
+			entire |= frame.entire;
+			scrolled |= frame.scrollCount > 0;
+			if (frame.first < first)
+				first = frame.first;
+			if (frame.last > last)
+				last = frame.last;
+		}
 
-					{
-						int fgcolor = defaultFg;
+		if (renderBitmap != bitmap && (entire || last >= first)) {
+			int top = entire ? 0 : first * charHeight;
+			int bottom = entire ? renderBitmap.getHeight() : (last + 1) * charHeight;
+			frameRect.set(0, top, renderBitmap.getWidth(), bottom);
+			synchronized (frontLock) {
+				frontCanvas.drawBitmap(renderBitmap, frameRect, frameRect, null);
+			}
+		}
 
-						// check if foreground color attribute is set
-						if ((currAttr & VDUBuffer.COLOR_FG) != 0)
-							fgcolor = ((currAttr & VDUBuffer.COLOR_FG) >> VDUBuffer.COLOR_FG_SHIFT) - 1;
+		renderStatistics.dirtyLines.add(renderStatistics.lines - lines);
+		renderStatistics.drawTimes.add((System.nanoTime() - started) / 1000);
 
-						if (fgcolor < 8 && (currAttr & VDUBuffer.BOLD) != 0)
-							fg = color[fgcolor + 8];
-						else
-							fg = color[fgcolor];
-					}
+		// the view draws the cursor, so a moved cursor has to be shown too
+		int cursorX = buffer.getCursorColumn();
+		int cursorY = buffer.getCursorRow();
+		boolean cursorMoved = cursorX != shownCursorX || cursorY != shownCursorY;
+		shownCursorX = cursorX;
+		shownCursorY = cursorY;
 
-					// check if background color attribute is set
-					if ((currAttr & VDUBuffer.COLOR_BG) != 0)
-						bg = color[((currAttr & VDUBuffer.COLOR_BG) >> VDUBuffer.COLOR_BG_SHIFT) - 1];
-					else
-						bg = color[defaultBg];
-
-					// support character inversion by swapping background and foreground color
-					if ((currAttr & VDUBuffer.INVERT) != 0) {
-						int swapc = bg;
-						bg = fg;
-						fg = swapc;
-					}
+		return entire || scrolled || last >= first || cursorMoved;
+	}
 
-					// set underlined attributes if requested
-					defaultPaint.setUnderlineText((currAttr & VDUBuffer.UNDERLINE) != 0);
+	/**
+	 * Draw a frame onto the render bitmap. Each dirty line is drawn in two
+	 * passes: first the backgrounds, one rectangle for each run of cells
+	 * with the same background color, then the text, one call for each run
+	 * of cells with the same text color. Nothing is clipped; cells from the
+	 * glyph atlas bring their own background.
+	 */
+	private void drawFrame(FrameHandoff.Frame frame) {
+		// move what is already drawn along with the scrolled lines, unless
+		// the frame was taken before the bitmap changed size
+		if (!frame.entire)
+			for (int i = 0; i < frame.scrollCount; i++)
+				if ((frame.scrolls[3 * i + 1] + 1) * charHeight <= renderBitmap.getHeight())
+					scrollBitmap(frame.scrolls[3 * i], frame.scrolls[3 * i + 1],
+							frame.scrolls[3 * i + 2]);
+
+		boolean atlas = glyphAtlas.isUsable();
+
+		// walk through all lines of the frame
+		for (int l = 0; l < frame.rows; l++) {
+			int start = frame.start[l];
+			int end = frame.end[l];
+			if (start >= end) continue;
+
+			final char[] lineChars = frame.chars[l];
+			final int[] lineAttributes = frame.attributes[l];
+
+			// include the left half of a wide character cut in two
+			if (start > 0 && (lineAttributes[start - 1] & VDUBuffer.FULLWIDTH) != 0)
+				start--;
+
+			renderStatistics.lines++;
+			renderStatistics.cells += end - start;
+
+			drawBackgrounds(l, lineAttributes, start, end, atlas);
+			drawText(l, lineChars, lineAttributes, start, end, atlas);
+		}
+	}
 
-					isWideCharacter = (currAttr & VDUBuffer.FULLWIDTH) != 0;
+	/**
+	 * Fill the backgrounds of the cells start to end of a line, except for
+	 * those that will be copied from the glyph atlas.
+	 */
+	private void drawBackgrounds(int l, int[] lineAttributes, int start, int end, boolean atlas) {
+		int runStart = -1;
+		int runEnd = -1;
+		int runColor = 0;
+
+		for (int c = start; c < end; c++) {
+			int currAttr = lineAttributes[c];
+			boolean isWideCharacter = (currAttr & VDUBuffer.FULLWIDTH) != 0;
+			if (atlas && !isWideCharacter) {
+				if (runStart >= 0)
+					fillCells(l, runStart, runEnd, runColor);
+				runStart = -1;
+				continue;
+			}
 
-					if (isWideCharacter)
-						addr++;
-					else {
-						// determine the amount of continuous characters with the same settings and print them all at once
-						while(c + addr < buffer.width
-								&& buffer.charAttributes[buffer.windowBase + l][c + addr] == currAttr) {
-							addr++;
-						}
-					}
+			int bgIndex = colorIndex(currAttr, true);
+			if (runStart >= 0 && bgIndex != runColor) {
+				fillCells(l, runStart, runEnd, runColor);
+				runStart = -1;
+			}
+			if (runStart < 0) {
+				runStart = c;
+				runColor = bgIndex;
+			}
 
-					// Save the current clip region
-					canvas.save(Canvas.CLIP_SAVE_FLAG);
-
-					// clear this dirty area with background color
-					defaultPaint.setColor(bg);
-					if (isWideCharacter) {
-						canvas.clipRect(c * charWidth,
-								l * charHeight,
-								(c + 2) * charWidth,
-								(l + 1) * charHeight);
-					} else {
-						canvas.clipRect(c * charWidth,
-								l * charHeight,
-								(c + addr) * charWidth,
-								(l + 1) * charHeight);
-					}
-					canvas.drawPaint(defaultPaint);
+			// a wide character covers the cell after it as well
+			if (isWideCharacter)
+				c++;
+			runEnd = c + 1;
+		}
 
-					// write the text string starting at 'c' for 'addr' number of characters
-					defaultPaint.setColor(fg);
-					if((currAttr & VDUBuffer.INVISIBLE) == 0)
-						canvas.drawText(buffer.charArray[buffer.windowBase + l], c,
-							addr, c * charWidth, (l * charHeight) - charTop,
-							defaultPaint);
+		if (runStart >= 0)
+			fillCells(l, runStart, runEnd, runColor);
+	}
 
-					// Restore the previous clip region
-					canvas.restore();
+	/**
+	 * Draw the characters start to end of a line over their backgrounds.
+	 */
+	private void drawText(int l, char[] lineChars, int[] lineAttributes, int start, int end,
+			boolean atlas) {
+		for (int c = start; c < end; c++) {
+			int currAttr = lineAttributes[c];
+			int fgIndex = colorIndex(currAttr, false);
+			boolean visible = (currAttr & VDUBuffer.INVISIBLE) == 0;
+			boolean underline = (currAttr & VDUBuffer.UNDERLINE) != 0;
+			int addr = 1;
+
+			if ((currAttr & VDUBuffer.FULLWIDTH) != 0) {
+				if (visible)
+					drawChars(l, lineChars, c, 1, fgIndex, underline);
+				c++;
+				continue;
+			}
 
-					// advance to the next text block with different characteristics
+			if (atlas) {
+				// determine the amount of continuous characters with the same settings
+				while (c + addr < end && lineAttributes[c + addr] == currAttr)
+					addr++;
+
+				// copy the cells from the glyph atlas if it can be used
+				int bgIndex = colorIndex(currAttr, true);
+				if (glyphAtlas.drawRun(canvas, visible ? lineChars : blankChars(addr),
+						visible ? c : 0, addr, fgIndex, bgIndex,
+						visible && underline, c * charWidth, l * charHeight)) {
+					renderStatistics.atlasCells += addr;
 					c += addr - 1;
-					if (isWideCharacter)
-						c++;
+					continue;
 				}
+
+				// the atlas gave up, so these cells have no background yet
+				fillCells(l, c, c + addr, bgIndex);
+			} else {
+				// the backgrounds are drawn, so only the text has to match
+				while (c + addr < end && sameText(currAttr, lineAttributes[c + addr]))
+					addr++;
 			}
 
-			// reset entire-buffer flags
-			buffer.update[0] = false;
+			if (visible)
+				drawChars(l, lineChars, c, addr, fgIndex, underline);
+			c += addr - 1;
+		}
+	}
+
+	/**
+	 * @return whether text with the second attributes is drawn exactly like
+	 *         text with the first, apart from its background
+	 */
+	private boolean sameText(int first, int second) {
+		final int textAttributes = VDUBuffer.FULLWIDTH | VDUBuffer.INVISIBLE | VDUBuffer.UNDERLINE;
+		return (first & textAttributes) == (second & textAttributes)
+				&& colorIndex(first, false) == colorIndex(second, false);
+	}
+
+	/**
+	 * @return color index of the background or the text of a cell with the
+	 *         given attributes
+	 */
+	private int colorIndex(int currAttr, boolean background) {
+		// support character inversion by swapping background and foreground color
+		if ((currAttr & VDUBuffer.INVERT) != 0)
+			background = !background;
+
+		if (background) {
+			// check if background color attribute is set
+			if ((currAttr & VDUBuffer.COLOR_BG) != 0)
+				return ((currAttr & VDUBuffer.COLOR_BG) >> VDUBuffer.COLOR_BG_SHIFT) - 1;
+			return defaultBg;
+		}
+
+		// check if foreground color attribute is set
+		int fgIndex = defaultFg;
+		if ((currAttr & VDUBuffer.COLOR_FG) != 0)
+			fgIndex = ((currAttr & VDUBuffer.COLOR_FG) >> VDUBuffer.COLOR_FG_SHIFT) - 1;
+
+		if (fgIndex < 8 && (currAttr & VDUBuffer.BOLD) != 0)
+			fgIndex += 8;
+		return fgIndex;
+	}
+
+	private void fillCells(int l, int from, int to, int bgIndex) {
+		backgroundPaint.setColor(color[bgIndex]);
+		canvas.drawRect(from * charWidth, l * charHeight, to * charWidth, (l + 1) * charHeight,
+				backgroundPaint);
+		renderStatistics.backgroundRuns++;
+	}
+
+	private void drawChars(int l, char[] lineChars, int c, int length, int fgIndex,
+			boolean underline) {
+		Paint paint = underline ? underlinePaint : textPaint;
+		paint.setColor(color[fgIndex]);
+		canvas.drawText(lineChars, c, length, c * charWidth, (l * charHeight) - charTop, paint);
+		renderStatistics.textRuns++;
+	}
+
+	/**
+	 * @return at least the given number of spaces, to draw invisible text
+	 */
+	private char[] blankChars(int length) {
+		if (blanks == null || blanks.length < length) {
+			blanks = new char[length];
+			Arrays.fill(blanks, ' ');
 		}
-		fullRedraw = false;
+		return blanks;
+	}
+
+	/**
+	 * Move the drawn lines top to bottom up by the given number of lines,
+	 * or down if it is negative. The lines that stay are copied to a
+	 * scratch bitmap and back, one blit each way, so a copy never reads
+	 * pixels it has already overwritten.
+	 */
+	private void scrollBitmap(int top, int bottom, int lines) {
+		int count = bottom - top + 1 - Math.abs(lines);
+		if (count <= 0)
+			return;
+
+		int width = renderBitmap.getWidth();
+		int height = renderBitmap.getHeight();
+		if (scrollScratch == null || scrollScratch.getWidth() != width
+				|| scrollScratch.getHeight() != height) {
+			if (scrollScratch != null)
+				scrollScratch.recycle();
+			scrollScratch = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+			scrollCanvas = new Canvas(scrollScratch);
+			scrollPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+		}
+
+		int from = (lines > 0 ? top + lines : top) * charHeight;
+		int to = (lines > 0 ? top : top - lines) * charHeight;
+		int pixels = count * charHeight;
+
+		scrollSource.set(0, from, width, from + pixels);
+		scrollTarget.set(0, 0, width, pixels);
+		scrollCanvas.drawBitmap(renderBitmap, scrollSource, scrollTarget, scrollPaint);
+
+		scrollSource.set(0, to, width, to + pixels);
+		canvas.drawBitmap(scrollScratch, scrollTarget, scrollSource, scrollPaint);
 	}
 
+	/**
+	 * Ask for the changes the emulator made to the buffer to be drawn.
+	 * Requests are folded into frames by the {@link RedrawScheduler}, so
+	 * this is cheap to call often. The redraw vt320 asks for at the end of
+	 * a batch of the relay is left out; the relay asks for one itself once
+	 * the batch is published, so each batch makes a single request.
+	 */
 	public void redraw() {
-		if (parent != null)
+		if (frameHandoff.isEmulating())
+			return;
+		redrawOutput();
+	}
+
+	/**
+	 * Ask for the view to be drawn again for what it draws over the
+	 * terminal, such as the selection and the meta key state. The view is
+	 * invalidated even if the buffer did not change, and during a flood.
+	 */
+	public void redrawOverlay() {
+		if (isFastForwarding()) {
+			TerminalView parent = this.parent;
+			if (parent != null && !detached)
+				parent.postInvalidate();
+			return;
+		}
+
+		overlayChanged = true;
+		redrawOutput();
+	}
+
+	/**
+	 * Ask for new output of the terminal to be drawn. With a render thread,
+	 * the view is only invalidated if the frame changed anything.
+	 */
+	/* package */ void redrawOutput() {
+		TerminalView parent = this.parent;
+		if (parent == null || detached || isFastForwarding())
+			return;
+
+		long delay = redrawScheduler.request(SystemClock.uptimeMillis());
+		if (delay == RedrawScheduler.COALESCED)
+			return;
+
+		RenderThread renderThread = this.renderThread;
+		if (renderThread != null)
+			renderThread.request(delay);
+		else if (delay == 0)
 			parent.postInvalidate();
+		else
+			parent.postInvalidateDelayed(delay);
+	}
+
+	/**
+	 * Draws the frames on the back bitmap, so the UI thread only has to show
+	 * the finished front bitmap and neither waits for the terminal output
+	 * to be parsed nor for the text to be drawn.
+	 */
+	private class RenderThread extends Thread {
+		private boolean requested = false;
+		private long due;
+		private boolean running = true;
+
+		RenderThread() {
+			setName("Render");
+			setDaemon(true);
+		}
+
+		/**
+		 * Ask for a frame to be drawn after the given delay.
+		 */
+		synchronized void request(long delay) {
+			long time = SystemClock.uptimeMillis() + delay;
+			if (!requested || time < due)
+				due = time;
+			requested = true;
+			notify();
+		}
+
+		synchronized void quit() {
+			running = false;
+			notify();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					synchronized (this) {
+						while (running) {
+							long wait = requested ? due - SystemClock.uptimeMillis() : 0;
+							if (requested && wait <= 0)
+								break;
+							wait(wait);
+						}
+						if (!running)
+							return;
+						requested = false;
+					}
+
+					boolean overlay = overlayChanged;
+					overlayChanged = false;
+					if (!renderFrame() && !overlay)
+						continue;
+
+					TerminalView parent = TerminalBridge.this.parent;
+					if (parent != null)
+						parent.postInvalidate();
+				}
+			} catch (InterruptedException e) {
+				Log.d(TAG, "Render thread interrupted", e);
+			}
+		}
+	}
+
+	/**
+	 * Throw away the output received but not shown yet.
+	 */
+	public void discardPendingOutput() {
+		if (relay != null)
+			relay.discardPendingOutput();
+	}
+
+	/**
+	 * @return true while so much output comes in that it is not drawn
+	 */
+	public boolean isFastForwarding() {
+		return relay != null && relay.isFastForwarding();
+	}
+
+	/**
+	 * Note that the user typed something, so the echo is drawn right away.
+	 */
+	/* package */ void inputReceived() {
+		redrawScheduler.inputReceived(SystemClock.uptimeMillis());
+	}
+
+	/**
+	 * @return number of times the terminal asked to be drawn
+	 */
+	public long getFramesRequested() {
+		return redrawScheduler.getFramesRequested();
+	}
+
+	/**
+	 * @return number of frames drawn
+	 */
+	public long getFramesDrawn() {
+		return redrawScheduler.getFramesDrawn();
+	}
+
+	/**
+	 * @return number of requests folded into a frame that was pending already
+	 */
+	public long getFramesSkipped() {
+		return redrawScheduler.getFramesSkipped();
+	}
+
+	/**
+	 * @return number of frames the relay handed to the renderer
+	 */
+	public long getFramesPublished() {
+		return frameHandoff.getFramesPublished();
+	}
+
+	/**
+	 * @return number of frames the renderer took from the idle relay
+	 */
+	public long getFramesTaken() {
+		return frameHandoff.getFramesTaken();
+	}
+
+	/**
+	 * @return number of batches of output that waited for the renderer
+	 */
+	public long getRelayWaits() {
+		return frameHandoff.getEmulatorWaits();
+	}
+
+	/**
+	 * @return number of times the renderer found the relay parsing output
+	 */
+	public long getRendererMisses() {
+		return frameHandoff.getRendererMisses();
+	}
+
+	/**
+	 * @return a copy of the counts of the drawing work done so far
+	 */
+	public synchronized RenderStatistics getRenderStatistics() {
+		return new RenderStatistics(renderStatistics);
+	}
+
+	/**
+	 * Start counting the drawing work over, for example before a test run.
+	 */
+	public synchronized void resetRenderStatistics() {
+		renderStatistics.clear();
 	}
 
 	// We don't have a scroll bar.
@@ -916,8 +1465,10 @@ public class TerminalBridge implements VDUDisplay {
 	 */
 	public void setColor(int index, int red, int green, int blue) {
 		// Don't allow the system colors to be overwritten for now. May violate specs.
-		if (index < color.length && index >= 16)
+		if (index < color.length && index >= 16) {
 			color[index] = 0xff000000 | red << 16 | green << 8 | blue;
+			glyphAtlas.clear();
+		}
 	}
 
 	public final void resetColors() {
@@ -926,6 +1477,7 @@ public class TerminalBridge implements VDUDisplay {
 		defaultBg = defaults[1];
 
 		color = manager.hostdb.getColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME);
+		glyphAtlas.clear();
 	}
 
 	private static Pattern urlPattern = null;
@@ -969,7 +1521,7 @@ public class TerminalBridge implements VDUDisplay {
 
 		char[] visibleBuffer = new char[buffer.height * buffer.width];
 		for (int l = 0; l < buffer.height; l++)
-			System.arraycopy(buffer.charArray[buffer.windowBase + l], 0,
+			System.arraycopy(buffer.getLineChars(buffer.windowBase + l), 0,
 					visibleBuffer, l * buffer.width, buffer.width);
 
 		Matcher urlMatcher = urlPattern.matcher(new String(visibleBuffer));
@@ -129,6 +129,7 @@ public class TerminalKeyListener implements OnKeyListener, OnSharedPreferenceCha
 			lastKeyboard = TerminalKeyListener.getKeyboard(s);
 		}
 
+		bridge.inputReceived();
 		return lastKeyboard.onKey(this, v, keyCode, event);
 	}
 
@@ -145,6 +146,10 @@ public class TerminalKeyListener implements OnKeyListener, OnSharedPreferenceCha
 		// CTRL-? sends DEL
 		else if (key == 0x3F)
 			key = 0x7F;
+
+		// interrupting a flood of output should not have to wait for the rest of it
+		if (key == 0x03 && bridge.isFastForwarding())
+			bridge.discardPendingOutput();
 		return key;
 	}
 
@@ -210,7 +215,7 @@ public class TerminalKeyListener implements OnKeyListener, OnSharedPreferenceCha
 			metaState |= code << 1;
 		} else
 			metaState |= code;
-		getBridge().redraw();
+		getBridge().redrawOverlay();
 	}
 
 	public void setTerminalKeyMode(String keymode) {
@@ -17,6 +17,7 @@
 
 package org.connectbot.service;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.security.PrivateKey;
@@ -266,6 +267,58 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		return scrollback;
 	}
 
+	public boolean isScrollbackOnStorage() {
+		return getPrefs().getBoolean(PreferenceConstants.SCROLLBACK_FILE, false);
+	}
+
+	private static final String SCROLLBACK_PREFIX = "scrollback-";
+
+	/**
+	 * File that keeps the scrollback of a host between sessions. It stays in
+	 * the cache directory until the host is deleted, the preference is turned
+	 * off, or the system clears the cache.
+	 */
+	public static File getScrollbackFile(Context context, HostBean host) {
+		return new File(context.getCacheDir(), SCROLLBACK_PREFIX + host.getId());
+	}
+
+	/**
+	 * Delete the scrollback kept for a host. A bridge still using the file
+	 * keeps its mapping until it closes.
+	 */
+	public static void deleteScrollback(Context context, HostBean host) {
+		getScrollbackFile(context, host).delete();
+	}
+
+	/**
+	 * Delete the scrollback files of all hosts.
+	 */
+	private void deleteScrollbackFiles() {
+		File[] files = getCacheDir().listFiles();
+		if (files == null)
+			return;
+
+		for (File file : files) {
+			if (file.getName().startsWith(SCROLLBACK_PREFIX))
+				file.delete();
+		}
+	}
+
+	/**
+	 * @return whether terminals parse escape sequences with the table
+	 *         driven parser of vt320
+	 */
+	public boolean isTableParserEnabled() {
+		return getPrefs().getBoolean(PreferenceConstants.TABLE_PARSER, false);
+	}
+
+	/**
+	 * @return whether terminals are drawn by a thread of their own
+	 */
+	public boolean isRenderingInBackground() {
+		return getPrefs().getBoolean(PreferenceConstants.RENDER_THREAD, false);
+	}
+
 	/**
 	 * Open a new connection by reading parameters from the given URI. Follows
 	 * format specified by an individual transport.
@@ -333,6 +386,8 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 			mHostBridgeMap.remove(bridge.host);
 			mNicknameBridgeMap.remove(bridge.host.getNickname());
 
+			bridge.closeScrollback();
+
 			if (bridge.isUsingNetwork()) {
 				connectivityManager.decRef();
 			}
@@ -628,6 +683,9 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 			connectivityManager.setWantWifiLock(lockingWifi);
 		} else if (PreferenceConstants.MEMKEYS.equals(key)) {
 			updateSavingKeys();
+		} else if (PreferenceConstants.SCROLLBACK_FILE.equals(key)) {
+			if (!isScrollbackOnStorage())
+				deleteScrollbackFiles();
 		}
 	}
 
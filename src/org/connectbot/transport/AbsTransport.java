@@ -83,6 +83,17 @@ public abstract class AbsTransport {
 	 */
 	public abstract int read(byte[] buffer, int offset, int length) throws IOException;
 
+	/**
+	 * Tells how much can be read from the transport without waiting, so
+	 * output that is no longer wanted can be thrown away as it comes in.
+	 * @return number of bytes that can be read right away, 0 if the
+	 *         transport cannot tell
+	 * @throws IOException when there is a problem with the connection
+	 */
+	public int available() throws IOException {
+		return 0;
+	}
+
 	/**
 	 * Writes to the transport. If the host is not yet connected, simply return without
 	 * doing anything. An {@link IOException} should be thrown if there is an error after
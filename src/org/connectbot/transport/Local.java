@@ -151,6 +151,13 @@ public class Local extends AbsTransport {
 		return is.read(buffer, start, len);
 	}
 
+	@Override
+	public int available() throws IOException {
+		if (is == null)
+			return 0;
+		return is.available();
+	}
+
 	@Override
 	public void setDimensions(int columns, int rows, int width, int height) {
 		try {
@@ -523,6 +523,13 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		return bytesRead;
 	}
 
+	@Override
+	public int available() throws IOException {
+		if (stdout == null)
+			return 0;
+		return stdout.available();
+	}
+
 	@Override
 	public void write(byte[] buffer) throws IOException {
 		if (stdin != null)
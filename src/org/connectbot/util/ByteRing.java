@@ -0,0 +1,237 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue of bytes between exactly one thread that writes and one
+ * thread that reads. Neither side takes a lock: the positions of both are
+ * volatile and each is only written by its own side. A side only parks
+ * when the ring is full or empty, and the other side wakes it up.
+ */
+public final class ByteRing {
+	private final byte[] ring;
+	private final int mask;
+
+	/* total number of bytes read, only written by the reader */
+	private volatile long head = 0;
+
+	/* total number of bytes written, only written by the writer */
+	private volatile long tail = 0;
+
+	private volatile boolean closed = false;
+
+	private volatile Thread waitingReader = null;
+	private volatile Thread waitingWriter = null;
+
+	/**
+	 * @param capacity number of bytes the ring holds, a power of two
+	 */
+	public ByteRing(int capacity) {
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+			throw new IllegalArgumentException("capacity has to be a power of two");
+		ring = new byte[capacity];
+		mask = capacity - 1;
+	}
+
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	/**
+	 * @return number of bytes waiting to be read
+	 */
+	public int available() {
+		return (int) (tail - head);
+	}
+
+	/**
+	 * Write as many of the given bytes as fit without waiting.
+	 * @return number of bytes written
+	 */
+	public int write(byte[] src, int offset, int length) {
+		long t = tail;
+		int free = ring.length - (int) (t - head);
+		if (length > free)
+			length = free;
+		if (length <= 0)
+			return 0;
+
+		int at = (int) t & mask;
+		int first = Math.min(length, ring.length - at);
+		System.arraycopy(src, offset, ring, at, first);
+		System.arraycopy(src, offset + first, ring, 0, length - first);
+		tail = t + length;
+
+		Thread reader = waitingReader;
+		if (reader != null)
+			LockSupport.unpark(reader);
+		return length;
+	}
+
+	/**
+	 * Write all of the given bytes, waiting for the reader to make room.
+	 * @return false if the ring was closed before all were written
+	 */
+	public boolean writeFully(byte[] src, int offset, int length) throws InterruptedException {
+		while (length > 0) {
+			if (closed)
+				return false;
+
+			int written = write(src, offset, length);
+			offset += written;
+			length -= written;
+			if (written > 0)
+				continue;
+
+			waitingWriter = Thread.currentThread();
+			if (available() == ring.length && !closed)
+				LockSupport.park(this);
+			waitingWriter = null;
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
+		return true;
+	}
+
+	/**
+	 * Read as many bytes as there are, up to the given number, without
+	 * waiting.
+	 * @return number of bytes read
+	 */
+	public int read(byte[] dst, int offset, int length) {
+		long h = head;
+		int used = (int) (tail - h);
+		if (length > used)
+			length = used;
+		if (length <= 0)
+			return 0;
+
+		int at = (int) h & mask;
+		int first = Math.min(length, ring.length - at);
+		System.arraycopy(ring, at, dst, offset, first);
+		System.arraycopy(ring, 0, dst, offset + first, length - first);
+		head = h + length;
+
+		Thread writer = waitingWriter;
+		if (writer != null)
+			LockSupport.unpark(writer);
+		return length;
+	}
+
+	/**
+	 * Read the bytes there are, up to the given number, waiting for the
+	 * writer if there are none.
+	 * @return number of bytes read, or -1 if the ring is closed and empty
+	 */
+	public int readBlocking(byte[] dst, int offset, int length) throws InterruptedException {
+		return readBlocking(dst, offset, length, 0);
+	}
+
+	/**
+	 * Read the bytes there are, up to the given number, waiting for the
+	 * writer at most the given time if there are none.
+	 * @param timeout longest wait in nanoseconds, 0 to wait for as long as
+	 *        it takes
+	 * @return number of bytes read, 0 if none came in time, or -1 if the
+	 *         ring is closed and empty
+	 */
+	public int readBlocking(byte[] dst, int offset, int length, long timeout)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + timeout;
+		while (true) {
+			int count = read(dst, offset, length);
+			if (count > 0 || length == 0)
+				return count;
+			if (closed) {
+				// the writer may have written just before it closed the ring
+				count = read(dst, offset, length);
+				return count > 0 ? count : -1;
+			}
+
+			long left = deadline - System.nanoTime();
+			if (timeout > 0 && left <= 0)
+				return 0;
+
+			waitingReader = Thread.currentThread();
+			if (available() == 0 && !closed) {
+				if (timeout > 0)
+					LockSupport.parkNanos(this, left);
+				else
+					LockSupport.park(this);
+			}
+			waitingReader = null;
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * @return number of bytes written so far, which is where in the stream
+	 *         of bytes the next one goes
+	 */
+	public long getWritePosition() {
+		return tail;
+	}
+
+	/**
+	 * Throw away all bytes waiting to be read. Only the reader may call
+	 * this.
+	 * @return number of bytes thrown away
+	 */
+	public int skipAll() {
+		return skipTo(tail);
+	}
+
+	/**
+	 * Throw away the bytes waiting to be read that were written before the
+	 * given position. Only the reader may call this.
+	 * @param position a position returned by {@link #getWritePosition()}
+	 * @return number of bytes thrown away
+	 */
+	public int skipTo(long position) {
+		long h = head;
+		if (position <= h)
+			return 0;
+		head = position;
+
+		Thread writer = waitingWriter;
+		if (writer != null)
+			LockSupport.unpark(writer);
+		return (int) (position - h);
+	}
+
+	/**
+	 * No more bytes will be written; the reader gets the ones left first.
+	 */
+	public void close() {
+		closed = true;
+
+		Thread reader = waitingReader;
+		if (reader != null)
+			LockSupport.unpark(reader);
+		Thread writer = waitingWriter;
+		if (writer != null)
+			LockSupport.unpark(writer);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+}
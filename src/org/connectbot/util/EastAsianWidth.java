@@ -33,10 +33,10 @@ public abstract class EastAsianWidth {
 	}
 
 	/**
-	 * @param charArray
-	 * @param i
-	 * @param position
-	 * @param wideAttribute
+	 * @param charArray characters to measure
+	 * @param start first character to measure
+	 * @param end character after the last one to measure
+	 * @param wideAttribute receives the width of charArray[start + i] at index i
 	 */
 	public abstract void measure(char[] charArray, int start, int end,
 			byte[] wideAttribute, Paint paint, int charWidth);
@@ -52,7 +52,9 @@ public abstract class EastAsianWidth {
 		@Override
 		public void measure(char[] charArray, int start, int end,
 				byte[] wideAttribute, Paint paint, int charWidth) {
-			paint.getTextWidths(charArray, start, end, mWidths);
+			if (mWidths.length < end - start)
+				mWidths = new float[end - start];
+			paint.getTextWidths(charArray, start, end - start, mWidths);
 			final int N = end - start;
 			for (int i = 0; i < N; i++)
 				wideAttribute[i] = (byte) (((int)mWidths[i] != charWidth) ?
@@ -0,0 +1,139 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.util;
+
+/**
+ * Distribution of non-negative values in a fixed number of buckets whose
+ * size doubles from one to the next: bucket 0 counts the value 0, bucket
+ * i counts the values from 2^(i-1) to 2^i - 1. Adding a value does not
+ * allocate, so it can be done for every frame or every read.
+ */
+public final class Histogram {
+	/** Number of buckets, the last one also counts all larger values. */
+	public static final int BUCKETS = 32;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count = 0;
+	private long sum = 0;
+	private long max = 0;
+
+	public Histogram() {
+	}
+
+	/**
+	 * Create a copy of another histogram.
+	 */
+	public Histogram(Histogram other) {
+		synchronized (other) {
+			System.arraycopy(other.counts, 0, counts, 0, BUCKETS);
+			count = other.count;
+			sum = other.sum;
+			max = other.max;
+		}
+	}
+
+	/**
+	 * @return the bucket the given value is counted in
+	 */
+	public static int bucketOf(long value) {
+		if (value <= 0)
+			return 0;
+		int bucket = 64 - Long.numberOfLeadingZeros(value);
+		return bucket < BUCKETS ? bucket : BUCKETS - 1;
+	}
+
+	/**
+	 * @return the largest value counted in the given bucket
+	 */
+	public static long bucketLimit(int bucket) {
+		if (bucket == BUCKETS - 1)
+			return Long.MAX_VALUE;
+		return (1L << bucket) - 1;
+	}
+
+	/**
+	 * Count a value, negative values count as 0.
+	 */
+	public synchronized void add(long value) {
+		if (value < 0)
+			value = 0;
+		counts[bucketOf(value)]++;
+		count++;
+		sum += value;
+		if (value > max)
+			max = value;
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] = 0;
+		count = 0;
+		sum = 0;
+		max = 0;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getCount(int bucket) {
+		return counts[bucket];
+	}
+
+	public synchronized long getSum() {
+		return sum;
+	}
+
+	public synchronized long getMax() {
+		return max;
+	}
+
+	public synchronized double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * @param percent between 0 and 100
+	 * @return a value that at least the given percentage of the values are
+	 *         not larger than; the limit of their bucket, or the largest
+	 *         value if that is smaller
+	 */
+	public synchronized long getPercentile(double percent) {
+		if (count == 0)
+			return 0;
+
+		long wanted = (long) Math.ceil(count * percent / 100);
+		if (wanted < 1)
+			wanted = 1;
+
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= wanted)
+				return Math.min(bucketLimit(i), max);
+		}
+		return max;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d",
+				count, getMean(), getPercentile(50), getPercentile(90),
+				getPercentile(99), max);
+	}
+}
@@ -39,6 +39,14 @@ public class PreferenceConstants {
 
 	public static final String SCROLLBACK = "scrollback";
 
+	public static final String SCROLLBACK_FILE = "scrollbackFile";
+
+	public static final String TABLE_PARSER = "tableParser";
+
+	public static final String RENDER_THREAD = "renderThread";
+
+	public static final String STATISTICS = "statistics";
+
 	public static final String EMULATION = "emulation";
 
 	public static final String ROTATION = "rotation";
@@ -0,0 +1,170 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.util;
+
+import java.util.Arrays;
+
+/**
+ * Maps keys to a fixed number of slots, numbered from 0, which hold
+ * whatever the user of the cache keeps for a key. Once all slots are
+ * taken, the least recently used one is given to the next new key.
+ * Nothing is allocated after construction.
+ */
+public final class SlotCache {
+	private static final int NONE = -1;
+
+	private final long[] keys;
+
+	/* hash chains */
+	private final int[] buckets;
+	private final int[] next;
+	private final int shift;
+
+	/* use order, from the most recently used slot to the least */
+	private final int[] newer;
+	private final int[] older;
+	private int newest = NONE;
+	private int oldest = NONE;
+
+	private int count;
+
+	/**
+	 * @param capacity number of slots
+	 */
+	public SlotCache(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+
+		keys = new long[capacity];
+		next = new int[capacity];
+		newer = new int[capacity];
+		older = new int[capacity];
+
+		int bits = 1;
+		while ((1 << bits) < 2 * capacity)
+			bits++;
+		buckets = new int[1 << bits];
+		shift = 32 - bits;
+
+		clear();
+	}
+
+	/**
+	 * @return number of slots
+	 */
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	/**
+	 * @return number of slots in use
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Forget all keys.
+	 */
+	public void clear() {
+		Arrays.fill(buckets, NONE);
+		newest = NONE;
+		oldest = NONE;
+		count = 0;
+	}
+
+	/**
+	 * Find the slot of a key and mark it as the most recently used one.
+	 * @param key the key
+	 * @return slot of the key, or -1 if it has none
+	 */
+	public int get(long key) {
+		for (int slot = buckets[bucket(key)]; slot != NONE; slot = next[slot]) {
+			if (keys[slot] == key) {
+				if (slot != newest) {
+					unlink(slot);
+					link(slot);
+				}
+				return slot;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Give a slot to a key that has none, taking it from the least recently
+	 * used key if all slots are in use.
+	 * @param key the key
+	 * @return slot of the key
+	 */
+	public int put(long key) {
+		int slot;
+		if (count < keys.length) {
+			slot = count++;
+		} else {
+			slot = oldest;
+			unlink(slot);
+			removeFromChain(slot);
+		}
+
+		keys[slot] = key;
+		int bucket = bucket(key);
+		next[slot] = buckets[bucket];
+		buckets[bucket] = slot;
+		link(slot);
+		return slot;
+	}
+
+	private int bucket(long key) {
+		return ((int) (key ^ (key >>> 32)) * 0x9e3779b9) >>> shift;
+	}
+
+	private void removeFromChain(int slot) {
+		int bucket = bucket(keys[slot]);
+		if (buckets[bucket] == slot) {
+			buckets[bucket] = next[slot];
+			return;
+		}
+		int previous = buckets[bucket];
+		while (next[previous] != slot)
+			previous = next[previous];
+		next[previous] = next[slot];
+	}
+
+	/* make a slot the most recently used one */
+	private void link(int slot) {
+		newer[slot] = NONE;
+		older[slot] = newest;
+		if (newest != NONE)
+			newer[newest] = slot;
+		newest = slot;
+		if (oldest == NONE)
+			oldest = slot;
+	}
+
+	private void unlink(int slot) {
+		if (newer[slot] != NONE)
+			older[newer[slot]] = older[slot];
+		else
+			newest = older[slot];
+		if (older[slot] != NONE)
+			newer[older[slot]] = newer[slot];
+		else
+			oldest = newer[slot];
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.util;
+
+/**
+ * Decodes UTF-8 straight from the bytes read into a char array, faster
+ * than a {@link java.nio.charset.CharsetDecoder} for output that is
+ * mostly ASCII. A sequence cut in two by the end of a read is kept until
+ * the next one. Malformed input becomes U+FFFD, one for each maximal
+ * invalid subsequence as the Unicode standard recommends, like a decoder
+ * set to replace malformed input.
+ */
+public final class Utf8Decoder {
+	public static final char REPLACEMENT = '\ufffd';
+
+	/**
+	 * Number of chars a call can produce beyond one for each byte given,
+	 * for the bytes kept from the call before.
+	 */
+	public static final int MAX_PENDING = 3;
+
+	/* continuation bytes still needed for the current sequence */
+	private int needed = 0;
+	private int codePoint;
+
+	/* range of the next continuation byte */
+	private int lower;
+	private int upper;
+
+	private int firstNonAscii;
+	private int lastNonAscii;
+
+	/**
+	 * Decode bytes into chars.
+	 * @param in bytes to decode
+	 * @param offset first byte to decode
+	 * @param length number of bytes to decode
+	 * @param out receives the chars, needs room for length + MAX_PENDING
+	 * @param outOffset where to put the first char
+	 * @return number of chars decoded
+	 */
+	public int decode(byte[] in, int offset, int length, char[] out, int outOffset) {
+		int i = offset;
+		int end = offset + length;
+		int o = outOffset;
+		firstNonAscii = -1;
+		lastNonAscii = -1;
+
+		while (i < end) {
+			if (needed == 0) {
+				int b = in[i];
+				if (b >= 0) {
+					// the common case, a run of ASCII
+					do {
+						out[o++] = (char) b;
+					} while (++i < end && (b = in[i]) >= 0);
+					continue;
+				}
+
+				i++;
+				b &= 0xff;
+				if (b >= 0xc2 && b <= 0xdf) {
+					needed = 1;
+					codePoint = b & 0x1f;
+					lower = 0x80;
+					upper = 0xbf;
+				} else if (b >= 0xe0 && b <= 0xef) {
+					needed = 2;
+					codePoint = b & 0x0f;
+					// no overlong forms and no surrogates
+					lower = (b == 0xe0) ? 0xa0 : 0x80;
+					upper = (b == 0xed) ? 0x9f : 0xbf;
+				} else if (b >= 0xf0 && b <= 0xf4) {
+					needed = 3;
+					codePoint = b & 0x07;
+					// no overlong forms and nothing above U+10FFFF
+					lower = (b == 0xf0) ? 0x90 : 0x80;
+					upper = (b == 0xf4) ? 0x8f : 0xbf;
+				} else {
+					o = put(out, o, REPLACEMENT);
+				}
+				continue;
+			}
+
+			int b = in[i] & 0xff;
+			if (b < lower || b > upper) {
+				// the sequence ends early, this byte is looked at again on its own
+				needed = 0;
+				o = put(out, o, REPLACEMENT);
+				continue;
+			}
+
+			i++;
+			codePoint = (codePoint << 6) | (b & 0x3f);
+			lower = 0x80;
+			upper = 0xbf;
+			if (--needed == 0) {
+				if (codePoint >= 0x10000) {
+					codePoint -= 0x10000;
+					o = put(out, o, (char) ((codePoint >>> 10) + Character.MIN_HIGH_SURROGATE));
+					o = put(out, o, (char) ((codePoint & 0x3ff) + Character.MIN_LOW_SURROGATE));
+				} else {
+					o = put(out, o, (char) codePoint);
+				}
+			}
+		}
+
+		return o - outOffset;
+	}
+
+	private int put(char[] out, int o, char c) {
+		if (firstNonAscii < 0)
+			firstNonAscii = o;
+		lastNonAscii = o;
+		out[o] = c;
+		return o + 1;
+	}
+
+	/**
+	 * Forget a sequence kept from the bytes decoded before.
+	 */
+	public void reset() {
+		needed = 0;
+	}
+
+	/**
+	 * @return index in the output of the first char decoded by the last
+	 *         call that is not ASCII, or -1 if all of them are
+	 */
+	public int getFirstNonAscii() {
+		return firstNonAscii;
+	}
+
+	/**
+	 * @return index in the output of the last char decoded by the last call
+	 *         that is not ASCII, or -1 if all of them are
+	 */
+	public int getLastNonAscii() {
+		return lastNonAscii;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.test.AndroidTestCase;
+
+import com.trilead.ssh2.crypto.digest.Poly1305;
+
+/**
+ * Known answers for ChaCha20 and Poly1305 from RFC 7539, and for a packet
+ * sealed the way OpenSSH does it.
+ */
+public class ChaCha20Poly1305Test extends AndroidTestCase {
+	private static byte[] hex(String s) {
+		byte[] b = new byte[s.length() / 2];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+		return b;
+	}
+
+	private static byte[] bytes(int length, int seed) {
+		byte[] b = new byte[length];
+		for (int i = 0; i < length; i++)
+			b[i] = (byte) (seed + i * 7);
+		return b;
+	}
+
+	private static final byte[] RFC_KEY = hex("000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f");
+
+	/* RFC 7539 has a 32 bit counter and a 96 bit nonce, the first nonce word is the upper counter word */
+	private static ChaCha20 rfcCipher(int counter, int nonce0, byte[] nonce, int off) {
+		ChaCha20 c = new ChaCha20(RFC_KEY, 0);
+		c.setCounter((counter & 0xffffffffL) | ((long) nonce0 << 32));
+		c.setNonce(nonce, off);
+		return c;
+	}
+
+	public void testChaCha20_BlockFunction() {
+		/* RFC 7539 2.3.2 */
+		ChaCha20 c = rfcCipher(1, 0x09000000, hex("0000004a00000000"), 0);
+
+		byte[] block = new byte[64];
+		c.keyStream(block, 0, block.length);
+
+		assertTrue(Arrays.equals(hex("10f1e7e4d13b5915500fdd1fa32071c4c7d1f4c733c068030422aa9ac3d46c4e"
+				+ "d2826446079faa0914c2d705d98b02a2b5129cd1de164eb9cbd083e8a2503c4e"), block));
+	}
+
+	public void testChaCha20_Encryption() {
+		/* RFC 7539 2.4.2 */
+		byte[] plain = ("Ladies and Gentlemen of the class of '99: If I could offer you only one tip for "
+				+ "the future, sunscreen would be it.").getBytes();
+		byte[] expected = hex("6e2e359a2568f98041ba0728dd0d6981e97e7aec1d4360c20a27afccfd9fae0b"
+				+ "f91b65c5524733ab8f593dabcd62b3571639d624e65152ab8f530c359f0861d8"
+				+ "07ca0dbf500d6a6156a38e088a22b65e52bc514d16ccf806818ce91ab7793736"
+				+ "5af90bbf74a35be6b40b8eedf2785e42874d");
+
+		byte[] cipher = new byte[plain.length];
+		rfcCipher(1, 0, hex("0000004a00000000"), 0).crypt(plain, 0, cipher, 0, plain.length);
+		assertTrue(Arrays.equals(expected, cipher));
+
+		rfcCipher(1, 0, hex("0000004a00000000"), 0).crypt(cipher, 0, cipher, 0, cipher.length);
+		assertTrue("Should decrypt in place", Arrays.equals(plain, cipher));
+	}
+
+	public void testPoly1305_Rfc() {
+		/* RFC 7539 2.5.2, fed in uneven pieces */
+		byte[] message = "Cryptographic Forum Research Group".getBytes();
+		Poly1305 poly = new Poly1305();
+		poly.init(hex("85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b"), 0);
+		poly.update(message, 0, 5);
+		poly.update(message, 5, 20);
+		poly.update(message, 25, message.length - 25);
+
+		byte[] tag = new byte[Poly1305.TAG_SIZE];
+		poly.doFinal(tag, 0);
+		assertTrue(Arrays.equals(hex("a8061dc1305136c6c22b8baf0c0127a9"), tag));
+	}
+
+	/* a packet with sequence number 7, as OpenSSH seals it */
+	private static final byte[] PLAIN_PACKET = hex("000000180a5e68656c6c6f2c20776f726c64a0a1a2a3a4a5a6a7a8a9");
+	private static final byte[] SEALED_PACKET = hex("f7b7d607da0229d957bd0291365cfe12e0690758b47ff00e07fe0bc3"
+			+ "144ebaba862086a77a17522d68f22f50");
+
+	public void testSeal_OpenSsh() throws IOException {
+		byte[] buf = new byte[PLAIN_PACKET.length + 16];
+		System.arraycopy(PLAIN_PACKET, 0, buf, 0, PLAIN_PACKET.length);
+
+		new ChaCha20Poly1305(bytes(64, 1)).seal(7, buf, 0, PLAIN_PACKET.length);
+		assertTrue(Arrays.equals(SEALED_PACKET, buf));
+	}
+
+	public void testOpen_OpenSsh() throws IOException {
+		byte[] buf = SEALED_PACKET.clone();
+		ChaCha20Poly1305 cipher = new ChaCha20Poly1305(bytes(64, 1));
+
+		assertEquals(PLAIN_PACKET.length - 4, cipher.getPacketLength(7, buf, 0));
+		cipher.open(7, buf, 0, PLAIN_PACKET.length);
+
+		for (int i = 4; i < PLAIN_PACKET.length; i++)
+			assertEquals(PLAIN_PACKET[i], buf[i]);
+	}
+
+	public void testOpen_WrongSequenceNumber() {
+		try {
+			new ChaCha20Poly1305(bytes(64, 1)).open(8, SEALED_PACKET.clone(), 0, PLAIN_PACKET.length);
+			fail("Should not accept a packet out of order");
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trilead.ssh2.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.trilead.ssh2.compression.Zlib;
+import com.trilead.ssh2.crypto.cipher.BlockCipherFactory;
+import com.trilead.ssh2.crypto.cipher.GCMCipher;
+import com.trilead.ssh2.crypto.digest.MAC;
+import com.trilead.ssh2.packets.PacketChannelData;
+import com.trilead.ssh2.packets.Packets;
+
+public class TransportConnectionTest extends AndroidTestCase {
+	private static final String TAG = "ConnectBot.TransportConnectionTest";
+
+	private static final SecureRandom random = new SecureRandom();
+
+	private static byte[] bytes(int length, int seed) {
+		byte[] b = new byte[length];
+		for (int i = 0; i < length; i++)
+			b[i] = (byte) (seed + i * 7);
+		return b;
+	}
+
+	private static byte[] send(String cipher, byte[][] messages) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TransportConnection sender = new TransportConnection(null, out, random);
+		if (BlockCipherFactory.isAead(cipher))
+			sender.changeSendCipher(BlockCipherFactory.createAeadCipher(cipher, true,
+					bytes(BlockCipherFactory.getKeySize(cipher), 1),
+					bytes(BlockCipherFactory.getIvSize(cipher), 2)));
+		else
+			sender.changeSendCipher(BlockCipherFactory.createCipher(cipher, true,
+					bytes(BlockCipherFactory.getKeySize(cipher), 1),
+					bytes(BlockCipherFactory.getIvSize(cipher), 2)),
+					new MAC("hmac-sha1", bytes(20, 3)));
+		for (int i = 0; i < messages.length; i++)
+			sender.sendMessage(messages[i]);
+		return out.toByteArray();
+	}
+
+	private static TransportConnection receiver(String cipher, byte[] packets) {
+		TransportConnection receiver = new TransportConnection(new ByteArrayInputStream(packets), null, random);
+		if (BlockCipherFactory.isAead(cipher))
+			receiver.changeRecvCipher(BlockCipherFactory.createAeadCipher(cipher, false,
+					bytes(BlockCipherFactory.getKeySize(cipher), 1),
+					bytes(BlockCipherFactory.getIvSize(cipher), 2)));
+		else
+			receiver.changeRecvCipher(BlockCipherFactory.createCipher(cipher, false,
+					bytes(BlockCipherFactory.getKeySize(cipher), 1),
+					bytes(BlockCipherFactory.getIvSize(cipher), 2)),
+					new MAC("hmac-sha1", bytes(20, 3)));
+		return receiver;
+	}
+
+	private void assertRoundTrip(String cipher) throws IOException {
+		byte[][] messages = { bytes(1, 94), bytes(100, 94), bytes(32000, 94) };
+		TransportConnection receiver = receiver(cipher, send(cipher, messages));
+
+		byte[] buffer = new byte[35000];
+		for (int i = 0; i < messages.length; i++) {
+			int length = receiver.receiveMessage(buffer, 0, buffer.length);
+			assertEquals(messages[i].length, length);
+			for (int j = 0; j < length; j++)
+				assertEquals(messages[i][j], buffer[j]);
+		}
+	}
+
+	private void assertTamperingDetected(String cipher) throws IOException {
+		byte[] packets = send(cipher, new byte[][] { bytes(50, 94) });
+		packets[10] ^= 1;
+
+		try {
+			receiver(cipher, packets).receiveMessage(new byte[35000], 0, 35000);
+			fail("Should not accept a changed packet");
+		} catch (IOException e) {
+		}
+	}
+
+	public void testBlock_RoundTrip() throws IOException {
+		assertRoundTrip("aes128-ctr");
+		assertRoundTrip("aes256-cbc");
+		assertRoundTrip("blowfish-ctr");
+		assertRoundTrip("3des-cbc");
+	}
+
+	public void testBlock_TamperingDetected() throws IOException {
+		assertTamperingDetected("aes128-ctr");
+		assertTamperingDetected("aes128-cbc");
+	}
+
+	public void testBlock_JavaCipherAgrees() throws IOException {
+		String[] ciphers = { "aes128-ctr", "aes256-ctr", "aes128-cbc", "aes256-cbc" };
+
+		for (int i = 0; i < ciphers.length; i++) {
+			String cipher = ciphers[i];
+			byte[][] messages = { bytes(100, 94), bytes(32000, 94) };
+
+			TransportConnection receiver = new TransportConnection(
+					new ByteArrayInputStream(send(cipher, messages)), null, random);
+			receiver.changeRecvCipher(BlockCipherFactory.createJavaCipher(cipher, false,
+					bytes(BlockCipherFactory.getKeySize(cipher), 1),
+					bytes(BlockCipherFactory.getIvSize(cipher), 2)),
+					new MAC("hmac-sha1", bytes(20, 3)));
+
+			byte[] buffer = new byte[35000];
+			for (int j = 0; j < messages.length; j++)
+				assertEquals(cipher, messages[j].length, receiver.receiveMessage(buffer, 0, buffer.length));
+		}
+	}
+
+	public void testPayload_WrittenIntoPacket() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TransportConnection sender = new TransportConnection(null, out, random);
+		sender.changeSendCipher(BlockCipherFactory.createCipher("aes128-ctr", true, bytes(16, 1), bytes(16, 2)),
+				new MAC("hmac-sha1", bytes(20, 3)));
+
+		byte[] data = bytes(1000, 5);
+		sender.sendMessage(new PacketChannelData(7, data, 3, 900));
+
+		byte[] buffer = new byte[35000];
+		int length = receiver("aes128-ctr", out.toByteArray()).receiveMessage(buffer, 0, buffer.length);
+
+		assertEquals(9 + 900, length);
+		assertEquals(Packets.SSH_MSG_CHANNEL_DATA, buffer[0]);
+		assertEquals(7, buffer[4]);
+		assertEquals(900, ((buffer[7] & 0xff) << 8) | (buffer[8] & 0xff));
+		for (int i = 0; i < 900; i++)
+			assertEquals(data[3 + i], buffer[9 + i]);
+	}
+
+	public void testSend_OneWritePerPacket() throws IOException {
+		final int[] writes = new int[1];
+		TransportConnection sender = new TransportConnection(null, new OutputStream() {
+			@Override
+			public void write(int b) {
+				fail("Should not write single bytes");
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				writes[0]++;
+			}
+		}, random);
+		sender.changeSendCipher(BlockCipherFactory.createCipher("aes128-ctr", true, bytes(16, 1), bytes(16, 2)),
+				new MAC("hmac-sha1", bytes(20, 3)));
+
+		sender.sendMessage(bytes(10, 94));
+		sender.sendMessage(bytes(32000, 94));
+		sender.sendMessage(new PacketChannelData(0, bytes(5000, 1), 0, 5000));
+
+		assertEquals(3, writes[0]);
+	}
+
+	private void assertLargePacket(String cipher) throws IOException {
+		byte[][] messages = { bytes(100, 94), bytes(256 * 1024 + 9, 94), bytes(100, 95) };
+		TransportConnection receiver = receiver(cipher, send(cipher, messages));
+
+		byte[] buffer = new byte[TransportConnection.MAX_PACKET_LENGTH];
+		for (int i = 0; i < messages.length; i++) {
+			assertEquals(cipher, messages[i].length, receiver.peekNextMessageLength());
+			assertEquals(cipher, messages[i].length, receiver.receiveMessage(buffer, 0, buffer.length));
+			assertEquals(cipher, messages[i][messages[i].length - 1], buffer[messages[i].length - 1]);
+		}
+	}
+
+	public void testReceive_LargePackets() throws IOException {
+		assertLargePacket("aes128-ctr");
+		assertLargePacket("aes128-cbc");
+		assertLargePacket("chacha20-poly1305@openssh.com");
+		if (GCMCipher.isAvailable())
+			assertLargePacket("aes256-gcm@openssh.com");
+	}
+
+	public void testReceive_TooLargeRejected() throws IOException {
+		byte[] packets = send("aes128-ctr", new byte[][] { bytes(TransportConnection.MAX_PACKET_LENGTH, 94) });
+
+		try {
+			receiver("aes128-ctr", packets).peekNextMessageLength();
+			fail("Should not accept a packet over the limit");
+		} catch (IOException e) {
+		}
+	}
+
+	public void testReceive_LargeCompressedPacket() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TransportConnection sender = new TransportConnection(null, out, random);
+		sender.changeSendCompression(new Zlib());
+
+		byte[] data = new byte[200000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) ('a' + i % 26);
+		sender.sendMessage(new PacketChannelData(7, data, 0, data.length));
+		sender.sendMessage(bytes(10, 94));
+
+		TransportConnection receiver = new TransportConnection(new ByteArrayInputStream(out.toByteArray()), null,
+				random);
+		receiver.changeRecvCompression(new Zlib());
+
+		/* sized the way TransportManager.receiveLoop() does it */
+		int length = receiver.peekNextMessageLength();
+		assertEquals("Should tell the inflated length", 9 + data.length, length);
+
+		byte[] buffer = new byte[length + 1];
+		assertEquals(9 + data.length, receiver.receiveMessage(buffer, 0, buffer.length));
+		assertEquals(Packets.SSH_MSG_CHANNEL_DATA, buffer[0]);
+		assertEquals(7, buffer[4]);
+		for (int i = 0; i < data.length; i++)
+			assertEquals(data[i], buffer[9 + i]);
+
+		assertEquals(10, receiver.receiveMessage(buffer, 0, buffer.length));
+		assertEquals(94, buffer[0]);
+	}
+
+	public void testGcm_RoundTrip() throws IOException {
+		if (!GCMCipher.isAvailable())
+			return;
+
+		assertRoundTrip("aes128-gcm@openssh.com");
+		assertRoundTrip("aes256-gcm@openssh.com");
+	}
+
+	public void testGcm_LengthInTheClear() throws IOException {
+		if (!GCMCipher.isAvailable())
+			return;
+
+		byte[] packets = send("aes128-gcm@openssh.com", new byte[][] { bytes(10, 94) });
+		int length = ((packets[0] & 0xff) << 24) | ((packets[1] & 0xff) << 16)
+				| ((packets[2] & 0xff) << 8) | (packets[3] & 0xff);
+
+		assertEquals("Packet should be padded to the block size without the length", 0, length % 16);
+		assertEquals(4 + length + 16, packets.length);
+	}
+
+	public void testGcm_TamperingDetected() throws IOException {
+		if (!GCMCipher.isAvailable())
+			return;
+
+		assertTamperingDetected("aes128-gcm@openssh.com");
+	}
+
+	public void testChaCha20Poly1305_RoundTrip() throws IOException {
+		assertRoundTrip("chacha20-poly1305@openssh.com");
+	}
+
+	public void testChaCha20Poly1305_LengthEncrypted() throws IOException {
+		byte[] packets = send("chacha20-poly1305@openssh.com", new byte[][] { bytes(10, 94) });
+		int length = BlockCipherFactory.createAeadCipher("chacha20-poly1305@openssh.com", false,
+				bytes(64, 1), new byte[0]).getPacketLength(0, packets, 0);
+
+		assertEquals("Packet should be padded to the block size without the length", 0, length % 8);
+		assertEquals(4 + length + 16, packets.length);
+		assertFalse("Length should not be sent in the clear", packets[3] == length);
+	}
+
+	public void testChaCha20Poly1305_TamperingDetected() throws IOException {
+		assertTamperingDetected("chacha20-poly1305@openssh.com");
+	}
+
+	private static final OutputStream nowhere = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private static long timeSending(TransportConnection sender, byte[] message, int count) throws IOException {
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++)
+			sender.sendMessage(message);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Not a pass or fail test: logs how fast chacha20-poly1305@openssh.com
+	 * sends compared to aes128-ctr with hmac-sha1, the best we had before.
+	 */
+	public void testThroughput_ChaCha20Poly1305AgainstAesCtr() throws IOException {
+		byte[] message = bytes(32768, 94);
+		int count = 64;
+
+		TransportConnection chacha = new TransportConnection(null, nowhere, random);
+		chacha.changeSendCipher(BlockCipherFactory.createAeadCipher("chacha20-poly1305@openssh.com", true,
+				bytes(64, 1), new byte[0]));
+
+		TransportConnection aes = new TransportConnection(null, nowhere, random);
+		aes.changeSendCipher(BlockCipherFactory.createCipher("aes128-ctr", true, bytes(16, 1), bytes(16, 2)),
+				new MAC("hmac-sha1", bytes(20, 3)));
+
+		/* let the compiler get to both first */
+		timeSending(chacha, message, count);
+		timeSending(aes, message, count);
+
+		long chachaNanos = timeSending(chacha, message, count);
+		long aesNanos = timeSending(aes, message, count);
+
+		long bytes = (long) message.length * count;
+		Log.i(TAG, String.format("chacha20-poly1305: %d KiB/s, aes128-ctr with hmac-sha1: %d KiB/s",
+				bytes * 1000000000L / 1024 / Math.max(chachaNanos, 1),
+				bytes * 1000000000L / 1024 / Math.max(aesNanos, 1)));
+	}
+}
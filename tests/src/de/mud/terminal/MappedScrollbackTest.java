@@ -0,0 +1,121 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.test.AndroidTestCase;
+
+public class MappedScrollbackTest extends AndroidTestCase {
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = File.createTempFile("scrollback", null);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	private static char[] packed(String text) {
+		char[] chars = text.toCharArray();
+		return PackedLine.pack(chars, new int[chars.length]);
+	}
+
+	private static String text(char[] packed) {
+		char[] chars = new char[20];
+		PackedLine.unpack(packed, chars, new int[chars.length]);
+		return new String(chars).trim();
+	}
+
+	public void testAddAndGet() throws IOException {
+		MappedScrollback store = new MappedScrollback(file);
+		store.setMaxLines(100);
+		store.add(packed("first"));
+		store.add(PackedLine.EMPTY);
+		store.add(packed("third"));
+
+		assertEquals(3, store.size());
+		assertEquals("first", text(store.get(0)));
+		assertSame(PackedLine.EMPTY, store.get(1));
+		assertEquals("third", text(store.get(2)));
+		store.close();
+	}
+
+	public void testTrim_DropsOldestLines() throws IOException {
+		MappedScrollback store = new MappedScrollback(file);
+		store.setMaxLines(10);
+		for (int i = 0; i < 25; i++)
+			store.add(packed("line" + i));
+
+		assertEquals(15, store.trim());
+		assertEquals(10, store.size());
+		assertEquals("line15", text(store.get(0)));
+		assertEquals("line24", text(store.get(9)));
+		store.close();
+	}
+
+	public void testReopen_KeepsLines() throws IOException {
+		MappedScrollback store = new MappedScrollback(file);
+		store.setMaxLines(3);
+		for (int i = 0; i < 5; i++)
+			store.add(packed("line" + i));
+		store.trim();
+		store.close();
+
+		store = new MappedScrollback(file);
+		assertEquals(3, store.size());
+		assertEquals("line2", text(store.get(0)));
+		assertEquals("line4", text(store.get(2)));
+		store.close();
+	}
+
+	public void testManyLines_ReusesFile() throws IOException {
+		MappedScrollback store = new MappedScrollback(file);
+		store.setMaxLines(1000);
+		char[] chars = new char[80];
+		Arrays.fill(chars, 'x');
+		for (int i = 0; i < 50000; i++) {
+			chars[0] = (char) ('a' + i % 26);
+			store.add(PackedLine.pack(chars, new int[chars.length]));
+			store.trim();
+		}
+
+		assertEquals(1000, store.size());
+		assertEquals('a' + 49999 % 26, text(store.get(999)).charAt(0));
+		assertTrue("Removed lines should make room for new ones",
+				file.length() < 1000 * 100 * 2 * 4);
+		store.close();
+	}
+
+	public void testGarbage_StartsEmpty() throws IOException {
+		java.io.FileOutputStream out = new java.io.FileOutputStream(file);
+		out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13 });
+		out.close();
+
+		MappedScrollback store = new MappedScrollback(file);
+		assertEquals(0, store.size());
+		store.close();
+	}
+}
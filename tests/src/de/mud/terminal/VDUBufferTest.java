@@ -0,0 +1,412 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Tests for the line storage, scrollback and damage tracking of the buffer.
+ */
+public class VDUBufferTest extends AndroidTestCase {
+	private static final int WIDTH = 10;
+	private static final int HEIGHT = 4;
+
+	private static class NullDisplay implements VDUDisplay {
+		private VDUBuffer buffer;
+
+		public void redraw() {
+		}
+
+		public void updateScrollBar() {
+		}
+
+		public void setVDUBuffer(VDUBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public VDUBuffer getVDUBuffer() {
+			return buffer;
+		}
+
+		public void setColor(int index, int red, int green, int blue) {
+		}
+
+		public void resetColors() {
+		}
+	}
+
+	private VDUBuffer createBuffer(int scrollback) {
+		VDUBuffer buffer = new VDUBuffer(WIDTH, HEIGHT);
+		buffer.setDisplay(new NullDisplay());
+		buffer.setBufferSize(scrollback);
+		return buffer;
+	}
+
+	private static String line(VDUBuffer buffer, int line) {
+		return new String(buffer.getLineChars(line)).trim();
+	}
+
+	/**
+	 * Scroll the whole screen once per line of output, the way a terminal
+	 * does when the cursor sits on the bottom line.
+	 */
+	private static void output(VDUBuffer buffer, int count) {
+		for (int i = 0; i < count; i++) {
+			buffer.insertLine(HEIGHT - 1, 1, VDUBuffer.SCROLL_UP);
+			buffer.putString(0, HEIGHT - 1, "line" + i);
+		}
+	}
+
+	public void testScrollback_Growing() {
+		VDUBuffer buffer = createBuffer(10);
+		output(buffer, 3);
+
+		assertEquals("Buffer should grow by the scrolled lines",
+				HEIGHT + 3, buffer.getBufferSize());
+		assertEquals(3, buffer.screenBase);
+		assertEquals(buffer.screenBase, buffer.windowBase);
+		assertEquals("line2", line(buffer, buffer.screenBase + HEIGHT - 1));
+		assertEquals("line0", line(buffer, buffer.screenBase + HEIGHT - 3));
+	}
+
+	public void testScrollback_Wraps() {
+		VDUBuffer buffer = createBuffer(10);
+		output(buffer, 25);
+
+		assertEquals(10, buffer.getBufferSize());
+		assertEquals(10 - HEIGHT, buffer.screenBase);
+
+		// oldest line kept is the tenth from the end
+		assertEquals("line15", line(buffer, 0));
+		assertEquals("line24", line(buffer, 9));
+		assertEquals("line21", line(buffer, buffer.screenBase));
+	}
+
+	public void testScrollback_ReusesDroppedLines() {
+		VDUBuffer buffer = createBuffer(10);
+		output(buffer, 10);
+
+		char[] oldest = buffer.getLineChars(0);
+		output(buffer, 1);
+
+		assertSame("Line dropped off the top should be reused at the bottom",
+				oldest, buffer.getLineChars(9));
+	}
+
+	public void testScrollback_RecyclesLines() {
+		VDUBuffer buffer = createBuffer(20);
+		output(buffer, 20);
+
+		Map<char[], Boolean> lines = new IdentityHashMap<char[], Boolean>();
+		for (int i = 0; i < buffer.getBufferSize(); i++)
+			lines.put(buffer.getLineChars(i), Boolean.TRUE);
+		output(buffer, 100);
+
+		for (int i = 0; i < buffer.getBufferSize(); i++)
+			assertTrue("Line " + i + " should reuse the arrays of a dropped line",
+					lines.containsKey(buffer.getLineChars(i)));
+		assertEquals("line99", line(buffer, buffer.getBufferSize() - 1));
+	}
+
+	public void testScrollRegion_KeepsLinesOutsideMargins() {
+		VDUBuffer buffer = createBuffer(10);
+		buffer.putString(0, 0, "status");
+		buffer.putString(0, 1, "first");
+		buffer.putString(0, 2, "second");
+		buffer.putString(0, 3, "footer");
+		buffer.setMargins(1, 2);
+
+		buffer.insertLine(2, 1, VDUBuffer.SCROLL_UP);
+
+		assertEquals("first", line(buffer, buffer.screenBase - 1));
+		assertEquals("status", line(buffer, buffer.screenBase));
+		assertEquals("second", line(buffer, buffer.screenBase + 1));
+		assertEquals("", line(buffer, buffer.screenBase + 2));
+		assertEquals("footer", line(buffer, buffer.screenBase + 3));
+	}
+
+	public void testScrollDown_InsertsBlankLine() {
+		VDUBuffer buffer = createBuffer(10);
+		for (int i = 0; i < HEIGHT; i++)
+			buffer.putString(0, i, "row" + i);
+
+		buffer.insertLine(1, 1, VDUBuffer.SCROLL_DOWN);
+
+		assertEquals("row0", line(buffer, buffer.screenBase));
+		assertEquals("", line(buffer, buffer.screenBase + 1));
+		assertEquals("row1", line(buffer, buffer.screenBase + 2));
+		assertEquals("row2", line(buffer, buffer.screenBase + 3));
+	}
+
+	public void testKeepScrollback_Off() {
+		VDUBuffer buffer = createBuffer(20);
+		output(buffer, HEIGHT + 2);
+		buffer.setKeepScrollback(false);
+		output(buffer, 10);
+
+		assertEquals("Buffer should not grow while scrollback is not kept",
+				2 * HEIGHT + 2, buffer.getBufferSize());
+		assertEquals("line1", line(buffer, buffer.screenBase - 1));
+		assertEquals("line6", line(buffer, buffer.screenBase));
+		assertEquals("line9", line(buffer, buffer.screenBase + HEIGHT - 1));
+
+		buffer.setKeepScrollback(true);
+		output(buffer, 1);
+		assertEquals("line6", line(buffer, buffer.screenBase - 1));
+	}
+
+	public void testSetBufferSize_KeepsNewestLines() {
+		VDUBuffer buffer = createBuffer(20);
+		output(buffer, 30);
+
+		buffer.setBufferSize(6);
+
+		assertEquals(6, buffer.getBufferSize());
+		assertEquals(6 - HEIGHT, buffer.screenBase);
+		assertEquals("line24", line(buffer, 0));
+		assertEquals("line29", line(buffer, 5));
+	}
+
+	public void testScrollback_PackedLinesKeepAttributes() {
+		VDUBuffer buffer = createBuffer(10);
+		buffer.putString(0, HEIGHT - 1, "bold", VDUBuffer.BOLD);
+		buffer.putString(4, HEIGHT - 1, "plain");
+		output(buffer, HEIGHT);
+
+		int line = buffer.screenBase - 1;
+		assertEquals("boldplain", line(buffer, line));
+		assertEquals(VDUBuffer.BOLD, buffer.getLineAttributes(line)[3]);
+		assertEquals(VDUBuffer.NORMAL, buffer.getLineAttributes(line)[4]);
+		assertEquals(' ', buffer.getLineChars(line)[WIDTH - 1]);
+	}
+
+	public void testSetScreenSize_KeepsScrollback() {
+		VDUBuffer buffer = createBuffer(20);
+		output(buffer, 10);
+
+		buffer.setScreenSize(WIDTH / 2, HEIGHT, false);
+
+		assertEquals(WIDTH / 2, buffer.getLineChars(0).length);
+		assertEquals("line0", line(buffer, buffer.screenBase - 6));
+
+		buffer.setScreenSize(WIDTH, HEIGHT, false);
+
+		assertEquals(WIDTH, buffer.getLineChars(0).length);
+		assertEquals("line5", line(buffer, buffer.screenBase - 1));
+	}
+
+	public void testSetScreenSize_KeepsLinesOnHeightChange() {
+		VDUBuffer buffer = createBuffer(20);
+		output(buffer, 10);
+		char[] last = buffer.getLineChars(buffer.getBufferSize() - 1);
+
+		buffer.setScreenSize(WIDTH, HEIGHT + 2, false);
+
+		assertSame("Line of the same width should be kept",
+				last, buffer.getLineChars(buffer.getBufferSize() - 1));
+		assertEquals("line9", line(buffer, buffer.getBufferSize() - 1));
+	}
+
+	public void testHistory_KeepsOldestLines() {
+		VDUBuffer buffer = createBuffer(2000);
+		output(buffer, 1500);
+
+		assertEquals(HEIGHT + 1500, buffer.getBufferSize());
+		assertEquals("line0", line(buffer, HEIGHT));
+		assertEquals("line700", line(buffer, HEIGHT + 700));
+		assertEquals("line1499", line(buffer, buffer.screenBase + HEIGHT - 1));
+	}
+
+	public void testHistory_DropsOldestLines() {
+		VDUBuffer buffer = createBuffer(1000);
+		output(buffer, 3000);
+
+		assertEquals(1000, buffer.getBufferSize());
+		assertEquals(1000 - HEIGHT, buffer.screenBase);
+		assertEquals("line2000", line(buffer, 0));
+		assertEquals("line2500", line(buffer, 500));
+		assertEquals("line2999", line(buffer, 999));
+	}
+
+	public void testHistory_KeepsAttributes() {
+		VDUBuffer buffer = createBuffer(2000);
+		buffer.putString(0, HEIGHT - 1, "bold", VDUBuffer.BOLD);
+		output(buffer, 1000);
+
+		assertEquals("bold", line(buffer, HEIGHT - 1));
+		assertEquals(VDUBuffer.BOLD, buffer.getLineAttributes(HEIGHT - 1)[0]);
+		assertEquals(VDUBuffer.NORMAL, buffer.getLineAttributes(HEIGHT)[0]);
+	}
+
+	public void testHistory_SetBufferSize() {
+		VDUBuffer buffer = createBuffer(1000);
+		output(buffer, 3000);
+
+		buffer.setBufferSize(600);
+		assertEquals(600, buffer.getBufferSize());
+		assertEquals("line2400", line(buffer, 0));
+
+		// small enough to keep every line uncompressed again
+		buffer.setBufferSize(300);
+		assertEquals(300, buffer.getBufferSize());
+		assertEquals("line2700", line(buffer, 0));
+		assertEquals("line2999", line(buffer, 299));
+	}
+
+	public void testScrollbackStore_KeepsHistory() throws Exception {
+		java.io.File file = java.io.File.createTempFile("scrollback", null);
+		try {
+			MappedScrollback store = new MappedScrollback(file);
+			VDUBuffer buffer = createBuffer(2000);
+			buffer.setScrollbackStore(store);
+			output(buffer, 1500);
+
+			assertEquals(HEIGHT + 1500, buffer.getBufferSize());
+			assertEquals("line0", line(buffer, HEIGHT));
+			assertTrue(store.size() > 0);
+			store.close();
+
+			// a new buffer picks up the history left in the file
+			store = new MappedScrollback(file);
+			int lines = store.size();
+			buffer = createBuffer(2000);
+			buffer.setScrollbackStore(store);
+
+			assertEquals(HEIGHT + lines, buffer.getBufferSize());
+			assertEquals(lines, buffer.screenBase);
+			assertEquals("line0", line(buffer, HEIGHT));
+			store.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void clean(VDUBuffer buffer) {
+		for (int l = 0; l <= HEIGHT; l++) {
+			buffer.update[l] = false;
+			buffer.updateStart[l] = WIDTH;
+			buffer.updateEnd[l] = 0;
+		}
+	}
+
+	public void testDamage_PutStringMarksColumns() {
+		VDUBuffer buffer = createBuffer(10);
+		clean(buffer);
+
+		buffer.putString(3, 1, "abc");
+		buffer.putChar(8, 1, 'x');
+
+		assertTrue(buffer.update[2]);
+		assertEquals(3, buffer.updateStart[2]);
+		assertEquals(9, buffer.updateEnd[2]);
+		assertFalse(buffer.update[1]);
+		assertFalse(buffer.update[3]);
+	}
+
+	public void testDamage_DeleteCharMarksRestOfLine() {
+		VDUBuffer buffer = createBuffer(10);
+		clean(buffer);
+
+		buffer.deleteChar(4, 2);
+
+		assertEquals(4, buffer.updateStart[3]);
+		assertEquals(WIDTH, buffer.updateEnd[3]);
+	}
+
+	public void testDamage_DeleteAreaMarksArea() {
+		VDUBuffer buffer = createBuffer(10);
+		clean(buffer);
+
+		buffer.deleteArea(2, 1, 3, 2);
+
+		for (int l = 1; l <= 2; l++) {
+			assertTrue(buffer.update[l + 1]);
+			assertEquals(2, buffer.updateStart[l + 1]);
+			assertEquals(5, buffer.updateEnd[l + 1]);
+		}
+		assertFalse(buffer.update[4]);
+	}
+
+	public void testScrollJournal_RecordsScroll() {
+		VDUBuffer buffer = createBuffer(10);
+		clean(buffer);
+		buffer.putChar(2, 1, 'x');
+
+		buffer.insertLine(HEIGHT - 1, 1, VDUBuffer.SCROLL_UP);
+
+		int[] journal = new int[3 * VDUBuffer.SCROLL_JOURNAL_SIZE];
+		assertEquals(1, buffer.takeScrolls(journal));
+		assertEquals(0, journal[0]);
+		assertEquals(HEIGHT - 1, journal[1]);
+		assertEquals(1, journal[2]);
+
+		// the damage moved up along with the line, only the new line is drawn
+		assertTrue(buffer.update[1]);
+		assertEquals(2, buffer.updateStart[1]);
+		assertEquals(3, buffer.updateEnd[1]);
+		assertFalse(buffer.update[2]);
+		assertTrue(buffer.update[HEIGHT]);
+
+		assertEquals(0, buffer.takeScrolls(journal));
+	}
+
+	public void testScrollJournal_ScrollDown() {
+		VDUBuffer buffer = createBuffer(10);
+		clean(buffer);
+
+		buffer.insertLine(1, 1, VDUBuffer.SCROLL_DOWN);
+
+		int[] journal = new int[3 * VDUBuffer.SCROLL_JOURNAL_SIZE];
+		assertEquals(1, buffer.takeScrolls(journal));
+		assertEquals(1, journal[0]);
+		assertEquals(HEIGHT - 1, journal[1]);
+		assertEquals(-1, journal[2]);
+		assertFalse(buffer.update[1]);
+		assertTrue(buffer.update[2]);
+		assertFalse(buffer.update[3]);
+	}
+
+	public void testScrollJournal_OverflowRedrawsAll() {
+		VDUBuffer buffer = createBuffer(100);
+		clean(buffer);
+
+		output(buffer, VDUBuffer.SCROLL_JOURNAL_SIZE + 1);
+
+		assertTrue(buffer.update[0]);
+		assertEquals(0, buffer.takeScrolls(new int[3 * VDUBuffer.SCROLL_JOURNAL_SIZE]));
+	}
+
+	public void testScrollJournal_NotWhileScrolledBack() {
+		VDUBuffer buffer = createBuffer(100);
+		output(buffer, 10);
+		buffer.setWindowBase(2);
+		clean(buffer);
+
+		output(buffer, 1);
+
+		assertEquals(0, buffer.takeScrolls(new int[3 * VDUBuffer.SCROLL_JOURNAL_SIZE]));
+		for (int l = 0; l < HEIGHT; l++) {
+			assertTrue(buffer.update[l + 1]);
+			assertEquals(0, buffer.updateStart[l + 1]);
+			assertEquals(WIDTH, buffer.updateEnd[l + 1]);
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+import android.text.AndroidCharacter;
+
+public class vt320Test extends AndroidTestCase {
+	private static final int WIDTH = 10;
+	private static final int HEIGHT = 4;
+
+	private static final String[] PIECES = {
+		"hello", "world ", "a", "0123456789abcdef", "\r", "\n", "\r\n",
+		"\033[H", "\033[2;5H", "\033[1m", "\033[0m", "\033[4h", "\033[4l",
+		"\033(0", "\033(B", "\016", "\017", "\033[2;3r", "\033[r", "\033[K",
+		"\033[?7l", "\033[?7h", "\t", "\033[31m", "~~~~~~~~~~~~",
+	};
+
+	private static final String[] SEQUENCES = {
+		"hello", "0123456789abcdef", "\r\n", "\n", "\b", "\t",
+		"\033[H", "\033[3;7H", "\033[2A", "\033[B", "\033[5C", "\033[D",
+		"\033[1;31;42m", "\033[0m", "\033[7m", "\033[J", "\033[3;7H\033[1K", "\033[2J",
+		"\033[2L", "\033[M", "\r\033[3@", "\r\033[2P", "\033[2;3r", "\033[r",
+		"\033[?7l", "\033[?7h", "\033(0qqq\033(B",
+		"\0337", "\0338", "\033D", "\033M", "\033E", "\033]0;title\007",
+		"\033]4;1;rgb:11/22/33\033\\", "\033P1$r\033\\", "\033[=1F",
+		"\033[?25l", "\033[?25h", "\033[1;2;3;4;5;6;7;8m", "\033[K",
+	};
+
+	private static class NullDisplay implements VDUDisplay {
+		private VDUBuffer buffer;
+
+		public void redraw() {
+		}
+
+		public void updateScrollBar() {
+		}
+
+		public void setVDUBuffer(VDUBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public VDUBuffer getVDUBuffer() {
+			return buffer;
+		}
+
+		public void setColor(int index, int red, int green, int blue) {
+		}
+
+		public void resetColors() {
+		}
+	}
+
+	private static vt320 createTerminal() {
+		vt320 terminal = new vt320(WIDTH, HEIGHT) {
+			@Override
+			public void debug(String notice) {
+			}
+
+			@Override
+			public void write(byte[] b) {
+			}
+
+			@Override
+			public void write(int b) {
+			}
+		};
+		terminal.setDisplay(new NullDisplay());
+		terminal.setBufferSize(20);
+		return terminal;
+	}
+
+	private static vt320 createTerminal(boolean tableParser) {
+		vt320 terminal = createTerminal();
+		terminal.setTableParser(tableParser);
+		return terminal;
+	}
+
+	private static void assertSameScreen(String message, vt320 expected, vt320 actual) {
+		assertEquals(message + " cursor column", expected.getCursorColumn(), actual.getCursorColumn());
+		assertEquals(message + " cursor row", expected.getCursorRow(), actual.getCursorRow());
+		for (int l = 0; l < expected.getBufferSize(); l++) {
+			assertEquals(message + " line " + l, new String(expected.getLineChars(l)),
+					new String(actual.getLineChars(l)));
+			for (int c = 0; c < WIDTH; c++)
+				assertEquals(message + " line " + l, expected.getLineAttributes(l)[c],
+						actual.getLineAttributes(l)[c]);
+		}
+	}
+
+	private static void putSlowly(vt320 terminal, String s) {
+		char[] chars = s.toCharArray();
+		for (int i = 0; i < chars.length; i++)
+			terminal.putString(chars, null, i, 1);
+	}
+
+	private static String line(vt320 terminal, int l) {
+		return new String(terminal.getLineChars(terminal.screenBase + l), 0, WIDTH);
+	}
+
+	public void testPutString_RunWraps() {
+		vt320 terminal = createTerminal();
+		terminal.putString("0123456789abcdefghijklmnopqrstuvwxyzABCD");
+
+		assertEquals("0123456789", line(terminal, 0));
+		assertEquals("abcdefghij", line(terminal, 1));
+		assertEquals("klmnopqrst", line(terminal, 2));
+		assertEquals("uvwxyzABCD", line(terminal, 3));
+		assertEquals(WIDTH, terminal.getCursorColumn());
+		assertEquals(3, terminal.getCursorRow());
+
+		terminal.putString("E");
+		assertEquals("abcdefghij", line(terminal, 0));
+		assertEquals('E', line(terminal, 3).charAt(0));
+		assertEquals(1, terminal.getCursorColumn());
+	}
+
+	public void testPutString_RunWithoutWraparound() {
+		vt320 terminal = createTerminal();
+		terminal.putString("\033[?7l0123456789abc");
+
+		assertEquals("012345678c", line(terminal, 0));
+		assertEquals(0, terminal.getCursorRow());
+	}
+
+	public void testPutString_RunMatchesSingleCharacters() {
+		Random random = new Random(7);
+		for (int round = 0; round < 200; round++) {
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < 40; i++)
+				text.append(PIECES[random.nextInt(PIECES.length)]);
+
+			vt320 fast = createTerminal();
+			vt320 slow = createTerminal();
+			fast.putString(text.toString());
+			putSlowly(slow, text.toString());
+
+			assertSameScreen("round " + round, slow, fast);
+		}
+	}
+
+	public void testTableParser_MatchesOriginal() {
+		Random random = new Random(8);
+		for (int round = 0; round < 200; round++) {
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < 40; i++)
+				text.append(SEQUENCES[random.nextInt(SEQUENCES.length)]);
+			char[] chars = text.toString().toCharArray();
+
+			vt320 original = createTerminal(false);
+			vt320 table = createTerminal(true);
+			original.putString(chars, null, 0, chars.length);
+			for (int start = 0; start < chars.length; ) {
+				int len = Math.min(chars.length - start, 1 + random.nextInt(8));
+				table.putString(chars, null, start, len);
+				start += len;
+			}
+
+			assertSameScreen("round " + round, original, table);
+		}
+	}
+
+	public void testTableParser_ControlInsideSequence() {
+		vt320 terminal = createTerminal(true);
+		terminal.putString("ab\033[2\r;3Hx");
+
+		assertEquals("ab        ", line(terminal, 0));
+		assertEquals("  x       ", line(terminal, 1));
+	}
+
+	public void testTableParser_Vt52Address() {
+		vt320 terminal = createTerminal(true);
+		terminal.putString("\033Y%*x");
+
+		assertEquals("     x    ", line(terminal, 0));
+	}
+
+	public void testTableParser_IgnoresUnknownSequence() {
+		vt320 terminal = createTerminal(true);
+		terminal.putString("\033[>1;2cab\033_private\033\\c");
+
+		assertEquals("abc       ", line(terminal, 0));
+	}
+
+	public void testCancelSequence() {
+		for (int i = 0; i < 2; i++) {
+			vt320 terminal = createTerminal(i == 1);
+			terminal.putString("ab\033[3");
+			terminal.cancelSequence();
+			terminal.putString("Hc");
+
+			assertEquals("abHc      ", line(terminal, 0));
+		}
+	}
+
+	public void testReflow_JoinsWrappedLine() {
+		vt320 terminal = createTerminal();
+		terminal.putString("0123456789abc");
+
+		terminal.setScreenSize(2 * WIDTH, HEIGHT, false);
+
+		assertEquals("0123456789abc", new String(terminal.getLineChars(terminal.screenBase)).trim());
+		assertEquals("", new String(terminal.getLineChars(terminal.screenBase + 1)).trim());
+		assertEquals(13, terminal.getCursorColumn());
+		assertEquals(0, terminal.getCursorRow());
+	}
+
+	public void testReflow_SplitsLongLine() {
+		vt320 terminal = createTerminal();
+		terminal.putString("0123456789\r\nxy");
+
+		terminal.setScreenSize(WIDTH / 2, HEIGHT, false);
+
+		// the cursor stays on its row, the text above it moves up
+		assertEquals("01234", new String(terminal.getLineChars(terminal.screenBase - 1)));
+		assertEquals("56789", new String(terminal.getLineChars(terminal.screenBase)));
+		assertEquals("xy   ", new String(terminal.getLineChars(terminal.screenBase + 1)));
+		assertEquals(2, terminal.getCursorColumn());
+		assertEquals(1, terminal.getCursorRow());
+
+		terminal.setScreenSize(WIDTH, HEIGHT, false);
+
+		assertEquals("0123456789", line(terminal, 0));
+		assertEquals("xy        ", line(terminal, 1));
+		assertEquals(1, terminal.getCursorRow());
+	}
+
+	public void testReflow_KeepsWideCharacterTogether() {
+		vt320 terminal = createTerminal();
+		terminal.putString("\r\nabcd");
+		char[] wide = { '\u4e2d' };
+		byte[] fullwidths = { AndroidCharacter.EAST_ASIAN_WIDTH_WIDE };
+		terminal.putString(wide, fullwidths, 0, 1);
+
+		terminal.setScreenSize(5, HEIGHT, false);
+
+		assertEquals("abcd ", new String(terminal.getLineChars(terminal.screenBase)));
+		assertEquals('\u4e2d', terminal.getLineChars(terminal.screenBase + 1)[0]);
+		assertEquals(1, terminal.getCursorRow());
+	}
+
+	public void testReflow_ScrollbackOnDemand() {
+		vt320 terminal = createTerminal();
+		for (int i = 0; i < 6; i++)
+			terminal.putString("line" + i + "-abcdefghij\r\n");
+		int lines = terminal.getBufferSize();
+
+		terminal.setScreenSize(2 * WIDTH, HEIGHT, false);
+
+		// the screen is rewrapped right away, the scrollback when shown
+		assertEquals("line5-abcdefghij", new String(terminal.getLineChars(terminal.screenBase + 2)).trim());
+		terminal.setWindowBase(0);
+		assertTrue(terminal.getBufferSize() < lines);
+		for (int i = 0; i < terminal.screenBase + 3; i++) {
+			String text = new String(terminal.getLineChars(i)).trim();
+			assertTrue(text, text.length() == 0 || text.endsWith("-abcdefghij"));
+		}
+	}
+
+	public void testReflow_Random() {
+		Random random = new Random(9);
+		vt320 terminal = createTerminal();
+		terminal.setBufferSize(40);
+		for (int round = 0; round < 300; round++) {
+			for (int i = 0; i < 5; i++)
+				terminal.putString(SEQUENCES[random.nextInt(SEQUENCES.length)]);
+			switch (random.nextInt(3)) {
+			case 0:
+				terminal.setScreenSize(3 + random.nextInt(20), 2 + random.nextInt(6), false);
+				break;
+			case 1:
+				terminal.setWindowBase(random.nextInt(terminal.screenBase + 1));
+				break;
+			}
+
+			assertTrue(terminal.getBufferSize() <= 40);
+			assertTrue(terminal.screenBase + terminal.height <= terminal.getBufferSize());
+			for (int l = 0; l < terminal.getBufferSize(); l++)
+				assertEquals(terminal.width, terminal.getLineChars(l).length);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import android.test.AndroidTestCase;
+
+public class FastForwardTest extends AndroidTestCase {
+	private static final long START = 100000;
+
+	public void testParsed_InteractiveOutputDrawn() {
+		FastForward fastForward = new FastForward();
+
+		for (long now = START; now < START + 1000; now += 10)
+			assertFalse(fastForward.parsed(100, 0, now));
+		assertEquals(0, fastForward.getFloods());
+	}
+
+	public void testParsed_BacklogFloods() {
+		FastForward fastForward = new FastForward();
+
+		assertTrue(fastForward.parsed(4096, FastForward.BACKLOG, START));
+		assertTrue("Should stay until the backlog is parsed",
+				fastForward.parsed(4096, 100, START + 1));
+		assertFalse(fastForward.parsed(100, 0, START + 2));
+		assertEquals(1, fastForward.getFloods());
+	}
+
+	public void testParsed_RateFloods() {
+		FastForward fastForward = new FastForward();
+		long now = START;
+
+		int batch = FastForward.RATE / 8;
+		for (int i = 0; i < 7; i++)
+			assertFalse(fastForward.parsed(batch, 0, now++));
+		assertTrue(fastForward.parsed(batch, 0, now));
+
+		assertTrue("Should stay for the window after a fast one",
+				fastForward.parsed(100, 0, START + FastForward.WINDOW));
+		assertFalse(fastForward.parsed(100, 0, START + 2 * FastForward.WINDOW));
+	}
+
+	public void testQuiet_EndsFlood() {
+		FastForward fastForward = new FastForward();
+		fastForward.parsed(FastForward.RATE, FastForward.BACKLOG, START);
+
+		fastForward.quiet();
+
+		assertFalse(fastForward.isActive());
+		assertFalse(fastForward.parsed(100, 0, START + FastForward.QUIET));
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import android.test.AndroidTestCase;
+import de.mud.terminal.VDUBuffer;
+
+public class FrameHandoffTest extends AndroidTestCase {
+	private VDUBuffer buffer;
+	private FrameHandoff handoff;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		buffer = new VDUBuffer(10, 4);
+		handoff = new FrameHandoff();
+
+		// the first frame of a new buffer is drawn entirely
+		assertTrue(handoff.takeIdle(buffer).entire);
+	}
+
+	private static String line(FrameHandoff.Frame frame, int l) {
+		return new String(frame.chars[l], frame.start[l], frame.end[l] - frame.start[l]);
+	}
+
+	public void testTakeIdle_CopiesChangedColumns() {
+		buffer.putString(2, 1, "abc");
+
+		FrameHandoff.Frame frame = handoff.takeIdle(buffer);
+		assertFalse(frame.entire);
+		assertEquals(1, frame.first);
+		assertEquals(1, frame.last);
+		assertEquals("abc", line(frame, 1));
+		assertEquals(0, frame.end[0]);
+		assertEquals(2, handoff.getFramesTaken());
+	}
+
+	public void testTakeIdle_NothingChanged() {
+		FrameHandoff.Frame frame = handoff.takeIdle(buffer);
+
+		assertTrue(frame.last < frame.first);
+	}
+
+	public void testTakeIdle_MissesWhileEmulating() {
+		handoff.beginEmulation();
+		buffer.putString(0, 0, "x");
+
+		assertNull("Renderer should not wait for the batch", handoff.takeIdle(buffer));
+		assertEquals(1, handoff.getRendererMisses());
+
+		handoff.endEmulation();
+		assertEquals("x", line(handoff.takeIdle(buffer), 0));
+	}
+
+	public void testIsEmulating() {
+		assertFalse(handoff.isEmulating());
+		handoff.beginEmulation();
+		assertTrue(handoff.isEmulating());
+		handoff.endEmulation();
+		assertFalse(handoff.isEmulating());
+	}
+
+	public void testPublish_UntilTaken() {
+		handoff.beginEmulation();
+		buffer.putString(0, 0, "one");
+		assertTrue(handoff.publish(buffer));
+		buffer.putString(0, 2, "two");
+		assertFalse("Changes should stay in the buffer", handoff.publish(buffer));
+		handoff.endEmulation();
+
+		FrameHandoff.Frame frame = handoff.takePublished();
+		assertEquals("one", line(frame, 0));
+		assertEquals(0, frame.end[2]);
+		assertNull(handoff.takePublished());
+
+		frame = handoff.takeIdle(buffer);
+		assertEquals("two", line(frame, 2));
+		assertEquals(1, handoff.getFramesPublished());
+	}
+
+	public void testTakeIdle_PublishedFrameFirst() {
+		handoff.beginEmulation();
+		buffer.putString(0, 0, "one");
+		handoff.publish(buffer);
+		handoff.endEmulation();
+		buffer.putString(0, 3, "two");
+
+		FrameHandoff.Frame frame = handoff.takeIdle(buffer);
+		assertEquals("one", line(frame, 0));
+		assertEquals(0, frame.end[3]);
+
+		assertEquals("two", line(handoff.takeIdle(buffer), 3));
+	}
+
+	public void testPublish_LeavesTakenFrameAlone() {
+		handoff.beginEmulation();
+		buffer.putString(0, 1, "old");
+		handoff.publish(buffer);
+		FrameHandoff.Frame frame = handoff.takePublished();
+
+		buffer.putString(0, 1, "new");
+		assertTrue(handoff.publish(buffer));
+		handoff.endEmulation();
+
+		assertEquals("old", line(frame, 1));
+		assertEquals("new", line(handoff.takePublished(), 1));
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import android.test.AndroidTestCase;
+
+public class RedrawSchedulerTest extends AndroidTestCase {
+	private static final long START = 100000;
+
+	public void testRequest_FirstFrameRightAway() {
+		RedrawScheduler scheduler = new RedrawScheduler();
+
+		assertEquals(0, scheduler.request(START));
+	}
+
+	public void testRequest_CoalescesWhilePending() {
+		RedrawScheduler scheduler = new RedrawScheduler();
+		scheduler.request(START);
+
+		assertEquals(RedrawScheduler.COALESCED, scheduler.request(START + 1));
+		assertEquals(RedrawScheduler.COALESCED, scheduler.request(START + 2));
+		assertEquals(3, scheduler.getFramesRequested());
+		assertEquals(2, scheduler.getFramesSkipped());
+	}
+
+	public void testRequest_OneFramePerInterval() {
+		RedrawScheduler scheduler = new RedrawScheduler();
+		scheduler.request(START);
+		scheduler.frameDrawn(START);
+
+		assertEquals(RedrawScheduler.FRAME_INTERVAL - 5, scheduler.request(START + 5));
+		assertEquals(1, scheduler.getFramesDrawn());
+	}
+
+	public void testRequest_SustainedOutputSlowsDown() {
+		RedrawScheduler scheduler = new RedrawScheduler();
+		long now = START;
+		for (; now < START + RedrawScheduler.BUSY_AFTER; now += 10) {
+			scheduler.request(now);
+			scheduler.frameDrawn(now);
+		}
+
+		assertEquals(RedrawScheduler.BUSY_FRAME_INTERVAL - 10, scheduler.request(now));
+	}
+
+	public void testRequest_EchoDrawnRightAway() {
+		RedrawScheduler scheduler = new RedrawScheduler();
+		long now = START;
+		for (; now < START + RedrawScheduler.BUSY_AFTER; now += 10) {
+			scheduler.request(now);
+			scheduler.frameDrawn(now);
+		}
+		scheduler.request(now);
+
+		scheduler.inputReceived(now + 1);
+		assertEquals("Echo should not wait for the pending frame", 0, scheduler.request(now + 2));
+		scheduler.frameDrawn(now + 3);
+		assertEquals("Typing should keep the short frame interval",
+				RedrawScheduler.FRAME_INTERVAL - 1, scheduler.request(now + 4));
+	}
+
+	public void testRequest_LostFrameAskedForAgain() {
+		RedrawScheduler scheduler = new RedrawScheduler();
+		scheduler.request(START);
+
+		assertEquals(0, scheduler.request(START + RedrawScheduler.FRAME_TIMEOUT));
+	}
+
+	public void testRequest_DroppedFrameAskedForAgain() {
+		RedrawScheduler scheduler = new RedrawScheduler();
+		scheduler.request(START);
+		scheduler.frameDropped();
+
+		assertEquals(0, scheduler.request(START + 1));
+		assertEquals(0, scheduler.getFramesDrawn());
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.util;
+
+import android.test.AndroidTestCase;
+
+public class ByteRingTest extends AndroidTestCase {
+	public void testCapacity_PowerOfTwo() {
+		try {
+			new ByteRing(100);
+			fail("Should not accept a capacity that is not a power of two");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testWriteRead() {
+		ByteRing ring = new ByteRing(8);
+		assertEquals(3, ring.write(new byte[] { 1, 2, 3 }, 0, 3));
+		assertEquals(3, ring.available());
+
+		byte[] out = new byte[8];
+		assertEquals(3, ring.read(out, 0, out.length));
+		assertEquals(1, out[0]);
+		assertEquals(3, out[2]);
+		assertEquals(0, ring.read(out, 0, out.length));
+	}
+
+	public void testWrite_StopsWhenFull() {
+		ByteRing ring = new ByteRing(4);
+		assertEquals(4, ring.write(new byte[6], 0, 6));
+		assertEquals(0, ring.write(new byte[1], 0, 1));
+	}
+
+	public void testWrapAround() {
+		ByteRing ring = new ByteRing(4);
+		byte[] out = new byte[4];
+		ring.write(new byte[] { 1, 2, 3 }, 0, 3);
+		ring.read(out, 0, 2);
+
+		assertEquals(3, ring.write(new byte[] { 4, 5, 6 }, 0, 3));
+		assertEquals(4, ring.read(out, 0, 4));
+		assertEquals(3, out[0]);
+		assertEquals(4, out[1]);
+		assertEquals(5, out[2]);
+		assertEquals(6, out[3]);
+	}
+
+	public void testSkipAll() {
+		ByteRing ring = new ByteRing(8);
+		ring.write(new byte[5], 0, 5);
+
+		assertEquals(5, ring.skipAll());
+		assertEquals(0, ring.available());
+		assertEquals(8, ring.write(new byte[8], 0, 8));
+	}
+
+	public void testSkipTo_KeepsLaterBytes() {
+		ByteRing ring = new ByteRing(8);
+		ring.write(new byte[] { 1, 2, 3 }, 0, 3);
+		long position = ring.getWritePosition();
+		ring.write(new byte[] { 4 }, 0, 1);
+
+		assertEquals(3, ring.skipTo(position));
+		assertEquals("Should not go back", 0, ring.skipTo(position - 1));
+
+		byte[] out = new byte[8];
+		assertEquals(1, ring.read(out, 0, out.length));
+		assertEquals(4, out[0]);
+	}
+
+	public void testReadBlocking_TimesOut() throws Exception {
+		ByteRing ring = new ByteRing(8);
+
+		assertEquals(0, ring.readBlocking(new byte[8], 0, 8, 1000000));
+	}
+
+	public void testClose_ReaderDrainsFirst() throws Exception {
+		ByteRing ring = new ByteRing(8);
+		ring.write(new byte[] { 7 }, 0, 1);
+		ring.close();
+
+		byte[] out = new byte[8];
+		assertEquals(1, ring.readBlocking(out, 0, out.length));
+		assertEquals(7, out[0]);
+		assertEquals(-1, ring.readBlocking(out, 0, out.length));
+		assertFalse(ring.writeFully(new byte[1], 0, 1));
+	}
+
+	public void testThreads_KeepOrder() throws Exception {
+		final ByteRing ring = new ByteRing(64);
+		final int total = 1 << 20;
+
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				byte[] chunk = new byte[37];
+				try {
+					for (int i = 0; i < total; i += chunk.length) {
+						int length = Math.min(chunk.length, total - i);
+						for (int j = 0; j < length; j++)
+							chunk[j] = (byte) (i + j);
+						ring.writeFully(chunk, 0, length);
+					}
+				} catch (InterruptedException e) {
+				}
+				ring.close();
+			}
+		});
+		writer.start();
+
+		byte[] out = new byte[100];
+		int position = 0;
+		int count;
+		while ((count = ring.readBlocking(out, 0, out.length)) >= 0) {
+			for (int i = 0; i < count; i++)
+				assertEquals((byte) (position + i), out[i]);
+			position += count;
+		}
+		writer.join();
+
+		assertEquals(total, position);
+	}
+}
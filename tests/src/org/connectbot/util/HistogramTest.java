@@ -0,0 +1,76 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.util;
+
+import android.test.AndroidTestCase;
+
+public class HistogramTest extends AndroidTestCase {
+	public void testBucketOf() {
+		assertEquals(0, Histogram.bucketOf(0));
+		assertEquals(1, Histogram.bucketOf(1));
+		assertEquals(2, Histogram.bucketOf(2));
+		assertEquals(2, Histogram.bucketOf(3));
+		assertEquals(3, Histogram.bucketOf(4));
+		assertEquals(11, Histogram.bucketOf(1024));
+		assertEquals(Histogram.BUCKETS - 1, Histogram.bucketOf(Long.MAX_VALUE));
+	}
+
+	public void testBucketLimit_MatchesBucketOf() {
+		for (int i = 0; i < Histogram.BUCKETS - 1; i++) {
+			assertEquals(i, Histogram.bucketOf(Histogram.bucketLimit(i)));
+			assertEquals(i + 1, Histogram.bucketOf(Histogram.bucketLimit(i) + 1));
+		}
+	}
+
+	public void testAdd() {
+		Histogram histogram = new Histogram();
+		histogram.add(3);
+		histogram.add(5);
+		histogram.add(-1);
+
+		assertEquals(3, histogram.getCount());
+		assertEquals(8, histogram.getSum());
+		assertEquals(5, histogram.getMax());
+		assertEquals(1, histogram.getCount(0));
+		assertEquals(1, histogram.getCount(2));
+		assertEquals(1, histogram.getCount(3));
+	}
+
+	public void testPercentile() {
+		Histogram histogram = new Histogram();
+		for (int i = 0; i < 99; i++)
+			histogram.add(10);
+		histogram.add(1000);
+
+		assertEquals(15, histogram.getPercentile(50));
+		assertEquals(15, histogram.getPercentile(99));
+		assertEquals("Should not go above the largest value", 1000, histogram.getPercentile(100));
+		assertEquals(0, new Histogram().getPercentile(50));
+	}
+
+	public void testCopy() {
+		Histogram histogram = new Histogram();
+		histogram.add(7);
+		Histogram copy = new Histogram(histogram);
+		histogram.clear();
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(1, copy.getCount());
+		assertEquals(7, copy.getMax());
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+
+public class SlotCacheTest extends AndroidTestCase {
+	public void testGet_Missing() {
+		SlotCache cache = new SlotCache(4);
+
+		assertEquals(-1, cache.get(42));
+	}
+
+	public void testPut_FillsSlots() {
+		SlotCache cache = new SlotCache(3);
+		int a = cache.put(10);
+		int b = cache.put(20);
+		int c = cache.put(30);
+
+		assertEquals(a, cache.get(10));
+		assertEquals(b, cache.get(20));
+		assertEquals(c, cache.get(30));
+		assertEquals(3, cache.size());
+		assertTrue(a != b && b != c && a != c);
+	}
+
+	public void testPut_EvictsLeastRecentlyUsed() {
+		SlotCache cache = new SlotCache(3);
+		cache.put(10);
+		int b = cache.put(20);
+		cache.put(30);
+		cache.get(10);
+
+		assertEquals("Least recently used slot should be reused", b, cache.put(40));
+		assertEquals(-1, cache.get(20));
+		assertEquals(b, cache.get(40));
+	}
+
+	public void testClear() {
+		SlotCache cache = new SlotCache(2);
+		cache.put(1);
+		cache.put(2);
+		cache.clear();
+
+		assertEquals(-1, cache.get(1));
+		assertEquals(0, cache.size());
+		cache.put(3);
+		assertEquals(1, cache.size());
+	}
+
+	public void testRandom_MatchesLinkedHashMap() {
+		final int capacity = 16;
+		Map<Long, Integer> expected = new LinkedHashMap<Long, Integer>(capacity, 0.75f, true);
+		SlotCache cache = new SlotCache(capacity);
+		Random random = new Random(11);
+
+		for (int i = 0; i < 10000; i++) {
+			long key = random.nextInt(40) * 0x100000001L;
+			int slot = cache.get(key);
+			Integer known = expected.get(key);
+			if (known == null) {
+				assertEquals("key " + key, -1, slot);
+				if (expected.size() == capacity) {
+					Long eldest = expected.keySet().iterator().next();
+					int freed = expected.remove(eldest);
+					assertEquals("key " + key, freed, cache.put(key));
+					expected.put(key, freed);
+				} else {
+					expected.put(key, cache.put(key));
+				}
+			} else {
+				assertEquals("key " + key, known.intValue(), slot);
+			}
+		}
+
+		Map<Integer, Long> slots = new HashMap<Integer, Long>();
+		for (Map.Entry<Long, Integer> entry : expected.entrySet())
+			assertNull("Slot used twice", slots.put(entry.getValue(), entry.getKey()));
+	}
+}
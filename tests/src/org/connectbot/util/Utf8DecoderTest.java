@@ -0,0 +1,87 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.util;
+
+import android.test.AndroidTestCase;
+
+public class Utf8DecoderTest extends AndroidTestCase {
+	private Utf8Decoder decoder;
+	private char[] out;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		decoder = new Utf8Decoder();
+		out = new char[64];
+	}
+
+	private String decode(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+			bytes[i] = (byte) values[i];
+		return new String(out, 0, decoder.decode(bytes, 0, bytes.length, out, 0));
+	}
+
+	public void testAscii() {
+		assertEquals("ls -l\r\n", decode('l', 's', ' ', '-', 'l', '\r', '\n'));
+		assertEquals(-1, decoder.getFirstNonAscii());
+		assertEquals(-1, decoder.getLastNonAscii());
+	}
+
+	public void testMultiByte() {
+		assertEquals("a\u00e9\u20acb", decode('a', 0xc3, 0xa9, 0xe2, 0x82, 0xac, 'b'));
+		assertEquals(1, decoder.getFirstNonAscii());
+		assertEquals(2, decoder.getLastNonAscii());
+	}
+
+	public void testSupplementary() {
+		assertEquals("\ud83d\ude00", decode(0xf0, 0x9f, 0x98, 0x80));
+	}
+
+	public void testSequenceSplitAcrossReads() {
+		assertEquals("a", decode('a', 0xe6));
+		assertEquals("", decode(0x97));
+		assertEquals("\u65e5b", decode(0xa5, 'b'));
+		assertEquals(0, decoder.getFirstNonAscii());
+	}
+
+	public void testInvalidLeadBytes() {
+		assertEquals("\ufffd\ufffd\ufffda", decode(0x80, 0xc0, 0xff, 'a'));
+	}
+
+	public void testTruncatedSequence() {
+		assertEquals("\ufffda", decode(0xe2, 0x82, 'a'));
+	}
+
+	public void testOverlongAndSurrogates() {
+		assertEquals("Overlong forms are not decoded",
+				"\ufffd\ufffd\ufffd", decode(0xe0, 0x80, 0x80));
+		assertEquals("Surrogates are not decoded",
+				"\ufffd\ufffd\ufffd", decode(0xed, 0xa0, 0x80));
+		assertEquals("Nothing above U+10FFFF",
+				"\ufffd\ufffd\ufffd\ufffd", decode(0xf4, 0x90, 0x80, 0x80));
+	}
+
+	public void testReset() {
+		decode(0xc3);
+		decoder.reset();
+
+		assertEquals("\ufffd", decode(0xa9));
+	}
+}